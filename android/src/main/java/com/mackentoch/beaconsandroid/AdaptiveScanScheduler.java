@@ -0,0 +1,145 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Adapts the between scan period to the beacon activity: the period grows geometrically
+ * towards its upper bound while ranging sees the same beacons with steady rssi and no region
+ * transition occurs, and drops back to its lower bound as soon as a beacon appears, its rssi
+ * moves past the threshold, or a region is entered or exited.
+ *
+ * Ranging is delivered once per ranged region and scan cycle: as in ScanMetrics, a callback
+ * following the previous one by more than ScanMetrics.CYCLE_GAP_NANOS starts a new cycle. A
+ * cycle is counted as stable when the next one starts, if none of its callbacks saw activity.
+ *
+ * Per beacon state is kept in primitive arrays indexed by the handle of the beacon identity,
+ * like ProximityTracker.
+ */
+class AdaptiveScanScheduler {
+  static final long DEFAULT_MIN_BETWEEN_SCAN_PERIOD = 0;
+  static final long DEFAULT_MAX_BETWEEN_SCAN_PERIOD = 10000;
+  static final double DEFAULT_GROWTH_FACTOR = 2;
+  static final int DEFAULT_STABLE_CYCLES = 5;
+  static final int DEFAULT_RSSI_THRESHOLD = 8;
+  static final long DEFAULT_ABSENCE_MS = 10000;
+  static final long NO_CHANGE = -1;
+  // first step out of a zero lower bound
+  private static final long MIN_GROWTH_STEP = 1000;
+
+  private final BeaconIdentityCache mIdentityCache;
+  private final BeaconIdentityCache.BeaconIdentity[] mOwners;
+  private final int[] mReferenceRssi;
+  private final long[] mLastSeenTimes;
+
+  private long mMinBetweenScanPeriod = DEFAULT_MIN_BETWEEN_SCAN_PERIOD;
+  private long mMaxBetweenScanPeriod = DEFAULT_MAX_BETWEEN_SCAN_PERIOD;
+  private double mGrowthFactor = DEFAULT_GROWTH_FACTOR;
+  private int mStableCycles = DEFAULT_STABLE_CYCLES;
+  private int mRssiThreshold = DEFAULT_RSSI_THRESHOLD;
+  private long mAbsenceMs = DEFAULT_ABSENCE_MS;
+  private long mBetweenScanPeriod = DEFAULT_MIN_BETWEEN_SCAN_PERIOD;
+  private int mStableCount;
+  private long mLastCallbackNanos;
+  private boolean mCycleActive;
+
+  AdaptiveScanScheduler(BeaconIdentityCache identityCache) {
+    mIdentityCache = identityCache;
+    int capacity = identityCache.getMaxSize();
+    mOwners = new BeaconIdentityCache.BeaconIdentity[capacity];
+    mReferenceRssi = new int[capacity];
+    mLastSeenTimes = new long[capacity];
+  }
+
+  /**
+   * @return the between scan period to start from (the lower bound)
+   */
+  synchronized long configure(long minBetweenScanPeriod, long maxBetweenScanPeriod, double growthFactor,
+                              int stableCycles, int rssiThreshold, long absenceMs) {
+    mMinBetweenScanPeriod = Math.max(0, minBetweenScanPeriod);
+    mMaxBetweenScanPeriod = Math.max(mMinBetweenScanPeriod, maxBetweenScanPeriod);
+    mGrowthFactor = Math.max(1, growthFactor);
+    mStableCycles = Math.max(1, stableCycles);
+    mRssiThreshold = Math.max(1, rssiThreshold);
+    mAbsenceMs = Math.max(0, absenceMs);
+    mBetweenScanPeriod = mMinBetweenScanPeriod;
+    mStableCount = 0;
+    return mBetweenScanPeriod;
+  }
+
+  /**
+   * @param nowNanos System.nanoTime() of the ranging callback
+   * @return the new between scan period, NO_CHANGE if it must be kept
+   */
+  synchronized long onRanging(Collection<Beacon> beacons, long nowNanos) {
+    long change = NO_CHANGE;
+    if (mLastCallbackNanos == 0 || nowNanos - mLastCallbackNanos > ScanMetrics.CYCLE_GAP_NANOS) {
+      if (mLastCallbackNanos != 0 && !mCycleActive) {
+        change = onStableCycle();
+      }
+      mCycleActive = false;
+    }
+    mLastCallbackNanos = nowNanos;
+    boolean active = false;
+    long now = nowNanos / 1000000;
+    // a beacon is back when it was not seen for the absence window plus the current pause
+    long absence = mAbsenceMs + mBetweenScanPeriod;
+    for (Beacon beacon : beacons) {
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      int h = identity.handle;
+      int rssi = beacon.getRssi();
+      if (mOwners[h] != identity || now - mLastSeenTimes[h] > absence) {
+        mOwners[h] = identity;
+        mReferenceRssi[h] = rssi;
+        active = true;
+      } else if (Math.abs(rssi - mReferenceRssi[h]) >= mRssiThreshold) {
+        // the reference only moves on a trend change, so a slow drift eventually triggers too
+        mReferenceRssi[h] = rssi;
+        active = true;
+      }
+      mLastSeenTimes[h] = now;
+    }
+    if (active) {
+      return onActivity();
+    }
+    return change;
+  }
+
+  private long onStableCycle() {
+    if (++mStableCount < mStableCycles || mBetweenScanPeriod >= mMaxBetweenScanPeriod) {
+      return NO_CHANGE;
+    }
+    mStableCount = 0;
+    long grown = Math.max((long) (mBetweenScanPeriod * mGrowthFactor), mBetweenScanPeriod + MIN_GROWTH_STEP);
+    mBetweenScanPeriod = Math.min(grown, mMaxBetweenScanPeriod);
+    return mBetweenScanPeriod;
+  }
+
+  /**
+   * Region transitions and new beacons bring the period back to its lower bound.
+   *
+   * @return the new between scan period, NO_CHANGE if it is already at the lower bound
+   */
+  synchronized long onActivity() {
+    mStableCount = 0;
+    mCycleActive = true;
+    if (mBetweenScanPeriod == mMinBetweenScanPeriod) {
+      return NO_CHANGE;
+    }
+    mBetweenScanPeriod = mMinBetweenScanPeriod;
+    return mBetweenScanPeriod;
+  }
+
+  synchronized long getBetweenScanPeriod() {
+    return mBetweenScanPeriod;
+  }
+
+  synchronized void clear() {
+    Arrays.fill(mOwners, null);
+    mStableCount = 0;
+    mLastCallbackNanos = 0;
+    mCycleActive = false;
+  }
+}
@@ -0,0 +1,176 @@
+package com.mackentoch.beaconsandroid;
+
+import android.bluetooth.le.AdvertiseCallback;
+import android.bluetooth.le.AdvertiseSettings;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.BeaconParser;
+import org.altbeacon.beacon.BeaconTransmitter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Advertises several beacons (e.g. iBeacon and Eddystone-UID) with one BeaconTransmitter per
+ * advertisement set. They run simultaneously when the controller supports multiple
+ * advertisements, otherwise (or once the controller runs out of advertisers) the sets take
+ * turns, each advertising alone for the rotation interval.
+ *
+ * The rotation runs on the main looper. The listener is always called without holding the
+ * lock of the scheduler.
+ */
+class AdvertisingScheduler {
+  private static final String LOG_TAG = "BeaconsAdvertising";
+  static final long DEFAULT_ROTATION_INTERVAL_MS = 1000;
+
+  interface Listener {
+    void onFailure(String setId, int errorCode);
+  }
+
+  static final class AdvertisementSet {
+    final String id;
+    final BeaconParser parser;
+    final Beacon beacon;
+    final int advertiseMode;
+    final int txPowerLevel;
+    BeaconTransmitter transmitter;
+
+    AdvertisementSet(String id, BeaconParser parser, Beacon beacon, int advertiseMode, int txPowerLevel) {
+      this.id = id;
+      this.parser = parser;
+      this.beacon = beacon;
+      this.advertiseMode = advertiseMode;
+      this.txPowerLevel = txPowerLevel;
+    }
+  }
+
+  private final Context mContext;
+  private final Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final List<AdvertisementSet> mSets = new ArrayList<>();
+  private boolean mRotating;
+  private long mRotationIntervalMs = DEFAULT_ROTATION_INTERVAL_MS;
+  private int mRotationIndex;
+  private final Runnable mRotateRunnable = new Runnable() {
+    @Override
+    public void run() {
+      rotate();
+    }
+  };
+
+  AdvertisingScheduler(Context context, Listener listener) {
+    mContext = context;
+    mListener = listener;
+  }
+
+  /**
+   * Replaces the advertised sets.
+   *
+   * @param rotate true to advertise one set at a time from the start
+   */
+  synchronized void start(List<AdvertisementSet> sets, boolean rotate, long rotationIntervalMs) {
+    stop();
+    mSets.addAll(sets);
+    mRotationIntervalMs = rotationIntervalMs > 0 ? rotationIntervalMs : DEFAULT_ROTATION_INTERVAL_MS;
+    for (AdvertisementSet set : mSets) {
+      set.transmitter = new BeaconTransmitter(mContext, set.parser);
+      set.transmitter.setAdvertiseMode(set.advertiseMode);
+      set.transmitter.setAdvertiseTxPowerLevel(set.txPowerLevel);
+    }
+    if (rotate && mSets.size() > 1) {
+      startRotation();
+      return;
+    }
+    for (AdvertisementSet set : mSets) {
+      startAdvertising(set);
+    }
+  }
+
+  synchronized void stop() {
+    mHandler.removeCallbacks(mRotateRunnable);
+    for (AdvertisementSet set : mSets) {
+      stopAdvertising(set);
+    }
+    mSets.clear();
+    mRotating = false;
+  }
+
+  synchronized boolean isRotating() {
+    return mRotating;
+  }
+
+  synchronized int size() {
+    return mSets.size();
+  }
+
+  private void startRotation() {
+    Log.d(LOG_TAG, "startRotation, sets: " + mSets.size() + ", interval: " + mRotationIntervalMs);
+    for (AdvertisementSet set : mSets) {
+      stopAdvertising(set);
+    }
+    mRotating = true;
+    mRotationIndex = -1;
+    rotate();
+  }
+
+  private synchronized void rotate() {
+    if (mSets.isEmpty()) {
+      return;
+    }
+    if (mRotationIndex >= 0) {
+      stopAdvertising(mSets.get(mRotationIndex));
+    }
+    mRotationIndex = (mRotationIndex + 1) % mSets.size();
+    startAdvertising(mSets.get(mRotationIndex));
+    mHandler.postDelayed(mRotateRunnable, mRotationIntervalMs);
+  }
+
+  private void startAdvertising(final AdvertisementSet set) {
+    final BeaconTransmitter transmitter = set.transmitter;
+    transmitter.startAdvertising(set.beacon, new AdvertiseCallback() {
+      @Override
+      public void onStartFailure(final int errorCode) {
+        mHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (handleStartFailure(set, transmitter, errorCode)) {
+              mListener.onFailure(set.id, errorCode);
+            }
+          }
+        });
+      }
+
+      @Override
+      public void onStartSuccess(AdvertiseSettings settingsInEffect) {
+        Log.d(LOG_TAG, "startAdvertising, started: " + set.id);
+      }
+    });
+  }
+
+  /**
+   * @return true if the failure has to be reported
+   */
+  private synchronized boolean handleStartFailure(AdvertisementSet set, BeaconTransmitter transmitter, int errorCode) {
+    // the set was stopped or replaced meanwhile
+    if (!mSets.contains(set) || set.transmitter != transmitter) {
+      return false;
+    }
+    Log.w(LOG_TAG, "startAdvertising, failed: " + set.id + ", errorCode: " + errorCode);
+    if (errorCode == AdvertiseCallback.ADVERTISE_FAILED_TOO_MANY_ADVERTISERS && !mRotating && mSets.size() > 1) {
+      // out of advertisers: take turns instead
+      startRotation();
+      return false;
+    }
+    return true;
+  }
+
+  private static void stopAdvertising(AdvertisementSet set) {
+    if (set.transmitter != null && set.transmitter.isStarted()) {
+      set.transmitter.stopAdvertising();
+    }
+  }
+}
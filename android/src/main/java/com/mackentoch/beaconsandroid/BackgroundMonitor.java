@@ -0,0 +1,211 @@
+package com.mackentoch.beaconsandroid;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.BeaconManager;
+import org.altbeacon.beacon.MonitorNotifier;
+import org.altbeacon.beacon.RangeNotifier;
+import org.altbeacon.beacon.Region;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Process-wide owner of the event journal and of the headless task, so that they outlive the
+ * JS instances instead of being duplicated by the modules of the previous ones.
+ *
+ * Its notifiers are registered once per process and journal the monitoring and ranging
+ * (`beaconsDidRange`, full payload) events while no module is attached. Payloads are built on
+ * the journal thread, off the scan thread. A module attaches in
+ * initialize(), journals itself while its JS instance is not active, and detaches in
+ * onCatalystInstanceDestroy() once its own notifiers are removed: every event is journaled
+ * once. Region transitions go to the HeadlessTaskScheduler while no JS instance is active.
+ *
+ * The configuration is persisted, and BeaconsInitProvider restores the monitor when a process
+ * starts, so that a process restarted by the scanning service journals and runs the headless
+ * task too.
+ */
+class BackgroundMonitor {
+  private static final String PREFERENCES_NAME = "com.mackentoch.beaconsandroid.BackgroundMonitor";
+  private static final String KEY_JOURNAL_ENABLED = "journalEnabled";
+  private static final String KEY_JOURNAL_MAX_BYTES = "journalMaxBytes";
+  private static final String KEY_JOURNAL_MAX_AGE_MS = "journalMaxAgeMs";
+  private static final String KEY_HEADLESS_ENABLED = "headlessEnabled";
+  private static final String KEY_HEADLESS_BATCH_WINDOW_MS = "headlessBatchWindowMs";
+  private static final String KEY_HEADLESS_MIN_INTERVAL_MS = "headlessMinIntervalMs";
+  private static final String KEY_HEADLESS_TIMEOUT_MS = "headlessTimeoutMs";
+
+  private static BackgroundMonitor sInstance;
+
+  static synchronized BackgroundMonitor getInstance(Context context) {
+    if (sInstance == null) {
+      sInstance = new BackgroundMonitor(context.getApplicationContext());
+    }
+    return sInstance;
+  }
+
+  /**
+   * Creates the monitor at process start if the journal or the headless task is enabled.
+   */
+  static void restore(Context context) {
+    SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    if (preferences.getBoolean(KEY_JOURNAL_ENABLED, false) || preferences.getBoolean(KEY_HEADLESS_ENABLED, false)) {
+      getInstance(context);
+    }
+  }
+
+  private final SharedPreferences mPreferences;
+  private final EventJournal mEventJournal;
+  private final EventPayloadBuilder mPayloadBuilder = new EventPayloadBuilder(new BeaconIdentityCache(), PayloadFactory.JAVA_ONLY);
+  private volatile boolean mEventJournalEnabled;
+  private final HeadlessTaskScheduler mHeadlessTaskScheduler;
+  private volatile boolean mHeadlessTaskEnabled;
+  // the context of the attached module, guarded by this
+  @Nullable private WeakReference<ReactContext> mAttached;
+
+  private final MonitorNotifier mMonitorNotifier = new MonitorNotifier() {
+    @Override
+    public void didEnterRegion(Region region) {
+      journal("regionDidEnter", region, null);
+      if (mHeadlessTaskEnabled && !isJsInstanceActive()) {
+        mHeadlessTaskScheduler.add(region, "enter");
+      }
+    }
+
+    @Override
+    public void didExitRegion(Region region) {
+      journal("regionDidExit", region, null);
+      if (mHeadlessTaskEnabled && !isJsInstanceActive()) {
+        mHeadlessTaskScheduler.add(region, "exit");
+      }
+    }
+
+    @Override
+    public void didDetermineStateForRegion(int i, Region region) {
+      journal("didDetermineState", region, i == MonitorNotifier.INSIDE ? "inside" : i == MonitorNotifier.OUTSIDE ? "outside" : "unknown");
+    }
+  };
+
+  private final RangeNotifier mRangeNotifier = new RangeNotifier() {
+    @Override
+    public void didRangeBeaconsInRegion(Collection<Beacon> beacons, final Region region) {
+      if (mEventJournalEnabled && !isAttached()) {
+        // the collection belongs to AltBeacon, the journal thread gets its own snapshot, without
+        // the beacons that have no identity
+        final List<Beacon> snapshot = BeaconIdentityCache.getIdentifiedBeacons(beacons);
+        mEventJournal.append("beaconsDidRange", new EventJournal.ParamsBuilder() {
+          @Override
+          public ReadableMap build() {
+            return mPayloadBuilder.createRangingResponse(snapshot, region, false);
+          }
+        });
+      }
+    }
+  };
+
+  private BackgroundMonitor(Context context) {
+    mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    mEventJournal = new EventJournal(context.getFilesDir());
+    mEventJournal.configure(
+      mPreferences.getLong(KEY_JOURNAL_MAX_BYTES, EventJournal.DEFAULT_MAX_BYTES),
+      mPreferences.getLong(KEY_JOURNAL_MAX_AGE_MS, EventJournal.DEFAULT_MAX_AGE_MS));
+    mEventJournalEnabled = mPreferences.getBoolean(KEY_JOURNAL_ENABLED, false);
+    mHeadlessTaskScheduler = new HeadlessTaskScheduler(context, new HeadlessTaskScheduler.JsInstanceState() {
+      @Override
+      public boolean isJsInstanceActive() {
+        return BackgroundMonitor.this.isJsInstanceActive();
+      }
+    });
+    mHeadlessTaskScheduler.configure(
+      mPreferences.getLong(KEY_HEADLESS_BATCH_WINDOW_MS, HeadlessTaskScheduler.DEFAULT_BATCH_WINDOW_MS),
+      mPreferences.getLong(KEY_HEADLESS_MIN_INTERVAL_MS, HeadlessTaskScheduler.DEFAULT_MIN_INTERVAL_MS),
+      mPreferences.getLong(KEY_HEADLESS_TIMEOUT_MS, HeadlessTaskScheduler.DEFAULT_TIMEOUT_MS));
+    mHeadlessTaskEnabled = mPreferences.getBoolean(KEY_HEADLESS_ENABLED, false);
+    BeaconManager beaconManager = BeaconManager.getInstanceForApplication(context);
+    beaconManager.addMonitorNotifier(mMonitorNotifier);
+    beaconManager.addRangeNotifier(mRangeNotifier);
+  }
+
+  synchronized void attach(ReactContext reactContext) {
+    mAttached = new WeakReference<>(reactContext);
+  }
+
+  /**
+   * Only detaches the module of `reactContext`: the module of a newer JS instance may already
+   * be attached.
+   */
+  synchronized void detach(ReactContext reactContext) {
+    if (mAttached != null && mAttached.get() == reactContext) {
+      mAttached = null;
+    }
+  }
+
+  void setEventJournal(boolean enabled, long maxBytes, long maxAgeMs) {
+    mEventJournal.configure(maxBytes, maxAgeMs);
+    if (!enabled) {
+      mEventJournal.clear();
+    }
+    mEventJournalEnabled = enabled;
+    mPreferences.edit()
+      .putBoolean(KEY_JOURNAL_ENABLED, enabled)
+      .putLong(KEY_JOURNAL_MAX_BYTES, maxBytes)
+      .putLong(KEY_JOURNAL_MAX_AGE_MS, maxAgeMs)
+      .apply();
+  }
+
+  void setHeadlessTask(boolean enabled, long batchWindowMs, long minIntervalMs, long timeoutMs) {
+    mHeadlessTaskScheduler.configure(batchWindowMs, minIntervalMs, timeoutMs);
+    if (!enabled) {
+      mHeadlessTaskScheduler.clear();
+    }
+    mHeadlessTaskEnabled = enabled;
+    mPreferences.edit()
+      .putBoolean(KEY_HEADLESS_ENABLED, enabled)
+      .putLong(KEY_HEADLESS_BATCH_WINDOW_MS, batchWindowMs)
+      .putLong(KEY_HEADLESS_MIN_INTERVAL_MS, minIntervalMs)
+      .putLong(KEY_HEADLESS_TIMEOUT_MS, timeoutMs)
+      .apply();
+  }
+
+  boolean isEventJournalEnabled() {
+    return mEventJournalEnabled;
+  }
+
+  EventJournal getEventJournal() {
+    return mEventJournal;
+  }
+
+  private synchronized boolean isAttached() {
+    return mAttached != null && mAttached.get() != null;
+  }
+
+  private synchronized boolean isJsInstanceActive() {
+    ReactContext reactContext = mAttached != null ? mAttached.get() : null;
+    return reactContext != null && reactContext.hasActiveCatalystInstance();
+  }
+
+  private void journal(String eventName, final Region region, @Nullable final String state) {
+    if (!mEventJournalEnabled || isAttached()) {
+      return;
+    }
+    mEventJournal.append(eventName, new EventJournal.ParamsBuilder() {
+      @Override
+      public ReadableMap build() {
+        WritableMap map = mPayloadBuilder.createMonitoringResponse(region);
+        if (state != null) {
+          map.putString("state", state);
+        }
+        return map;
+      }
+    });
+  }
+}
@@ -0,0 +1,313 @@
+package com.mackentoch.beaconsandroid;
+
+import androidx.annotation.Nullable;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Registry of beacon identities (every identifier of the beacon, e.g. uuid/major/minor or
+ * Eddystone namespace/instance). Each identity gets a stable integer handle
+ * and caches the string form of its identifiers, so that ranging payloads don't format every
+ * identifier on every scan cycle and JS can index beacons by integer.
+ *
+ * The index is an open addressing table of handles (int[]), probed with the hash of the
+ * identifiers (Identifier hashes its bytes, unlike Beacon#hashCode which builds a string):
+ * looking up a known identity neither allocates nor boxes. The registry is bounded, the least
+ * recently seen identity is evicted and its handle reused when it is full.
+ */
+class BeaconIdentityCache {
+  static final int DEFAULT_MAX_SIZE = 1024;
+  private static final int NONE = -1;
+
+  static final class BeaconIdentity {
+    final int handle;
+    final Identifier id1;
+    // every identifier, the identity is keyed on all of them
+    final Identifier[] identifiers;
+    // id2 and id3 are 2 byte identifiers (iBeacon, AltBeacon)
+    final boolean hasMajorMinor;
+    final int major;
+    final int minor;
+    final String uuid;
+    private final int mHash;
+
+    BeaconIdentity(int handle, Identifier[] identifiers, boolean hasMajorMinor, int major, int minor, String uuid, int hash) {
+      this.handle = handle;
+      this.id1 = identifiers[0];
+      this.identifiers = identifiers;
+      this.hasMajorMinor = hasMajorMinor;
+      this.major = major;
+      this.minor = minor;
+      this.uuid = uuid;
+      this.mHash = hash;
+    }
+
+    boolean matches(Beacon beacon, int count) {
+      if (identifiers.length != count) {
+        return false;
+      }
+      // the last identifiers (minor, instance) differ the most between beacons
+      for (int i = count - 1; i >= 0; i--) {
+        if (!identifiers[i].equals(beacon.getIdentifier(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BeaconIdentity)) {
+        return false;
+      }
+      return Arrays.equals(identifiers, ((BeaconIdentity) o).identifiers);
+    }
+
+    @Override
+    public int hashCode() {
+      return mHash;
+    }
+  }
+
+  private final int mMaxSize;
+  // open addressing index: handle + 1, 0 marks an empty slot
+  private final int[] mSlots;
+  private final BeaconIdentity[] mIdentities;
+  // least recently seen list, threaded through handles
+  private final int[] mPrev;
+  private final int[] mNext;
+  private final boolean[] mAnnounced;
+  private int mHead = NONE;
+  private int mTail = NONE;
+  private int mSize;
+  private int mNextFreeHandle;
+  private final int[] mFreeHandles;
+  private int mFreeCount;
+  private final HashMap<Identifier, String> mUuids = new HashMap<>();
+
+  BeaconIdentityCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  BeaconIdentityCache(int maxSize) {
+    mMaxSize = maxSize;
+    // keep the load factor under 0.5 so probe sequences stay short
+    int capacity = Integer.highestOneBit(Math.max(maxSize, 8) * 2 - 1) << 1;
+    mSlots = new int[capacity];
+    mIdentities = new BeaconIdentity[maxSize];
+    mPrev = new int[maxSize];
+    mNext = new int[maxSize];
+    mAnnounced = new boolean[maxSize];
+    mFreeHandles = new int[maxSize];
+  }
+
+  /**
+   * @return the beacons that have an identity: a parser may match a layout without identifiers
+   */
+  static List<Beacon> getIdentifiedBeacons(Collection<Beacon> beacons) {
+    List<Beacon> identified = new ArrayList<>(beacons.size());
+    for (Beacon beacon : beacons) {
+      if (!beacon.getIdentifiers().isEmpty()) {
+        identified.add(beacon);
+      }
+    }
+    return identified;
+  }
+
+  /**
+   * @throws IllegalArgumentException for a beacon without identifiers, see getIdentifiedBeacons
+   */
+  synchronized BeaconIdentity get(Beacon beacon) {
+    // identifiers are read one by one: getIdentifiers() wraps the list in a new unmodifiable view
+    int count = beacon.getIdentifiers().size();
+    if (count == 0) {
+      throw new IllegalArgumentException("beacon without identifiers: " + beacon);
+    }
+    int hash = hash(beacon, count);
+
+    int mask = mSlots.length - 1;
+    int index = hash & mask;
+    int slot;
+    while ((slot = mSlots[index]) != 0) {
+      BeaconIdentity identity = mIdentities[slot - 1];
+      if (identity.hashCode() == hash && identity.matches(beacon, count)) {
+        moveToHead(identity.handle);
+        return identity;
+      }
+      index = (index + 1) & mask;
+    }
+
+    if (mSize >= mMaxSize) {
+      // walk-through deployments keep seeing new tags: forget the least recently seen one
+      evict(mTail);
+      index = hash & mask;
+      while (mSlots[index] != 0) {
+        index = (index + 1) & mask;
+      }
+    }
+    int handle = mFreeCount > 0 ? mFreeHandles[--mFreeCount] : mNextFreeHandle++;
+    Identifier[] copy = beacon.getIdentifiers().toArray(new Identifier[count]);
+    // toInt() throws for identifiers longer than 2 bytes
+    boolean hasMajorMinor = copy.length > 2 && copy[1].getByteCount() == 2 && copy[2].getByteCount() == 2;
+    int major = hasMajorMinor ? copy[1].toInt() : 0;
+    int minor = hasMajorMinor ? copy[2].toInt() : 0;
+    BeaconIdentity identity = new BeaconIdentity(handle, copy, hasMajorMinor, major, minor, getUuidString(copy[0]), hash);
+    mIdentities[handle] = identity;
+    mAnnounced[handle] = false;
+    mSlots[index] = handle + 1;
+    mSize++;
+    linkAtHead(handle);
+    return identity;
+  }
+
+  /**
+   * @return true if the identity still owns its handle (it was not evicted meanwhile)
+   */
+  synchronized boolean isRegistered(BeaconIdentity identity) {
+    return mIdentities[identity.handle] == identity;
+  }
+
+  /**
+   * Marks the handle of this identity as sent to JS.
+   *
+   * @return true if it was not sent yet (the identity is new or its handle was reused)
+   */
+  synchronized boolean announce(BeaconIdentity identity) {
+    if (!isRegistered(identity) || mAnnounced[identity.handle]) {
+      return false;
+    }
+    mAnnounced[identity.handle] = true;
+    return true;
+  }
+
+  /**
+   * Makes every handle to be sent again (e.g. after a JS reload).
+   */
+  synchronized void resetAnnounced() {
+    Arrays.fill(mAnnounced, false);
+  }
+
+  synchronized String getUuidString(@Nullable Identifier id1) {
+    if (id1 == null) {
+      return "";
+    }
+    String uuid = mUuids.get(id1);
+    if (uuid == null) {
+      if (mUuids.size() >= mMaxSize) {
+        mUuids.clear();
+      }
+      uuid = id1.toString();
+      mUuids.put(id1, uuid);
+    }
+    return uuid;
+  }
+
+  /**
+   * @return registered identities, most recently seen first
+   */
+  synchronized List<BeaconIdentity> getIdentities() {
+    List<BeaconIdentity> identities = new ArrayList<>(mSize);
+    for (int handle = mHead; handle != NONE; handle = mNext[handle]) {
+      identities.add(mIdentities[handle]);
+    }
+    return identities;
+  }
+
+  int getMaxSize() {
+    return mMaxSize;
+  }
+
+  synchronized int size() {
+    return mSize;
+  }
+
+  synchronized void clear() {
+    Arrays.fill(mSlots, 0);
+    Arrays.fill(mIdentities, null);
+    Arrays.fill(mAnnounced, false);
+    mUuids.clear();
+    mHead = NONE;
+    mTail = NONE;
+    mSize = 0;
+    mNextFreeHandle = 0;
+    mFreeCount = 0;
+  }
+
+  private void evict(int handle) {
+    BeaconIdentity identity = mIdentities[handle];
+    int mask = mSlots.length - 1;
+    int index = identity.hashCode() & mask;
+    while (mSlots[index] != handle + 1) {
+      index = (index + 1) & mask;
+    }
+    // backward shift deletion: move up the entries whose probe sequence went through this slot
+    int next = (index + 1) & mask;
+    while (mSlots[next] != 0) {
+      int home = mIdentities[mSlots[next] - 1].hashCode() & mask;
+      if (((next - home) & mask) >= ((next - index) & mask)) {
+        mSlots[index] = mSlots[next];
+        index = next;
+      }
+      next = (next + 1) & mask;
+    }
+    mSlots[index] = 0;
+
+    unlink(handle);
+    mIdentities[handle] = null;
+    mFreeHandles[mFreeCount++] = handle;
+    mSize--;
+  }
+
+  private void moveToHead(int handle) {
+    if (mHead == handle) {
+      return;
+    }
+    unlink(handle);
+    linkAtHead(handle);
+  }
+
+  private void linkAtHead(int handle) {
+    mPrev[handle] = NONE;
+    mNext[handle] = mHead;
+    if (mHead != NONE) {
+      mPrev[mHead] = handle;
+    }
+    mHead = handle;
+    if (mTail == NONE) {
+      mTail = handle;
+    }
+  }
+
+  private void unlink(int handle) {
+    int prev = mPrev[handle];
+    int next = mNext[handle];
+    if (prev != NONE) {
+      mNext[prev] = next;
+    } else {
+      mHead = next;
+    }
+    if (next != NONE) {
+      mPrev[next] = prev;
+    } else {
+      mTail = prev;
+    }
+  }
+
+  private static int hash(Beacon beacon, int count) {
+    int h = 1;
+    for (int i = 0; i < count; i++) {
+      h = 31 * h + beacon.getIdentifier(i).hashCode();
+    }
+    return h ^ (h >>> 16);
+  }
+}
@@ -4,15 +4,20 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.bluetooth.le.AdvertiseSettings;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.JSApplicationCausedNativeException;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContext;
@@ -20,6 +25,7 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeArray;
@@ -37,37 +43,230 @@ import org.altbeacon.beacon.Region;
 import org.altbeacon.beacon.service.ArmaRssiFilter;
 import org.altbeacon.beacon.service.RunningAverageRssiFilter;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
   private static final String LOG_TAG = "BeaconsAndroidModule";
+  // enable with `adb shell setprop log.tag.BeaconsAndroidModule DEBUG` (read once, at class load)
+  private static final boolean DEBUG_LOGGING = Log.isLoggable(LOG_TAG, Log.DEBUG);
   private static final int RUNNING_AVG_RSSI_FILTER = 0;
   private static final int ARMA_RSSI_FILTER = 1;
+  private static final int RANGING_MODE_FULL = 0;
+  private static final int RANGING_MODE_DELTA = 1;
+  private static final int RANGING_MODE_PACKED = 2;
+  private static final int RANGING_MODE_SUMMARY = 3;
+  private static final String SCAN_RECORDINGS_DIRECTORY_NAME = "beacons-scan-recordings";
   private static final String ERROR_INVALID_CONFIG = "ERROR_INVALID_CONFIG";
+  private static final String ERROR_PARSER = "ERROR_PARSER";
+  private static final String ERROR_MONITORING = "ERROR_MONITORING";
+  private static final String ERROR_RANGING = "ERROR_RANGING";
+  private static final String ERROR_TRANSMISSION_NOT_SUPPORTED = "ERROR_TRANSMISSION_NOT_SUPPORTED";
+  private static final String ERROR_ADVERTISING = "ERROR_ADVERTISING";
+  private static final String ERROR_SCAN_RECORDING = "ERROR_SCAN_RECORDING";
+  private static final String ERROR_SCAN_REPLAY = "ERROR_SCAN_REPLAY";
+  private static final String ERROR_EVENT_JOURNAL = "ERROR_EVENT_JOURNAL";
+  private static final String ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING = "ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING";
   private static final String ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING = "ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING";
+  private static final String[] ERROR_CODES = {
+    ERROR_INVALID_CONFIG,
+    ERROR_PARSER,
+    ERROR_MONITORING,
+    ERROR_RANGING,
+    ERROR_TRANSMISSION_NOT_SUPPORTED,
+    ERROR_ADVERTISING,
+    ERROR_SCAN_RECORDING,
+    ERROR_SCAN_REPLAY,
+    ERROR_EVENT_JOURNAL,
+    ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING,
+    ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING,
+  };
   private BeaconManager mBeaconManager;
   private Context mApplicationContext;
   private ReactApplicationContext mReactContext;
   private String mForegroundServiceChannelId;
+  private final EventDispatcher mEventDispatcher = new EventDispatcher();
+  // region, parser and foreground service changes run in call order on this thread, so that a
+  // burst of them doesn't hold the native modules thread shared with the other modules
+  private final ExecutorService mConfigExecutor = Executors.newSingleThreadExecutor();
+  private final ParserRegistry mParserRegistry = new ParserRegistry();
+  private final ScanMetrics mScanMetrics = new ScanMetrics();
+  private final Handler mScanMetricsHandler = new Handler(Looper.getMainLooper());
+  private volatile long mScanMetricsIntervalMs = 0;
+  private final Runnable mScanMetricsRunnable = new Runnable() {
+    @Override
+    public void run() {
+      mEventDispatcher.dispatch("scanMetrics", new Runnable() {
+        @Override
+        public void run() {
+          sendEvent(mReactContext, "scanMetrics", createScanMetricsMap(mScanMetrics.snapshot()));
+        }
+      });
+      if (mScanMetricsIntervalMs > 0) {
+        mScanMetricsHandler.postDelayed(this, mScanMetricsIntervalMs);
+      }
+    }
+  };
+  private volatile int mRangingMode = RANGING_MODE_FULL;
+  private final BeaconIdentityCache mIdentityCache = new BeaconIdentityCache();
+  private final EventPayloadBuilder mPayloadBuilder = new EventPayloadBuilder(mIdentityCache, PayloadFactory.NATIVE);
+  private final RangingDeltaTracker mRangingDeltaTracker = new RangingDeltaTracker(mIdentityCache);
+  private final PackedRangingEncoder mPackedRangingEncoder = new PackedRangingEncoder(mIdentityCache, PayloadFactory.NATIVE);
+  private final RangingSummarizer mRangingSummarizer = new RangingSummarizer(mIdentityCache);
+  private volatile boolean mUseBeaconHandles = false;
+  private final ProximityTracker mProximityTracker = new ProximityTracker(mIdentityCache);
+  private volatile boolean mProximitySmoothingEnabled = false;
+  private BackgroundMonitor mBackgroundMonitor;
+  private AdvertisingScheduler mAdvertisingScheduler;
+  private final ScanRecorder mScanRecorder = new ScanRecorder();
+  @Nullable
+  private volatile ScanReplayer mScanReplayer;
+  private volatile boolean mRangeBatchingEnabled = false;
+  private final AdaptiveScanScheduler mAdaptiveScanScheduler = new AdaptiveScanScheduler(mIdentityCache);
+  private volatile boolean mAdaptiveScanEnabled = false;
+  private final VirtualRegionIndex mVirtualRegionIndex = new VirtualRegionIndex(mIdentityCache);
+  private volatile boolean mRegionDebouncingEnabled = false;
+  private final EventSubscriptions mEventSubscriptions = new EventSubscriptions();
+  private volatile boolean mRangingBroadcastEnabled = true;
+  private final LastSeenBeaconStore mLastSeenStore = new LastSeenBeaconStore(mIdentityCache);
+  private volatile boolean mLastSeenStoreEnabled = false;
+  private final RssiHistory mRssiHistory = new RssiHistory(mIdentityCache);
+  private volatile boolean mRssiHistoryEnabled = false;
+  private final PositionEngine mPositionEngine = new PositionEngine(mIdentityCache);
+  private volatile long mPositioningIntervalMs = 0;
+  private final Handler mPositioningHandler = new Handler(Looper.getMainLooper());
+  private final Runnable mPositioningRunnable = new Runnable() {
+    @Override
+    public void run() {
+      mEventDispatcher.dispatch("positionUpdate", new Runnable() {
+        @Override
+        public void run() {
+          long start = System.nanoTime();
+          PositionEngine.Position position = mPositionEngine.solve(SystemClock.elapsedRealtime());
+          mScanMetrics.onPositionSolved(System.nanoTime() - start);
+          if (position != null) {
+            sendEvent(mReactContext, "positionUpdate", createPositionMap(position));
+          }
+        }
+      });
+      if (mPositioningIntervalMs > 0) {
+        mPositioningHandler.postDelayed(this, mPositioningIntervalMs);
+      }
+    }
+  };
+  private final RegionTransitionDebouncer mRegionDebouncer = new RegionTransitionDebouncer(new RegionTransitionDebouncer.Listener() {
+    @Override
+    public void onEnter(Region region) {
+      emitRegionTransition(region, true);
+    }
+
+    @Override
+    public void onExit(Region region) {
+      emitRegionTransition(region, false);
+    }
+
+    @Override
+    public void onDwell(final Region region, final long dwellMs) {
+      mEventDispatcher.dispatch(null, new Runnable() {
+        @Override
+        public void run() {
+          WritableMap map = mPayloadBuilder.createMonitoringResponse(region);
+          map.putDouble("dwellMs", dwellMs);
+          sendEvent(mReactContext, "regionDwell", map);
+        }
+      });
+    }
+  });
+  // between scan periods to restore when adaptive scanning is disabled
+  private long mFixedForegroundBetweenScanPeriod;
+  private long mFixedBackgroundBetweenScanPeriod;
+  private final RangeBatcher mRangeBatcher = new RangeBatcher(new RangeBatcher.Listener() {
+    @Override
+    public void onBatch(final List<RangeBatcher.RangeSnapshot> snapshots) {
+      mEventDispatcher.dispatch(null, new Runnable() {
+        @Override
+        public void run() {
+          WritableMap payload = createRangingBatchResponse(snapshots);
+          if (payload != null) {
+            sendEvent(mReactContext, "beaconsDidRangeBatch", payload);
+          }
+        }
+      });
+    }
+  });
 
   public BeaconsAndroidModule(ReactApplicationContext reactContext) {
     super(reactContext);
     Log.d(LOG_TAG, "BeaconsAndroidModule - started");
     this.mReactContext = reactContext;
+    this.mBackgroundMonitor = BackgroundMonitor.getInstance(reactContext);
+    this.mAdvertisingScheduler = new AdvertisingScheduler(reactContext.getApplicationContext(), new AdvertisingScheduler.Listener() {
+      @Override
+      public void onFailure(final String setId, final int errorCode) {
+        mEventDispatcher.dispatch(null, new Runnable() {
+          @Override
+          public void run() {
+            WritableMap map = new WritableNativeMap();
+            map.putString("id", setId);
+            map.putInt("errorCode", errorCode);
+            sendEvent(mReactContext, "advertisingFailed", map);
+          }
+        });
+      }
+    });
   }
 
   @Override
   public void initialize() {
     this.mApplicationContext = this.mReactContext.getApplicationContext();
     this.mBeaconManager = BeaconManager.getInstanceForApplication(mApplicationContext);
-    mBeaconManager.getBeaconParsers().add(new BeaconParser().setBeaconLayout("m:0-3=4c000215,i:4-19,i:20-21,i:22-23,p:24-24"));
+    // initialize() runs again on every JS reload: don't stack another iBeacon parser
+    mParserRegistry.add(mBeaconManager.getBeaconParsers(), ParserRegistry.IBEACON_LAYOUT);
     mBeaconManager.addMonitorNotifier(mMonitorNotifier);
     mBeaconManager.addRangeNotifier(mRangeNotifier);
+    mBackgroundMonitor.attach(mReactContext);
     sendEvent(mReactContext, "beaconServiceConnected", null);
   }
 
+  @Override
+  public void onCatalystInstanceDestroy() {
+    // stop the worker first, so that no queued event runs against the state cleared below
+    mEventDispatcher.shutdown();
+    // the next JS instance registers its own notifiers, BackgroundMonitor journals meanwhile
+    if (mBeaconManager != null) {
+      mBeaconManager.removeMonitorNotifier(mMonitorNotifier);
+      mBeaconManager.removeRangeNotifier(mRangeNotifier);
+    }
+    mBackgroundMonitor.detach(mReactContext);
+    mScanMetricsIntervalMs = 0;
+    mScanMetricsHandler.removeCallbacks(mScanMetricsRunnable);
+    mPositioningIntervalMs = 0;
+    mPositioningHandler.removeCallbacks(mPositioningRunnable);
+    mPositionEngine.clear();
+    stopScanReplay();
+    mScanRecorder.shutdown();
+    mEventSubscriptions.clear();
+    mLastSeenStore.clear();
+    mRssiHistory.clear();
+    mRangeBatcher.clear();
+    mRangingDeltaTracker.clear();
+    mIdentityCache.clear();
+    mPackedRangingEncoder.resetSentDictionary();
+    mProximityTracker.clear();
+    mAdaptiveScanScheduler.clear();
+    mAdvertisingScheduler.stop();
+    mConfigExecutor.shutdown();
+  }
+
   @Override
   public String getName() {
     return LOG_TAG;
@@ -83,6 +282,26 @@ public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
     constants.put("NOT_SUPPORTED_CANNOT_GET_ADVERTISER", BeaconTransmitter.NOT_SUPPORTED_CANNOT_GET_ADVERTISER);
     constants.put("RUNNING_AVG_RSSI_FILTER", RUNNING_AVG_RSSI_FILTER);
     constants.put("ARMA_RSSI_FILTER", ARMA_RSSI_FILTER);
+    constants.put("RANGING_MODE_FULL", RANGING_MODE_FULL);
+    constants.put("RANGING_MODE_DELTA", RANGING_MODE_DELTA);
+    constants.put("RANGING_MODE_PACKED", RANGING_MODE_PACKED);
+    constants.put("RANGING_MODE_SUMMARY", RANGING_MODE_SUMMARY);
+    constants.put("EVENT_QUEUE_DROP_OLDEST", EventDispatcher.POLICY_DROP_OLDEST);
+    constants.put("EVENT_QUEUE_COALESCE", EventDispatcher.POLICY_COALESCE);
+    constants.put("EVENT_QUEUE_BLOCK", EventDispatcher.POLICY_BLOCK);
+    constants.put("SUBSCRIPTION_EVENT_PREFIX", EventSubscriptions.EVENT_PREFIX);
+    constants.put("HEADLESS_TASK_NAME", HeadlessTaskScheduler.TASK_NAME);
+    for (String code : ERROR_CODES) {
+      constants.put(code, code);
+    }
+    constants.put("PARSER_PRESETS", new HashMap<>(ParserRegistry.getPresets()));
+    constants.put("ADVERTISE_MODE_LOW_POWER", AdvertiseSettings.ADVERTISE_MODE_LOW_POWER);
+    constants.put("ADVERTISE_MODE_BALANCED", AdvertiseSettings.ADVERTISE_MODE_BALANCED);
+    constants.put("ADVERTISE_MODE_LOW_LATENCY", AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY);
+    constants.put("ADVERTISE_TX_POWER_ULTRA_LOW", AdvertiseSettings.ADVERTISE_TX_POWER_ULTRA_LOW);
+    constants.put("ADVERTISE_TX_POWER_LOW", AdvertiseSettings.ADVERTISE_TX_POWER_LOW);
+    constants.put("ADVERTISE_TX_POWER_MEDIUM", AdvertiseSettings.ADVERTISE_TX_POWER_MEDIUM);
+    constants.put("ADVERTISE_TX_POWER_HIGH", AdvertiseSettings.ADVERTISE_TX_POWER_HIGH);
     return constants;
   }
 
@@ -92,53 +311,92 @@ public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
   }
 
   @ReactMethod
-  public void addParser(String parser, Callback resolve, Callback reject) {
-    try {
-      Log.d(LOG_TAG, "BeaconsAndroidModule - addParser: " + parser);
-      mBeaconManager.getBeaconParsers().add(new BeaconParser().setBeaconLayout(parser));
-      resolve.invoke();
-    } catch (Exception e) {
-      reject.invoke(e.getMessage());
-    }
+  public void addParser(final String parser, Promise promise) {
+    runConfigTask("addParser", ERROR_PARSER, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        Log.d(LOG_TAG, "BeaconsAndroidModule - addParser: " + parser);
+        mParserRegistry.add(mBeaconManager.getBeaconParsers(), parser);
+        return null;
+      }
+    });
   }
 
   @ReactMethod
-  public void removeParser(String parser, Callback resolve, Callback reject) {
-    try {
-      Log.d(LOG_TAG, "BeaconsAndroidModule - removeParser: " + parser);
-      mBeaconManager.getBeaconParsers().remove(new BeaconParser().setBeaconLayout(parser));
-      resolve.invoke();
-    } catch (Exception e) {
-      reject.invoke(e.getMessage());
-    }
+  public void removeParser(final String parser, Promise promise) {
+    runConfigTask("removeParser", ERROR_PARSER, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        Log.d(LOG_TAG, "BeaconsAndroidModule - removeParser: " + parser);
+        mParserRegistry.remove(mBeaconManager.getBeaconParsers(), parser);
+        return null;
+      }
+    });
   }
 
   @ReactMethod
-  public void addParsersListToDetection(ReadableArray parsers, Callback resolve, Callback reject) {
-    try {
-      for (int i = 0; i < parsers.size(); i++) {
-        String parser = parsers.getString(i);
-        Log.d(LOG_TAG, "addParsersListToDetection - add parser: " + parser);
-        mBeaconManager.getBeaconParsers().add(new BeaconParser().setBeaconLayout(parser));
+  public void addParsersListToDetection(final ReadableArray parsers, Promise promise) {
+    final List<String> layouts = toStringList(parsers);
+    runConfigTask("addParsersListToDetection", ERROR_PARSER, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        for (String parser : layouts) {
+          Log.d(LOG_TAG, "addParsersListToDetection - add parser: " + parser);
+          mParserRegistry.add(mBeaconManager.getBeaconParsers(), parser);
+        }
+        return createStringArray(layouts);
       }
-      resolve.invoke(parsers);
-    } catch (Exception e) {
-      reject.invoke(e.getMessage());
-    }
+    });
   }
 
   @ReactMethod
-  public void removeParsersListToDetection(ReadableArray parsers, Callback resolve, Callback reject) {
-    try {
-      for (int i = 0; i < parsers.size(); i++) {
-        String parser = parsers.getString(i);
-        Log.d(LOG_TAG, "removeParsersListToDetection - remove parser: " + parser);
-        mBeaconManager.getBeaconParsers().remove(new BeaconParser().setBeaconLayout(parser));
+  public void removeParsersListToDetection(final ReadableArray parsers, Promise promise) {
+    final List<String> layouts = toStringList(parsers);
+    runConfigTask("removeParsersListToDetection", ERROR_PARSER, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        for (String parser : layouts) {
+          Log.d(LOG_TAG, "removeParsersListToDetection - remove parser: " + parser);
+          mParserRegistry.remove(mBeaconManager.getBeaconParsers(), parser);
+        }
+        return createStringArray(layouts);
       }
-      resolve.invoke(parsers);
-    } catch (Exception e) {
-      reject.invoke(e.getMessage());
+    });
+  }
+
+  /**
+   * Replaces the active parsers by the parsers of these layouts (or preset names, see
+   * PARSER_PRESETS), leaving in place the ones already active. Resolves the active layouts.
+   */
+  @ReactMethod
+  public void setParsers(ReadableArray parsers, Promise promise) {
+    final List<String> layouts = toStringList(parsers);
+    runConfigTask("setParsers", ERROR_PARSER, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        Log.d(LOG_TAG, "setParsers, parsers: " + layouts);
+        mParserRegistry.set(mBeaconManager.getBeaconParsers(), layouts);
+        return createParserLayoutArray();
+      }
+    });
+  }
+
+  @ReactMethod
+  public void getParsers(Promise promise) {
+    runConfigTask("getParsers", ERROR_PARSER, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        return createParserLayoutArray();
+      }
+    });
+  }
+
+  private WritableArray createParserLayoutArray() {
+    WritableArray array = new WritableNativeArray();
+    for (BeaconParser parser : mBeaconManager.getBeaconParsers()) {
+      array.pushString(parser.getLayout());
     }
+    return array;
   }
 
   @ReactMethod
@@ -148,6 +406,13 @@ public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
 
   @ReactMethod
   public void setBackgroundBetweenScanPeriod(int period) {
+    synchronized (mAdaptiveScanScheduler) {
+      if (mAdaptiveScanEnabled) {
+        // applied when adaptive scanning is disabled
+        mFixedBackgroundBetweenScanPeriod = period;
+        return;
+      }
+    }
     mBeaconManager.setBackgroundBetweenScanPeriod((long) period);
   }
 
@@ -158,9 +423,98 @@ public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
 
   @ReactMethod
   public void setForegroundBetweenScanPeriod(int period) {
+    synchronized (mAdaptiveScanScheduler) {
+      if (mAdaptiveScanEnabled) {
+        // applied when adaptive scanning is disabled
+        mFixedForegroundBetweenScanPeriod = period;
+        return;
+      }
+    }
     mBeaconManager.setForegroundBetweenScanPeriod((long) period);
   }
 
+  /**
+   * Lets the between scan period of the current scan mode (foreground or background) adapt to
+   * the beacon activity, within `minBetweenScanPeriod` and `maxBetweenScanPeriod` (see
+   * AdaptiveScanScheduler). The fixed between scan periods are restored once disabled.
+   */
+  @ReactMethod
+  public void setAdaptiveScanning(ReadableMap config) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    long minBetweenScanPeriod = config.hasKey("minBetweenScanPeriod")
+      ? (long) config.getDouble("minBetweenScanPeriod")
+      : AdaptiveScanScheduler.DEFAULT_MIN_BETWEEN_SCAN_PERIOD;
+    long maxBetweenScanPeriod = config.hasKey("maxBetweenScanPeriod")
+      ? (long) config.getDouble("maxBetweenScanPeriod")
+      : AdaptiveScanScheduler.DEFAULT_MAX_BETWEEN_SCAN_PERIOD;
+    double growthFactor = config.hasKey("growthFactor") ? config.getDouble("growthFactor") : AdaptiveScanScheduler.DEFAULT_GROWTH_FACTOR;
+    int stableCycles = config.hasKey("stableCycles") ? config.getInt("stableCycles") : AdaptiveScanScheduler.DEFAULT_STABLE_CYCLES;
+    int rssiThreshold = config.hasKey("rssiThreshold") ? config.getInt("rssiThreshold") : AdaptiveScanScheduler.DEFAULT_RSSI_THRESHOLD;
+    long absenceMs = config.hasKey("absenceMs") ? (long) config.getDouble("absenceMs") : AdaptiveScanScheduler.DEFAULT_ABSENCE_MS;
+    Log.d(LOG_TAG, "setAdaptiveScanning, enabled: " + enabled + ", minBetweenScanPeriod: " + minBetweenScanPeriod + ", maxBetweenScanPeriod: " + maxBetweenScanPeriod);
+
+    synchronized (mAdaptiveScanScheduler) {
+      if (enabled) {
+        if (!mAdaptiveScanEnabled) {
+          mFixedForegroundBetweenScanPeriod = mBeaconManager.getForegroundBetweenScanPeriod();
+          mFixedBackgroundBetweenScanPeriod = mBeaconManager.getBackgroundBetweenScanPeriod();
+        }
+        long period = mAdaptiveScanScheduler.configure(minBetweenScanPeriod, maxBetweenScanPeriod, growthFactor, stableCycles, rssiThreshold, absenceMs);
+        mAdaptiveScanEnabled = true;
+        applyBetweenScanPeriod(period);
+      } else if (mAdaptiveScanEnabled) {
+        mAdaptiveScanEnabled = false;
+        mAdaptiveScanScheduler.clear();
+        mBeaconManager.setForegroundBetweenScanPeriod(mFixedForegroundBetweenScanPeriod);
+        mBeaconManager.setBackgroundBetweenScanPeriod(mFixedBackgroundBetweenScanPeriod);
+        updateScanPeriods();
+      }
+    }
+  }
+
+  private void adaptScanPeriod(Collection<Beacon> beacons, long callbackNanos) {
+    synchronized (mAdaptiveScanScheduler) {
+      // checked again under the lock: a disabled scheduler must not override the restored periods
+      if (mAdaptiveScanEnabled) {
+        applyBetweenScanPeriod(mAdaptiveScanScheduler.onRanging(beacons, callbackNanos));
+      }
+    }
+  }
+
+  private void onRegionTransition() {
+    if (!mAdaptiveScanEnabled) {
+      return;
+    }
+    synchronized (mAdaptiveScanScheduler) {
+      if (mAdaptiveScanEnabled) {
+        applyBetweenScanPeriod(mAdaptiveScanScheduler.onActivity());
+      }
+    }
+  }
+
+  private void applyBetweenScanPeriod(long period) {
+    if (period == AdaptiveScanScheduler.NO_CHANGE) {
+      return;
+    }
+    if (DEBUG_LOGGING) {
+      Log.d(LOG_TAG, "applyBetweenScanPeriod, period: " + period);
+    }
+    if (mBeaconManager.getBackgroundMode()) {
+      mBeaconManager.setBackgroundBetweenScanPeriod(period);
+    } else {
+      mBeaconManager.setForegroundBetweenScanPeriod(period);
+    }
+    updateScanPeriods();
+  }
+
+  private void updateScanPeriods() {
+    try {
+      mBeaconManager.updateScanPeriods();
+    } catch (RemoteException e) {
+      Log.e(LOG_TAG, "updateScanPeriods, error: ", e);
+    }
+  }
+
   @ReactMethod
   public void setRssiFilter(int filterType, double avgModifier) {
     String logMsg = "Could not set the rssi filter.";
@@ -182,202 +536,1276 @@ public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
     Log.d(LOG_TAG, logMsg);
   }
 
+  /**
+   * Resolves the BeaconTransmitter status, rejects when the check itself fails (e.g. a
+   * SecurityException without the advertise permission).
+   */
   @ReactMethod
-  public void checkTransmissionSupported(Callback callback) {
-    int result = BeaconTransmitter.checkTransmissionSupported(mReactContext);
-    callback.invoke(result);
+  public void checkTransmissionSupported(Promise promise) {
+    try {
+      promise.resolve(BeaconTransmitter.checkTransmissionSupported(mReactContext));
+    } catch (Exception e) {
+      Log.e(LOG_TAG, "checkTransmissionSupported, error: ", e);
+      reject(promise, ERROR_TRANSMISSION_NOT_SUPPORTED, e);
+    }
   }
 
+  /**
+   * Advertises each set (`{ id, parser, uuid, major, minor }` or `{ id, parser, identifiers }`,
+   * with its own `advertiseMode` and `txPowerLevel`) with its own transmitter, replacing the
+   * sets previously advertised. When the device can't run several advertisements at once, the
+   * sets take turns every `rotationIntervalMs`. Resolves `{ sets, rotating }`.
+   */
   @ReactMethod
-  public void getMonitoredRegions(Callback callback) {
-    WritableArray array = new WritableNativeArray();
-    for (Region region : mBeaconManager.getMonitoredRegions()) {
-      WritableMap map = new WritableNativeMap();
-      map.putString("identifier", region.getUniqueId());
-      map.putString("uuid", region.getId1().toString());
-      map.putInt("major", region.getId2() != null ? region.getId2().toInt() : 0);
-      map.putInt("minor", region.getId3() != null ? region.getId3().toInt() : 0);
-      array.pushMap(map);
+  public void startAdvertising(final ReadableArray sets, ReadableMap options, Promise promise) {
+    final int supported;
+    try {
+      supported = BeaconTransmitter.checkTransmissionSupported(mReactContext);
+    } catch (Exception e) {
+      Log.e(LOG_TAG, "startAdvertising, error: ", e);
+      reject(promise, ERROR_TRANSMISSION_NOT_SUPPORTED, e);
+      return;
+    }
+    if (supported != BeaconTransmitter.SUPPORTED
+      && supported != BeaconTransmitter.NOT_SUPPORTED_CANNOT_GET_ADVERTISER_MULTIPLE_ADVERTISEMENTS) {
+      promise.reject(ERROR_TRANSMISSION_NOT_SUPPORTED, "transmission not supported: " + supported);
+      return;
     }
-    callback.invoke(array);
+    final long rotationIntervalMs = options != null && options.hasKey("rotationIntervalMs")
+      ? (long) options.getDouble("rotationIntervalMs")
+      : AdvertisingScheduler.DEFAULT_ROTATION_INTERVAL_MS;
+    // the sets refer to parsers of the registry: ordered after the parser changes
+    runConfigTask("startAdvertising", ERROR_ADVERTISING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        List<AdvertisingScheduler.AdvertisementSet> advertisementSets = new ArrayList<>(sets.size());
+        for (int i = 0; i < sets.size(); i++) {
+          advertisementSets.add(createAdvertisementSet(sets.getMap(i), i));
+        }
+        boolean rotate = supported == BeaconTransmitter.NOT_SUPPORTED_CANNOT_GET_ADVERTISER_MULTIPLE_ADVERTISEMENTS;
+        Log.d(LOG_TAG, "startAdvertising, sets: " + advertisementSets.size() + ", rotate: " + rotate);
+        mAdvertisingScheduler.start(advertisementSets, rotate, rotationIntervalMs);
+        WritableMap map = new WritableNativeMap();
+        map.putInt("sets", mAdvertisingScheduler.size());
+        map.putBoolean("rotating", mAdvertisingScheduler.isRotating());
+        return map;
+      }
+    });
   }
 
   @ReactMethod
-  public void getRangedRegions(Callback callback) {
+  public void stopAdvertising(Promise promise) {
+    try {
+      mAdvertisingScheduler.stop();
+      promise.resolve(null);
+    } catch (Exception e) {
+      Log.e(LOG_TAG, "stopAdvertising, error: ", e);
+      reject(promise, ERROR_ADVERTISING, e);
+    }
+  }
+
+  private AdvertisingScheduler.AdvertisementSet createAdvertisementSet(ReadableMap map, int index) {
+    String id = map.hasKey("id") ? map.getString("id") : String.valueOf(index);
+    BeaconParser parser = mParserRegistry.get(map.hasKey("parser") ? map.getString("parser") : ParserRegistry.PRESET_IBEACON);
+    String layout = parser.getLayout();
+
+    Beacon.Builder builder = new Beacon.Builder();
+    if (map.hasKey("identifiers")) {
+      ReadableArray identifiers = map.getArray("identifiers");
+      List<Identifier> ids = new ArrayList<>(identifiers.size());
+      for (int i = 0; i < identifiers.size(); i++) {
+        ids.add(Identifier.parse(identifiers.getString(i)));
+      }
+      builder.setIdentifiers(ids);
+    } else {
+      builder.setId1(map.getString("uuid"))
+        .setId2(map.hasKey("major") ? String.valueOf(map.getInt("major")) : "0")
+        .setId3(map.hasKey("minor") ? String.valueOf(map.getInt("minor")) : "0");
+    }
+    // Apple's company id for iBeacon, Radius Networks' otherwise (as in AltBeacon's examples)
+    int defaultManufacturer = ParserRegistry.IBEACON_LAYOUT.equals(layout) ? 0x004c : 0x0118;
+    builder.setManufacturer(map.hasKey("manufacturer") ? map.getInt("manufacturer") : defaultManufacturer)
+      .setTxPower(map.hasKey("txPower") ? map.getInt("txPower") : -59);
+    // the transmitter requires a value for every data field of the layout
+    List<Long> dataFields = new ArrayList<>();
+    if (map.hasKey("dataFields")) {
+      ReadableArray fields = map.getArray("dataFields");
+      for (int i = 0; i < fields.size(); i++) {
+        dataFields.add((long) fields.getDouble(i));
+      }
+    } else {
+      for (int i = layout.indexOf("d:"); i >= 0; i = layout.indexOf("d:", i + 2)) {
+        dataFields.add(0L);
+      }
+    }
+    builder.setDataFields(dataFields);
+
+    return new AdvertisingScheduler.AdvertisementSet(
+      id,
+      parser,
+      builder.build(),
+      map.hasKey("advertiseMode") ? map.getInt("advertiseMode") : AdvertiseSettings.ADVERTISE_MODE_LOW_POWER,
+      map.hasKey("txPowerLevel") ? map.getInt("txPowerLevel") : AdvertiseSettings.ADVERTISE_TX_POWER_HIGH
+    );
+  }
+
+  @ReactMethod
+  public void getMonitoredRegions(Promise promise) {
+    runConfigTask("getMonitoredRegions", ERROR_MONITORING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        WritableArray array = new WritableNativeArray();
+        for (Region region : mBeaconManager.getMonitoredRegions()) {
+          WritableMap map = new WritableNativeMap();
+          map.putString("identifier", region.getUniqueId());
+          map.putString("uuid", region.getId1().toString());
+          map.putInt("major", region.getId2() != null ? region.getId2().toInt() : 0);
+          map.putInt("minor", region.getId3() != null ? region.getId3().toInt() : 0);
+          array.pushMap(map);
+        }
+        return array;
+      }
+    });
+  }
+
+  @ReactMethod
+  public void getRangedRegions(Promise promise) {
+    runConfigTask("getRangedRegions", ERROR_RANGING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        WritableArray array = new WritableNativeArray();
+        for (Region region : mBeaconManager.getRangedRegions()) {
+          WritableMap map = new WritableNativeMap();
+          map.putString("region", region.getUniqueId());
+          map.putString("uuid", region.getId1().toString());
+          array.pushMap(map);
+        }
+        return array;
+      }
+    });
+  }
+
+  /**
+   * Resolves the definitions (handle, uuid, major, minor) of every registered beacon handle.
+   */
+  @ReactMethod
+  public void getBeaconHandles(Promise promise) {
     WritableArray array = new WritableNativeArray();
-    for (Region region : mBeaconManager.getRangedRegions()) {
-      WritableMap map = new WritableNativeMap();
-      map.putString("region", region.getUniqueId());
-      map.putString("uuid", region.getId1().toString());
-      array.pushMap(map);
+    for (BeaconIdentityCache.BeaconIdentity identity : mIdentityCache.getIdentities()) {
+      array.pushMap(mPayloadBuilder.createHandleDefinition(identity));
     }
-    callback.invoke(array);
+    promise.resolve(array);
   }
 
   /***********************************************************************************************
    * Monitoring
    **********************************************************************************************/
   @ReactMethod
-  public void startMonitoring(String regionId, String beaconUuid, int minor, int major, Callback resolve, Callback reject) {
+  public void startMonitoring(final String regionId, final String beaconUuid, final int minor, final int major, Promise promise) {
     Log.d(LOG_TAG, "startMonitoring, monitoringRegionId: " + regionId + ", monitoringBeaconUuid: " + beaconUuid + ", minor: " + minor + ", major: " + major);
-    try {
-      Region region = createRegion(
-        regionId,
-        beaconUuid,
-        String.valueOf(minor).equals("-1") ? "" : String.valueOf(minor),
-        String.valueOf(major).equals("-1") ? "" : String.valueOf(major)
-      );
-      mBeaconManager.startMonitoring(region);
-      resolve.invoke();
-    } catch (Exception e) {
-      Log.e(LOG_TAG, "startMonitoring, error: ", e);
-      reject.invoke(e.getMessage());
-    }
+    runConfigTask("startMonitoring", ERROR_MONITORING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        Region region = createRegion(
+          regionId,
+          beaconUuid,
+          String.valueOf(minor).equals("-1") ? "" : String.valueOf(minor),
+          String.valueOf(major).equals("-1") ? "" : String.valueOf(major)
+        );
+        mBeaconManager.startMonitoring(region);
+        return null;
+      }
+    });
   }
 
   private MonitorNotifier mMonitorNotifier = new MonitorNotifier() {
     @Override
     public void didEnterRegion(Region region) {
-      sendEvent(mReactContext, "regionDidEnter", createMonitoringResponse(region));
+      if (mScanRecorder.isRecording()) {
+        mScanRecorder.recordTransition(region, true);
+      }
+      if (mRegionDebouncingEnabled) {
+        mRegionDebouncer.onEnter(region);
+      } else {
+        emitRegionTransition(region, true);
+      }
     }
 
     @Override
     public void didExitRegion(Region region) {
-      sendEvent(mReactContext, "regionDidExit", createMonitoringResponse(region));
+      if (mScanRecorder.isRecording()) {
+        mScanRecorder.recordTransition(region, false);
+      }
+      if (mRegionDebouncingEnabled) {
+        mRegionDebouncer.onExit(region);
+      } else {
+        emitRegionTransition(region, false);
+      }
     }
 
     @Override
-    public void didDetermineStateForRegion(int i, Region region) {
-      String state = "unknown";
-      switch (i) {
-        case MonitorNotifier.INSIDE:
-          state = "inside";
-          break;
-        case MonitorNotifier.OUTSIDE:
-          state = "outside";
-          break;
-        default:
-          break;
-      }
-      WritableMap map = createMonitoringResponse(region);
-      map.putString("state", state);
-      sendEvent(mReactContext, "didDetermineState", map);
+    public void didDetermineStateForRegion(final int i, final Region region) {
+      if (mScanRecorder.isRecording()) {
+        mScanRecorder.recordState(region, i);
+      }
+      mEventDispatcher.dispatch(null, new Runnable() {
+        @Override
+        public void run() {
+          String state = "unknown";
+          switch (i) {
+            case MonitorNotifier.INSIDE:
+              state = "inside";
+              break;
+            case MonitorNotifier.OUTSIDE:
+              state = "outside";
+              break;
+            default:
+              break;
+          }
+          WritableMap map = mPayloadBuilder.createMonitoringResponse(region);
+          map.putString("state", state);
+          sendEvent(mReactContext, "didDetermineState", map);
+          emitMonitoringSubscriptions(region, "state", state);
+        }
+      });
     }
   };
 
-  private WritableMap createMonitoringResponse(Region region) {
-    WritableMap map = new WritableNativeMap();
-    map.putString("identifier", region.getUniqueId());
-    map.putString("uuid", region.getId1() != null ? region.getId1().toString() : "");
-    map.putInt("major", region.getId2() != null ? region.getId2().toInt() : 0);
-    map.putInt("minor", region.getId3() != null ? region.getId3().toInt() : 0);
-    return map;
+  private void emitRegionTransition(final Region region, final boolean entered) {
+    mEventDispatcher.dispatch(null, new Runnable() {
+      @Override
+      public void run() {
+        onRegionTransition();
+        sendEvent(mReactContext, entered ? "regionDidEnter" : "regionDidExit", mPayloadBuilder.createMonitoringResponse(region));
+        emitMonitoringSubscriptions(region, entered ? "enter" : "exit", null);
+      }
+    });
   }
 
+  /**
+   * Starts the `BeaconsRegionTransitions` headless JS task (see BeaconsHeadlessTaskService) with
+   * the region transitions happening while no JS instance is active, batched over
+   * `batchWindowMs` (default 1000) and at most once every `minIntervalMs` (default 10000), see
+   * HeadlessTaskScheduler. The task runs for up to `timeoutMs` (default 30000).
+   * The transitions are those of the monitored regions as AltBeacon reports them (neither
+   * virtual nor debounced), see BackgroundMonitor.
+   */
   @ReactMethod
-  public void stopMonitoring(String regionId, String beaconUuid, int minor, int major, Callback resolve, Callback reject) {
-    Region region = createRegion(
-      regionId,
-      beaconUuid,
-      String.valueOf(minor).equals("-1") ? "" : String.valueOf(minor),
-      String.valueOf(major).equals("-1") ? "" : String.valueOf(major)
-      // minor,
-      // major
-    );
+  public void setHeadlessTask(ReadableMap config) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    long batchWindowMs = config.hasKey("batchWindowMs") ? (long) config.getDouble("batchWindowMs") : HeadlessTaskScheduler.DEFAULT_BATCH_WINDOW_MS;
+    long minIntervalMs = config.hasKey("minIntervalMs") ? (long) config.getDouble("minIntervalMs") : HeadlessTaskScheduler.DEFAULT_MIN_INTERVAL_MS;
+    long timeoutMs = config.hasKey("timeoutMs") ? (long) config.getDouble("timeoutMs") : HeadlessTaskScheduler.DEFAULT_TIMEOUT_MS;
+    Log.d(LOG_TAG, "setHeadlessTask, enabled: " + enabled + ", batchWindowMs: " + batchWindowMs + ", minIntervalMs: " + minIntervalMs);
+    mBackgroundMonitor.setHeadlessTask(enabled, batchWindowMs, minIntervalMs, timeoutMs);
+  }
 
-    try {
-      mBeaconManager.stopMonitoring(region);
-      resolve.invoke();
-    } catch (Exception e) {
-      Log.e(LOG_TAG, "stopMonitoring, error: ", e);
-      reject.invoke(e.getMessage());
+  /**
+   * Debounces `regionDidEnter`/`regionDidExit` natively: an enter is emitted once the region
+   * stayed entered for `minDwellMs`, an exit once it stayed exited for `exitGraceMs`, and
+   * `regionDwell` is emitted `dwellMs` after entering. `regions` overrides these per region
+   * identifier. Virtual regions have their own exit timeout and are not debounced.
+   */
+  @ReactMethod
+  public void setRegionDebouncing(ReadableMap config) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    RegionTransitionDebouncer.Config defaultConfig = createDebounceConfig(config, new RegionTransitionDebouncer.Config(
+      RegionTransitionDebouncer.DEFAULT_MIN_DWELL_MS,
+      RegionTransitionDebouncer.DEFAULT_EXIT_GRACE_MS,
+      RegionTransitionDebouncer.DEFAULT_DWELL_MS
+    ));
+    Map<String, RegionTransitionDebouncer.Config> regionConfigs = new HashMap<>();
+    ReadableMap regions = config.hasKey("regions") ? config.getMap("regions") : null;
+    if (regions != null) {
+      ReadableMapKeySetIterator iterator = regions.keySetIterator();
+      while (iterator.hasNextKey()) {
+        String regionId = iterator.nextKey();
+        regionConfigs.put(regionId, createDebounceConfig(regions.getMap(regionId), defaultConfig));
+      }
+    }
+    Log.d(LOG_TAG, "setRegionDebouncing, enabled: " + enabled + ", minDwellMs: " + defaultConfig.minDwellMs + ", exitGraceMs: " + defaultConfig.exitGraceMs + ", dwellMs: " + defaultConfig.dwellMs);
+    mRegionDebouncer.configure(defaultConfig, regionConfigs);
+    if (!enabled) {
+      mRegionDebouncer.clear();
     }
+    mRegionDebouncingEnabled = enabled;
+  }
+
+  /**
+   * @param fallback values of the keys missing from config
+   */
+  private static RegionTransitionDebouncer.Config createDebounceConfig(ReadableMap config, RegionTransitionDebouncer.Config fallback) {
+    return new RegionTransitionDebouncer.Config(
+      config.hasKey("minDwellMs") ? (long) config.getDouble("minDwellMs") : fallback.minDwellMs,
+      config.hasKey("exitGraceMs") ? (long) config.getDouble("exitGraceMs") : fallback.exitGraceMs,
+      config.hasKey("dwellMs") ? (long) config.getDouble("dwellMs") : fallback.dwellMs
+    );
+  }
+
+  @ReactMethod
+  public void stopMonitoring(final String regionId, final String beaconUuid, final int minor, final int major, Promise promise) {
+    runConfigTask("stopMonitoring", ERROR_MONITORING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        Region region = createRegion(
+          regionId,
+          beaconUuid,
+          String.valueOf(minor).equals("-1") ? "" : String.valueOf(minor),
+          String.valueOf(major).equals("-1") ? "" : String.valueOf(major)
+          // minor,
+          // major
+        );
+        mBeaconManager.stopMonitoring(region);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Makes the monitored regions match `regions` ({identifier, uuid, major, minor}): only the
+   * regions added, removed or whose identifiers changed are started/stopped. If one of them
+   * fails, the changes already applied are rolled back.
+   */
+  @ReactMethod
+  public void setMonitoredRegions(final ReadableArray regions, Promise promise) {
+    runConfigTask("setMonitoredRegions", ERROR_MONITORING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        RegionDiff diff = RegionDiff.compute(mBeaconManager.getMonitoredRegions(), createRegions(regions));
+        Log.d(LOG_TAG, "setMonitoredRegions, added: " + diff.added.size() + ", removed: " + diff.removed.size() + ", updated: " + diff.updatedTo.size());
+        applyRegionDiff(diff, false);
+        return createRegionDiffResponse(diff);
+      }
+    });
   }
 
   /***********************************************************************************************
    * Ranging
    **********************************************************************************************/
   @ReactMethod
-  public void startRanging(String regionId, String beaconUuid, Callback resolve, Callback reject) {
+  public void startRanging(final String regionId, final String beaconUuid, Promise promise) {
     Log.d(LOG_TAG, "startRanging, rangingRegionId: " + regionId + ", rangingBeaconUuid: " + beaconUuid);
-    Region region = createRegion(regionId, beaconUuid);
-    mBeaconManager.startRangingBeacons(region);
-    resolve.invoke();
+    runConfigTask("startRanging", ERROR_RANGING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        mBeaconManager.startRangingBeacons(createRegion(regionId, beaconUuid));
+        return null;
+      }
+    });
   }
 
   private RangeNotifier mRangeNotifier = new RangeNotifier() {
     @Override
-    public void didRangeBeaconsInRegion(Collection<Beacon> beacons, Region region) {
-      Log.d(LOG_TAG, "rangingConsumer didRangeBeaconsInRegion, beacons: " + beacons.toString());
-      Log.d(LOG_TAG, "rangingConsumer didRangeBeaconsInRegion, region: " + region.toString());
-      sendEvent(mReactContext, "beaconsDidRange", createRangingResponse(beacons, region));
+    public void didRangeBeaconsInRegion(Collection<Beacon> beacons, final Region region) {
+      if (DEBUG_LOGGING) {
+        Log.d(LOG_TAG, "rangingConsumer didRangeBeaconsInRegion, beacons: " + beacons.toString());
+        Log.d(LOG_TAG, "rangingConsumer didRangeBeaconsInRegion, region: " + region.toString());
+      }
+      if (mScanRecorder.isRecording()) {
+        mScanRecorder.recordRanging(beacons, region);
+      }
+      final long callbackNanos = System.nanoTime();
+      mScanMetrics.onRangingCallback(beacons.size(), callbackNanos);
+      // the collection belongs to AltBeacon, the worker gets its own snapshot, without the
+      // beacons that have no identity
+      final List<Beacon> snapshot = BeaconIdentityCache.getIdentifiedBeacons(beacons);
+      // once the queue is full, a newer ranging of the same region may replace this one (POLICY_COALESCE)
+      mEventDispatcher.dispatch(region.getUniqueId(), new Runnable() {
+        @Override
+        public void run() {
+          processRanging(snapshot, region, callbackNanos);
+        }
+      });
     }
   };
 
-  private WritableMap createRangingResponse(Collection<Beacon> beacons, Region region) {
+  private void processRanging(List<Beacon> beacons, Region region, long callbackNanos) {
+    // stamped with the callback time, not the time the worker got to it
+    long seenAtMs = SystemClock.elapsedRealtime() - (System.nanoTime() - callbackNanos) / 1000000;
+    if (mLastSeenStoreEnabled) {
+      mLastSeenStore.update(region.getUniqueId(), beacons, seenAtMs);
+    }
+    if (mRssiHistoryEnabled) {
+      mRssiHistory.update(beacons, seenAtMs);
+    }
+    if (mAdaptiveScanEnabled) {
+      adaptScanPeriod(beacons, callbackNanos);
+    }
+    boolean virtual = VirtualRegionIndex.isVirtualRegion(region);
+    // smoothed first, so that the position uses the distances of this cycle
+    boolean smoothed = mProximitySmoothingEnabled && !virtual;
+    List<ProximityTracker.Transition> transitions = smoothed ? mProximityTracker.update(beacons, seenAtMs) : null;
+    if (mPositioningIntervalMs > 0) {
+      mPositionEngine.update(beacons, smoothed ? mProximityTracker : null, seenAtMs);
+    }
+    if (virtual) {
+      emitVirtualRegionTransitions(mVirtualRegionIndex.update(beacons));
+      return;
+    }
+    if (smoothed) {
+      emitProximityTransitions(transitions, region);
+    }
+    emitRangingSubscriptions(beacons, region);
+    if (!mRangingBroadcastEnabled) {
+      return;
+    }
+    if (mRangeBatchingEnabled) {
+      mRangeBatcher.add(beacons, region);
+      return;
+    }
+    WritableMap payload = createRangingPayload(beacons, region);
+    if (payload != null) {
+      sendEvent(mReactContext, getRangingEventName(), payload);
+      // batched payloads are left out: their latency is dominated by the batching window
+      mScanMetrics.onLatency(System.nanoTime() - callbackNanos);
+    }
+  }
+
+  /**
+   * Subscribes to the ranging results of `regionIds` (every ranged region by default), filtered
+   * natively by `minRssi` and `maxDistance` and projected to `fields` ("identifiers", "rssi",
+   * "distance", "proximity"). They are emitted as `beaconsSubscription:<id>`, at most once per
+   * region every `minIntervalMs`, whatever the ranging mode and batching. Resolves the id.
+   */
+  @ReactMethod
+  public void subscribeRanging(ReadableMap options, Promise promise) {
+    subscribe(EventSubscriptions.TYPE_RANGING, options, promise);
+  }
+
+  /**
+   * Subscribes to the transitions (`event` "enter", "exit") and states (`event` "state") of
+   * `regionIds`, virtual regions included, emitted as `beaconsSubscription:<id>`. Resolves the id.
+   */
+  @ReactMethod
+  public void subscribeMonitoring(ReadableMap options, Promise promise) {
+    subscribe(EventSubscriptions.TYPE_MONITORING, options, promise);
+  }
+
+  @ReactMethod
+  public void unsubscribe(int subscriptionId) {
+    if (!mEventSubscriptions.remove(subscriptionId)) {
+      Log.w(LOG_TAG, "unsubscribe, unknown subscription: " + subscriptionId);
+    }
+  }
+
+  /**
+   * Stops (or restarts) emitting the ranging results to every listener, for apps which only
+   * consume them through subscriptions. Monitoring events are always broadcast.
+   */
+  @ReactMethod
+  public void setRangingBroadcast(boolean enabled) {
+    Log.d(LOG_TAG, "setRangingBroadcast, enabled: " + enabled);
+    if (mRangingBroadcastEnabled && !enabled && mRangeBatchingEnabled) {
+      mRangeBatcher.flush();
+    }
+    mRangingBroadcastEnabled = enabled;
+  }
+
+  private void subscribe(int type, ReadableMap options, Promise promise) {
+    try {
+      Set<String> regionIds = null;
+      if (options != null && options.hasKey("regionIds") && !options.isNull("regionIds")) {
+        ReadableArray ids = options.getArray("regionIds");
+        regionIds = new HashSet<>();
+        for (int i = 0; i < ids.size(); i++) {
+          regionIds.add(ids.getString(i));
+        }
+      }
+      int fields = EventSubscriptions.ALL_FIELDS;
+      if (options != null && options.hasKey("fields") && !options.isNull("fields")) {
+        ReadableArray names = options.getArray("fields");
+        fields = 0;
+        for (int i = 0; i < names.size(); i++) {
+          fields |= EventSubscriptions.parseField(names.getString(i));
+        }
+      }
+      EventSubscriptions.Subscription subscription = mEventSubscriptions.add(
+        type,
+        regionIds,
+        options != null && options.hasKey("minRssi") ? options.getInt("minRssi") : Integer.MIN_VALUE,
+        options != null && options.hasKey("maxDistance") ? options.getDouble("maxDistance") : 0,
+        fields,
+        options != null && options.hasKey("minIntervalMs") ? (long) options.getDouble("minIntervalMs") : 0
+      );
+      Log.d(LOG_TAG, "subscribe, type: " + type + ", id: " + subscription.id);
+      promise.resolve(subscription.id);
+    } catch (Exception e) {
+      Log.e(LOG_TAG, "subscribe, error: ", e);
+      reject(promise, ERROR_INVALID_CONFIG, e);
+    }
+  }
+
+  private void emitRangingSubscriptions(List<Beacon> beacons, Region region) {
+    for (EventSubscriptions.Subscription subscription : mEventSubscriptions.get(EventSubscriptions.TYPE_RANGING, region)) {
+      List<Beacon> filtered = subscription.filter(beacons, region);
+      if (filtered == null) {
+        continue;
+      }
+      WritableMap map = new WritableNativeMap();
+      map.putString("identifier", region.getUniqueId());
+      WritableArray a = new WritableNativeArray();
+      for (Beacon beacon : filtered) {
+        a.pushMap(mPayloadBuilder.createProjectedBeaconMap(beacon, subscription.fields));
+      }
+      map.putArray("beacons", a);
+      sendEvent(mReactContext, subscription.eventName, map);
+    }
+  }
+
+  private void emitMonitoringSubscriptions(Region region, String event, @Nullable String state) {
+    for (EventSubscriptions.Subscription subscription : mEventSubscriptions.get(EventSubscriptions.TYPE_MONITORING, region)) {
+      WritableMap map = mPayloadBuilder.createMonitoringResponse(region);
+      map.putString("event", event);
+      if (state != null) {
+        map.putString("state", state);
+      }
+      sendEvent(mReactContext, subscription.eventName, map);
+    }
+  }
+
+  /**
+   * Keeps the last rssi, distance and time each beacon was ranged at (see LastSeenBeaconStore),
+   * for `getLastSeenBeacons`. Entries are evicted `ttlMs` (default 30000) after the beacon
+   * was last ranged.
+   */
+  @ReactMethod
+  public void setLastSeenStore(ReadableMap config) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    long ttlMs = config.hasKey("ttlMs") ? (long) config.getDouble("ttlMs") : LastSeenBeaconStore.DEFAULT_TTL_MS;
+    Log.d(LOG_TAG, "setLastSeenStore, enabled: " + enabled + ", ttlMs: " + ttlMs);
+    mLastSeenStore.setTtl(ttlMs);
+    if (!enabled) {
+      mLastSeenStore.clear();
+    }
+    mLastSeenStoreEnabled = enabled;
+  }
+
+  /**
+   * Resolves the beacons of `regionId` (every region when null) ranged within `maxAgeMs`
+   * (0 for the whole ttl), without waiting for a scan cycle.
+   */
+  @ReactMethod
+  public void getLastSeenBeacons(@Nullable String regionId, double maxAgeMs, Promise promise) {
+    long now = SystemClock.elapsedRealtime();
+    WritableArray array = new WritableNativeArray();
+    for (LastSeenBeaconStore.Entry entry : mLastSeenStore.get(regionId, (long) maxAgeMs)) {
+      WritableMap map = mPayloadBuilder.createHandleDefinition(entry.identity);
+      map.putString("identifier", entry.regionId);
+      map.putInt("rssi", entry.rssi);
+      map.putDouble("distance", entry.distance);
+      map.putString("proximity", EventPayloadBuilder.getProximity(entry.distance));
+      map.putDouble("timestamp", entry.timestamp);
+      map.putDouble("ageMs", now - entry.seenAtMs);
+      array.pushMap(map);
+    }
+    promise.resolve(array);
+  }
+
+  /**
+   * Keeps the last `capacity` (default 64) rssi samples of each ranged beacon in ring buffers
+   * (see RssiHistory), for `getRssiStats`. The buffers take at most `maxBytes` (default 262144,
+   * 12 bytes a sample): past that, the least recently ranged beacon loses its history. Beacons
+   * not ranged for `idleTimeoutMs` (default 60000) are evicted. Reconfiguring drops the histories.
+   */
+  @ReactMethod
+  public void setRssiHistory(ReadableMap config) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    int capacity = config.hasKey("capacity") ? config.getInt("capacity") : RssiHistory.DEFAULT_CAPACITY;
+    long maxBytes = config.hasKey("maxBytes") ? (long) config.getDouble("maxBytes") : RssiHistory.DEFAULT_MAX_BYTES;
+    long idleTimeoutMs = config.hasKey("idleTimeoutMs") ? (long) config.getDouble("idleTimeoutMs") : RssiHistory.DEFAULT_IDLE_TIMEOUT_MS;
+    Log.d(LOG_TAG, "setRssiHistory, enabled: " + enabled + ", capacity: " + capacity + ", maxBytes: " + maxBytes + ", idleTimeoutMs: " + idleTimeoutMs);
+    mRssiHistoryEnabled = false;
+    mRssiHistory.configure(capacity, enabled ? maxBytes : 0, idleTimeoutMs);
+    mRssiHistoryEnabled = enabled;
+  }
+
+  /**
+   * Resolves the rssi statistics of the beacon `beaconKey` ("uuid/major/minor" or its handle)
+   * over the last `windowMs` (0 for the whole history): sample count, mean, variance and slope
+   * (dBm per second, positive when getting closer). Resolves null if the beacon has no history.
+   */
+  @ReactMethod
+  public void getRssiStats(String beaconKey, double windowMs, Promise promise) {
+    RssiHistory.Stats stats = mRssiHistory.getStats(beaconKey, (long) windowMs);
+    if (stats == null) {
+      promise.resolve(null);
+      return;
+    }
     WritableMap map = new WritableNativeMap();
-    map.putString("identifier", region.getUniqueId());
-    map.putString("uuid", region.getId1() != null ? region.getId1().toString() : "");
-    WritableArray a = new WritableNativeArray();
-    for (Beacon beacon : beacons) {
-      WritableMap b = new WritableNativeMap();
-      b.putString("uuid", beacon.getId1().toString());
-      if (beacon.getIdentifiers().size() > 2) {
-        b.putInt("major", beacon.getId2().toInt());
-        b.putInt("minor", beacon.getId3().toInt());
-      }
-      b.putInt("rssi", beacon.getRssi());
-      if (beacon.getDistance() == Double.POSITIVE_INFINITY
-        || Double.isNaN(beacon.getDistance())
-        || beacon.getDistance() == Double.NaN
-        || beacon.getDistance() == Double.NEGATIVE_INFINITY) {
-        b.putDouble("distance", 999.0);
-        b.putString("proximity", "far");
-      } else {
-        b.putDouble("distance", beacon.getDistance());
-        b.putString("proximity", getProximity(beacon.getDistance()));
+    map.putString("beaconKey", beaconKey);
+    map.putInt("count", stats.count);
+    map.putDouble("mean", stats.mean);
+    map.putDouble("variance", stats.variance);
+    map.putDouble("slope", stats.slope);
+    map.putDouble("spanMs", stats.spanMs);
+    promise.resolve(map);
+  }
+
+  /**
+   * Sets the backpressure policy (EVENT_QUEUE_DROP_OLDEST, EVENT_QUEUE_COALESCE or
+   * EVENT_QUEUE_BLOCK) and the capacity of the queue feeding the event marshalling worker.
+   */
+  @ReactMethod
+  public void setEventQueue(ReadableMap config) {
+    int policy = config.hasKey("policy") ? config.getInt("policy") : EventDispatcher.POLICY_COALESCE;
+    int capacity = config.hasKey("capacity") ? config.getInt("capacity") : EventDispatcher.DEFAULT_CAPACITY;
+    Log.d(LOG_TAG, "setEventQueue, policy: " + policy + ", capacity: " + capacity);
+    mEventDispatcher.configure(policy, capacity);
+  }
+
+  @ReactMethod
+  public void getEventQueueStats(Promise promise) {
+    EventDispatcher.Stats stats = mEventDispatcher.getStats();
+    WritableMap map = new WritableNativeMap();
+    map.putInt("depth", stats.depth);
+    map.putInt("capacity", stats.capacity);
+    map.putInt("policy", stats.policy);
+    map.putDouble("dispatched", stats.dispatched);
+    map.putDouble("dropped", stats.dropped);
+    map.putDouble("coalesced", stats.coalesced);
+    map.putDouble("lastLatencyMs", stats.lastLatencyMs);
+    map.putDouble("maxLatencyMs", stats.maxLatencyMs);
+    map.putDouble("avgLatencyMs", stats.avgLatencyMs);
+    promise.resolve(map);
+  }
+
+  /**
+   * Selects the payload emitted for every ranging cycle:
+   * - RANGING_MODE_FULL: `beaconsDidRange` with every beacon of the region (default)
+   * - RANGING_MODE_DELTA: `beaconsDidRangeDelta` with the beacons added, removed, or whose
+   *   rssi/distance/proximity moved past the thresholds since the last emitted state
+   * - RANGING_MODE_PACKED: `beaconsDidRangePacked` with parallel primitive arrays, or a base64
+   *   packed buffer when `encoding` is "base64" (see PackedRangingEncoder)
+   * - RANGING_MODE_SUMMARY: `beaconsDidRangeSummary` with the number of beacons by major, the
+   *   `nearest` N (default 3) beacons and the min/max/average rssi (see RangingSummarizer)
+   * With `handles`, beacons of the full, delta and summary payloads carry the integer handle of their
+   * identity instead of uuid/major/minor, new handles are defined in `handleDefinitions`.
+   */
+  @ReactMethod
+  public void setRangingMode(int mode, ReadableMap options) {
+    int rssiThreshold = options != null && options.hasKey("rssiThreshold")
+      ? options.getInt("rssiThreshold")
+      : RangingDeltaTracker.DEFAULT_RSSI_THRESHOLD;
+    double distanceThreshold = options != null && options.hasKey("distanceThreshold")
+      ? options.getDouble("distanceThreshold")
+      : RangingDeltaTracker.DEFAULT_DISTANCE_THRESHOLD;
+    Log.d(LOG_TAG, "setRangingMode, mode: " + mode + ", rssiThreshold: " + rssiThreshold + ", distanceThreshold: " + distanceThreshold);
+    int encoding = options != null && options.hasKey("encoding") && "base64".equals(options.getString("encoding"))
+      ? PackedRangingEncoder.ENCODING_BASE64
+      : PackedRangingEncoder.ENCODING_COLUMNS;
+    mRangingDeltaTracker.configure(rssiThreshold, distanceThreshold);
+    mRangingDeltaTracker.clear();
+    mPackedRangingEncoder.setEncoding(encoding);
+    mPackedRangingEncoder.resetSentDictionary();
+    mRangingSummarizer.setNearestCount(options != null && options.hasKey("nearest")
+      ? options.getInt("nearest")
+      : RangingSummarizer.DEFAULT_NEAREST_COUNT);
+    mUseBeaconHandles = options != null && options.hasKey("handles") && options.getBoolean("handles");
+    mIdentityCache.resetAnnounced();
+    mRangingMode = mode;
+  }
+
+  /**
+   * Smooths the distance of every ranged beacon natively (EWMA or Kalman filter) and emits
+   * `proximityChanged` when its proximity changes, with hysteresis around the zone boundaries.
+   */
+  @ReactMethod
+  public void setProximitySmoothing(ReadableMap config) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    int filter = config.hasKey("filter") && "kalman".equals(config.getString("filter"))
+      ? ProximityTracker.FILTER_KALMAN
+      : ProximityTracker.FILTER_EWMA;
+    double alpha = config.hasKey("alpha") ? config.getDouble("alpha") : ProximityTracker.DEFAULT_ALPHA;
+    double processNoise = config.hasKey("processNoise") ? config.getDouble("processNoise") : ProximityTracker.DEFAULT_PROCESS_NOISE;
+    double measurementNoise = config.hasKey("measurementNoise") ? config.getDouble("measurementNoise") : ProximityTracker.DEFAULT_MEASUREMENT_NOISE;
+    double hysteresis = config.hasKey("hysteresis") ? config.getDouble("hysteresis") : ProximityTracker.DEFAULT_HYSTERESIS;
+    int minSamples = config.hasKey("minSamples") ? config.getInt("minSamples") : ProximityTracker.DEFAULT_MIN_SAMPLES;
+    Log.d(LOG_TAG, "setProximitySmoothing, enabled: " + enabled + ", filter: " + filter + ", hysteresis: " + hysteresis);
+    mProximityTracker.configure(filter, alpha, processNoise, measurementNoise, hysteresis, minSamples);
+    if (!enabled) {
+      mProximityTracker.clear();
+    }
+    mProximitySmoothingEnabled = enabled;
+  }
+
+  private void emitProximityTransitions(@Nullable List<ProximityTracker.Transition> transitions, Region region) {
+    if (transitions == null) {
+      return;
+    }
+    for (ProximityTracker.Transition transition : transitions) {
+      WritableMap map = mPayloadBuilder.createHandleDefinition(transition.identity);
+      map.putString("identifier", region.getUniqueId());
+      map.putString("proximity", ProximityTracker.getProximityName(transition.proximity));
+      map.putString("previousProximity", ProximityTracker.getProximityName(transition.previousProximity));
+      map.putDouble("distance", transition.distance);
+      sendEvent(mReactContext, "proximityChanged", map);
+    }
+  }
+
+  /**
+   * Coalesces the ranging results of all regions and emits them as a single
+   * `beaconsDidRangeBatch` event, at most `maxEventsPerSecond` times per second.
+   * While enabled, `beaconsDidRange` is no longer emitted.
+   */
+  @ReactMethod
+  public void setRangeBatching(ReadableMap config) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    long windowMs = config.hasKey("windowMs") ? (long) config.getDouble("windowMs") : RangeBatcher.DEFAULT_WINDOW_MS;
+    double maxEventsPerSecond = config.hasKey("maxEventsPerSecond")
+      ? config.getDouble("maxEventsPerSecond")
+      : RangeBatcher.DEFAULT_MAX_EVENTS_PER_SECOND;
+    Log.d(LOG_TAG, "setRangeBatching, enabled: " + enabled + ", windowMs: " + windowMs + ", maxEventsPerSecond: " + maxEventsPerSecond);
+    mRangeBatcher.configure(windowMs, maxEventsPerSecond);
+    if (mRangeBatchingEnabled && !enabled) {
+      mRangeBatcher.flush();
+    }
+    mRangeBatchingEnabled = enabled;
+  }
+
+  @Nullable
+  private WritableMap createRangingBatchResponse(List<RangeBatcher.RangeSnapshot> snapshots) {
+    WritableMap map = new WritableNativeMap();
+    WritableArray regions = new WritableNativeArray();
+    int count = 0;
+    for (RangeBatcher.RangeSnapshot snapshot : snapshots) {
+      WritableMap response = createRangingPayload(snapshot.beacons, snapshot.region);
+      if (response != null) {
+        response.putDouble("timestamp", snapshot.timestamp);
+        regions.pushMap(response);
+        count++;
       }
-      a.pushMap(b);
     }
-    map.putArray("beacons", a);
+    if (count == 0) {
+      return null;
+    }
+    map.putArray("regions", regions);
+    map.putString("event", getRangingEventName());
     return map;
   }
 
-  private String getProximity(double distance) {
-    if (distance == -1.0) {
-      return "unknown";
-    } else if (distance < 1) {
-      return "immediate";
-    } else if (distance < 3) {
-      return "near";
-    } else {
-      return "far";
+  /**
+   * Builds the payload of a ranging cycle according to the current ranging mode,
+   * returns null when there is nothing to emit.
+   */
+  @Nullable
+  private WritableMap createRangingPayload(Collection<Beacon> beacons, Region region) {
+    long start = System.nanoTime();
+    WritableMap payload;
+    // the beacons the payload carries
+    int entries;
+    switch (mRangingMode) {
+      case RANGING_MODE_DELTA:
+        RangingDeltaTracker.Delta delta = mRangingDeltaTracker.update(region.getUniqueId(), beacons);
+        payload = delta.isEmpty() ? null : mPayloadBuilder.createRangingDeltaResponse(delta, region, mUseBeaconHandles);
+        entries = delta.added.size() + delta.updated.size() + delta.removed.size();
+        break;
+      case RANGING_MODE_PACKED:
+        payload = mPackedRangingEncoder.encode(beacons, region);
+        entries = beacons.size();
+        break;
+      case RANGING_MODE_SUMMARY:
+        RangingSummarizer.Summary summary = mRangingSummarizer.summarize(beacons);
+        payload = mPayloadBuilder.createRangingSummaryResponse(summary, region, mUseBeaconHandles);
+        entries = summary.nearest.length;
+        break;
+      default:
+        payload = mPayloadBuilder.createRangingResponse(beacons, region, mUseBeaconHandles);
+        entries = beacons.size();
+        break;
+    }
+    mScanMetrics.onPayloadBuilt(entries, System.nanoTime() - start);
+    return payload;
+  }
+
+  private String getRangingEventName() {
+    switch (mRangingMode) {
+      case RANGING_MODE_DELTA:
+        return "beaconsDidRangeDelta";
+      case RANGING_MODE_PACKED:
+        return "beaconsDidRangePacked";
+      case RANGING_MODE_SUMMARY:
+        return "beaconsDidRangeSummary";
+      default:
+        return "beaconsDidRange";
     }
   }
 
   @ReactMethod
-  public void stopRanging(String regionId, String beaconUuid, Callback resolve, Callback reject) {
-    Region region = createRegion(regionId, beaconUuid);
+  public void stopRanging(final String regionId, final String beaconUuid, Promise promise) {
+    runConfigTask("stopRanging", ERROR_RANGING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        mBeaconManager.stopRangingBeacons(createRegion(regionId, beaconUuid));
+        mRangingDeltaTracker.reset(regionId);
+        mLastSeenStore.remove(regionId);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Makes the ranged regions match `regions`, see setMonitoredRegions.
+   */
+  @ReactMethod
+  public void setRangedRegions(final ReadableArray regions, Promise promise) {
+    runConfigTask("setRangedRegions", ERROR_RANGING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        // the wildcard regions of the virtual regions are managed by setVirtualRegions
+        RegionDiff diff = RegionDiff.compute(getRangedRegions(false), createRegions(regions));
+        Log.d(LOG_TAG, "setRangedRegions, added: " + diff.added.size() + ", removed: " + diff.removed.size() + ", updated: " + diff.updatedTo.size());
+        applyRegionDiff(diff, true);
+        for (Region region : diff.getRegionsToStop()) {
+          mRangingDeltaTracker.reset(region.getUniqueId());
+          mLastSeenStore.remove(region.getUniqueId());
+        }
+        return createRegionDiffResponse(diff);
+      }
+    });
+  }
+
+  /**
+   * Monitors `regions` ({identifier, uuid, major, minor}) as virtual regions: BeaconManager
+   * only ranges one wildcard region per uuid, the beacons it ranges are matched natively
+   * against the virtual regions (see VirtualRegionIndex), which emit `regionDidEnter` and
+   * `regionDidExit` with `virtual: true`. A virtual region is exited when none of its beacons
+   * was ranged for `exitTimeoutMs` (default 10000). Replaces the previous virtual regions.
+   */
+  @ReactMethod
+  public void setVirtualRegions(final ReadableArray regions, ReadableMap options, Promise promise) {
+    final long exitTimeoutMs = options != null && options.hasKey("exitTimeoutMs")
+      ? (long) options.getDouble("exitTimeoutMs")
+      : VirtualRegionIndex.DEFAULT_EXIT_TIMEOUT_MS;
+    runConfigTask("setVirtualRegions", ERROR_RANGING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        List<Region> wildcards = mVirtualRegionIndex.setRegions(createRegions(regions), exitTimeoutMs);
+        RegionDiff diff = RegionDiff.compute(getRangedRegions(true), wildcards);
+        Log.d(LOG_TAG, "setVirtualRegions, regions: " + regions.size() + ", wildcard regions: " + wildcards.size());
+        applyRegionDiff(diff, true);
+        WritableMap map = new WritableNativeMap();
+        map.putInt("regions", mVirtualRegionIndex.size());
+        map.putInt("rangedRegions", wildcards.size());
+        return map;
+      }
+    });
+  }
+
+  private List<Region> getRangedRegions(boolean virtual) {
+    List<Region> regions = new ArrayList<>();
+    for (Region region : mBeaconManager.getRangedRegions()) {
+      if (VirtualRegionIndex.isVirtualRegion(region) == virtual) {
+        regions.add(region);
+      }
+    }
+    return regions;
+  }
+
+  private void emitVirtualRegionTransitions(@Nullable List<VirtualRegionIndex.Transition> transitions) {
+    if (transitions == null) {
+      return;
+    }
+    onRegionTransition();
+    for (VirtualRegionIndex.Transition transition : transitions) {
+      WritableMap map = mPayloadBuilder.createMonitoringResponse(transition.region);
+      map.putBoolean("virtual", true);
+      sendEvent(mReactContext, transition.entered ? "regionDidEnter" : "regionDidExit", map);
+      emitMonitoringSubscriptions(transition.region, transition.entered ? "enter" : "exit", null);
+    }
+  }
+
+  private List<Region> createRegions(ReadableArray regions) {
+    List<Region> result = new ArrayList<>(regions.size());
+    // floor plans share a few uuids between many regions: parse each of them once
+    Map<String, Identifier> uuids = new HashMap<>();
+    for (int i = 0; i < regions.size(); i++) {
+      ReadableMap map = regions.getMap(i);
+      if (map == null || !map.hasKey("identifier")) {
+        throw new IllegalArgumentException("identifier is required");
+      }
+      Identifier id1 = null;
+      if (map.hasKey("uuid") && !map.isNull("uuid")) {
+        String uuid = map.getString("uuid");
+        id1 = uuids.get(uuid);
+        if (id1 == null) {
+          id1 = Identifier.parse(uuid);
+          uuids.put(uuid, id1);
+        }
+      }
+      result.add(new Region(
+        map.getString("identifier"),
+        id1,
+        getRegionIdentifier(map, "major"),
+        getRegionIdentifier(map, "minor")
+      ));
+    }
+    return result;
+  }
+
+  @Nullable
+  private static Identifier getRegionIdentifier(ReadableMap map, String key) {
+    if (!map.hasKey(key) || map.isNull(key)) {
+      return null;
+    }
+    int value = map.getInt(key);
+    return value == -1 ? null : Identifier.fromInt(value);
+  }
+
+  /**
+   * Stops then starts the regions of the diff, undoing what was applied if one of them fails.
+   */
+  private void applyRegionDiff(RegionDiff diff, boolean ranging) {
+    List<Region> stopped = new ArrayList<>();
+    List<Region> started = new ArrayList<>();
     try {
+      for (Region region : diff.getRegionsToStop()) {
+        stopRegion(region, ranging);
+        stopped.add(region);
+      }
+      for (Region region : diff.getRegionsToStart()) {
+        startRegion(region, ranging);
+        started.add(region);
+      }
+    } catch (RuntimeException e) {
+      for (Region region : started) {
+        try {
+          stopRegion(region, ranging);
+        } catch (RuntimeException rollbackError) {
+          Log.e(LOG_TAG, "applyRegionDiff, rollback error: ", rollbackError);
+        }
+      }
+      for (Region region : stopped) {
+        try {
+          startRegion(region, ranging);
+        } catch (RuntimeException rollbackError) {
+          Log.e(LOG_TAG, "applyRegionDiff, rollback error: ", rollbackError);
+        }
+      }
+      throw e;
+    }
+  }
+
+  private void startRegion(Region region, boolean ranging) {
+    if (ranging) {
+      mBeaconManager.startRangingBeacons(region);
+    } else {
+      mBeaconManager.startMonitoring(region);
+    }
+  }
+
+  private void stopRegion(Region region, boolean ranging) {
+    if (ranging) {
       mBeaconManager.stopRangingBeacons(region);
-      resolve.invoke();
+    } else {
+      mBeaconManager.stopMonitoring(region);
+    }
+  }
+
+  private WritableMap createRegionDiffResponse(RegionDiff diff) {
+    WritableMap map = new WritableNativeMap();
+    map.putArray("added", createRegionIdentifierArray(diff.added));
+    map.putArray("removed", createRegionIdentifierArray(diff.removed));
+    map.putArray("updated", createRegionIdentifierArray(diff.updatedTo));
+    return map;
+  }
+
+  private WritableArray createRegionIdentifierArray(List<Region> regions) {
+    WritableArray array = new WritableNativeArray();
+    for (Region region : regions) {
+      array.pushString(region.getUniqueId());
+    }
+    return array;
+  }
+
+  /**
+   * Resolves once the state is requested, the state itself is emitted as `didDetermineState`.
+   */
+  @ReactMethod
+  public void requestStateForRegion(final String regionId, final String beaconUuid, final int minor, final int major, Promise promise) {
+    runConfigTask("requestStateForRegion", ERROR_MONITORING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        Region region = createRegion(
+          regionId,
+          beaconUuid,
+          String.valueOf(minor).equals("-1") ? "" : String.valueOf(minor),
+          String.valueOf(major).equals("-1") ? "" : String.valueOf(major)
+        );
+        mBeaconManager.requestStateForRegion(region);
+        return null;
+      }
+    });
+  }
+
+
+  /***********************************************************************************************
+   * Scan metrics
+   **********************************************************************************************/
+  /**
+   * Resolves the scan pipeline counters: scan cycles, beacons per cycle, callback to emit
+   * latency percentiles, events dropped without JS instance, payload sizes and build time.
+   */
+  @ReactMethod
+  public void getScanMetrics(Promise promise) {
+    promise.resolve(createScanMetricsMap(mScanMetrics.snapshot()));
+  }
+
+  /**
+   * Emits the scan metrics as a `scanMetrics` event every `intervalMs`, 0 stops the event.
+   */
+  @ReactMethod
+  public void setScanMetricsInterval(int intervalMs) {
+    Log.d(LOG_TAG, "setScanMetricsInterval, intervalMs: " + intervalMs);
+    mScanMetricsIntervalMs = Math.max(0, intervalMs);
+    mScanMetricsHandler.removeCallbacks(mScanMetricsRunnable);
+    if (mScanMetricsIntervalMs > 0) {
+      mScanMetricsHandler.postDelayed(mScanMetricsRunnable, mScanMetricsIntervalMs);
+    }
+  }
+
+  @ReactMethod
+  public void resetScanMetrics() {
+    mScanMetrics.reset();
+  }
+
+  private WritableMap createScanMetricsMap(ScanMetrics.Snapshot snapshot) {
+    WritableMap map = new WritableNativeMap();
+    map.putDouble("scanCycles", snapshot.scanCycles);
+    map.putDouble("rangingCallbacks", snapshot.rangingCallbacks);
+    map.putDouble("beaconsRanged", snapshot.beaconsRanged);
+    map.putDouble("avgBeaconsPerCycle", snapshot.scanCycles > 0 ? (double) snapshot.beaconsRanged / snapshot.scanCycles : 0);
+    map.putDouble("lastCycleBeacons", snapshot.lastCycleBeacons);
+    map.putDouble("maxCycleBeacons", snapshot.maxCycleBeacons);
+    map.putDouble("eventsEmitted", snapshot.eventsEmitted);
+    map.putDouble("eventsDroppedNoCatalyst", snapshot.eventsDroppedNoCatalyst);
+    map.putDouble("payloads", snapshot.payloads);
+    map.putDouble("avgPayloadEntries", snapshot.payloads > 0 ? (double) snapshot.payloadEntries / snapshot.payloads : 0);
+    map.putDouble("maxPayloadEntries", snapshot.maxPayloadEntries);
+    map.putDouble("avgPayloadBuildMs", snapshot.payloadBuildCount > 0
+      ? snapshot.payloadBuildTotalNanos / 1e6 / snapshot.payloadBuildCount
+      : 0);
+    map.putDouble("maxPayloadBuildMs", snapshot.payloadBuildMaxNanos / 1e6);
+    map.putDouble("latencyCount", snapshot.latencyCount);
+    map.putDouble("latencyP50Ms", snapshot.latencyP50Ms);
+    map.putDouble("latencyP90Ms", snapshot.latencyP90Ms);
+    map.putDouble("latencyP99Ms", snapshot.latencyP99Ms);
+    map.putDouble("latencyMaxMs", snapshot.latencyMaxNanos / 1e6);
+    map.putDouble("positionSolves", snapshot.solveCount);
+    map.putDouble("avgPositionSolveMs", snapshot.solveCount > 0 ? snapshot.solveTotalNanos / 1e6 / snapshot.solveCount : 0);
+    map.putDouble("maxPositionSolveMs", snapshot.solveMaxNanos / 1e6);
+    return map;
+  }
+
+  /**
+   * Computes the position from the distances to `anchors` ({uuid, major, minor, x, y, floor},
+   * coordinates in meters) and emits it as a `positionUpdate` event ({x, y, floor, error,
+   * anchors}) every `intervalMs` (default 1000), see PositionEngine. Only the anchors ranged
+   * within `maxAgeMs` (default 5000) are used, and at least `minAnchors` (default 3) of a floor
+   * are needed. The distances are the smoothed ones when proximity smoothing is enabled.
+   */
+  @ReactMethod
+  public void setPositioning(ReadableMap config, Promise promise) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    long intervalMs = config.hasKey("intervalMs") ? (long) config.getDouble("intervalMs") : PositionEngine.DEFAULT_INTERVAL_MS;
+    long maxAgeMs = config.hasKey("maxAgeMs") ? (long) config.getDouble("maxAgeMs") : PositionEngine.DEFAULT_MAX_AGE_MS;
+    int minAnchors = config.hasKey("minAnchors") ? config.getInt("minAnchors") : PositionEngine.DEFAULT_MIN_ANCHORS;
+    mPositioningIntervalMs = 0;
+    mPositioningHandler.removeCallbacks(mPositioningRunnable);
+    if (!enabled) {
+      mPositionEngine.clear();
+      promise.resolve(null);
+      return;
+    }
+    try {
+      List<PositionEngine.Anchor> anchors = new ArrayList<>();
+      ReadableArray array = config.hasKey("anchors") ? config.getArray("anchors") : null;
+      Map<String, Identifier> uuids = new HashMap<>();
+      for (int i = 0; array != null && i < array.size(); i++) {
+        ReadableMap map = array.getMap(i);
+        String uuid = map.getString("uuid");
+        Identifier id1 = uuids.get(uuid);
+        if (id1 == null) {
+          id1 = Identifier.parse(uuid);
+          uuids.put(uuid, id1);
+        }
+        anchors.add(new PositionEngine.Anchor(
+          id1,
+          map.getInt("major"),
+          map.getInt("minor"),
+          map.getDouble("x"),
+          map.getDouble("y"),
+          map.hasKey("floor") ? map.getInt("floor") : 0
+        ));
+      }
+      Log.d(LOG_TAG, "setPositioning, anchors: " + anchors.size() + ", intervalMs: " + intervalMs);
+      mPositionEngine.configure(anchors, maxAgeMs, minAnchors);
+      mPositioningIntervalMs = intervalMs > 0 ? intervalMs : PositionEngine.DEFAULT_INTERVAL_MS;
+      mPositioningHandler.postDelayed(mPositioningRunnable, mPositioningIntervalMs);
+      promise.resolve(null);
     } catch (Exception e) {
-      Log.e(LOG_TAG, "stopRanging, error: ", e);
-      reject.invoke(e.getMessage());
+      Log.e(LOG_TAG, "setPositioning, error: ", e);
+      promise.reject(ERROR_INVALID_CONFIG, e.getMessage(), e);
     }
   }
 
+  /**
+   * Records the callbacks of the range and monitor notifiers to `{name}.scan` (default: the
+   * current time) in the files directory, until stopScanRecording or `maxBytes` (default
+   * 10MB), see ScanRecorder. Resolves the path of the recording.
+   */
   @ReactMethod
-  public void requestStateForRegion(String regionId, String beaconUuid, int minor, int major) {
-    Region region = createRegion(
-      regionId,
-      beaconUuid,
-      String.valueOf(minor).equals("-1") ? "" : String.valueOf(minor),
-      String.valueOf(major).equals("-1") ? "" : String.valueOf(major)
-    );
-    mBeaconManager.requestStateForRegion(region);
+  public void startScanRecording(ReadableMap options, Promise promise) {
+    if (mScanReplayer != null) {
+      promise.reject(ERROR_SCAN_RECORDING, "a scan recording is being replayed");
+      return;
+    }
+    String name = options != null && options.hasKey("name") ? options.getString("name") : String.valueOf(System.currentTimeMillis());
+    long maxBytes = options != null && options.hasKey("maxBytes") ? (long) options.getDouble("maxBytes") : ScanRecorder.DEFAULT_MAX_BYTES;
+    File file = new File(new File(mReactContext.getFilesDir(), SCAN_RECORDINGS_DIRECTORY_NAME), name + ".scan");
+    try {
+      mScanRecorder.start(file, maxBytes);
+      Log.d(LOG_TAG, "startScanRecording, file: " + file);
+      promise.resolve(file.getAbsolutePath());
+    } catch (Exception e) {
+      Log.e(LOG_TAG, "startScanRecording, error: ", e);
+      reject(promise, ERROR_SCAN_RECORDING, e);
+    }
   }
 
+  @ReactMethod
+  public void stopScanRecording(final Promise promise) {
+    mScanRecorder.stop(new ScanRecorder.StopCallback() {
+      @Override
+      public void onStop(ScanRecorder.Result result) {
+        WritableMap map = new WritableNativeMap();
+        map.putString("path", result.file != null ? result.file.getAbsolutePath() : null);
+        map.putInt("records", result.records);
+        map.putInt("bytes", result.bytes);
+        promise.resolve(map);
+      }
+    });
+  }
+
+  /**
+   * Replays a scan recording through the range and monitor notifiers, so it goes through the
+   * whole pipeline (and the scan metrics) as live scanning does, at `speed` times the recorded
+   * pace (default 1, 0 as fast as possible). Resolves `{entries, elapsedMs}` once replayed.
+   */
+  @ReactMethod
+  public void replayScanRecording(String path, ReadableMap options, final Promise promise) {
+    if (mScanRecorder.isRecording()) {
+      promise.reject(ERROR_SCAN_REPLAY, "a scan recording is in progress");
+      return;
+    }
+    if (mScanReplayer != null) {
+      promise.reject(ERROR_SCAN_REPLAY, "a scan recording is already being replayed");
+      return;
+    }
+    File file = new File(path);
+    if (!file.isFile()) {
+      promise.reject(ERROR_SCAN_REPLAY, "scan recording not found: " + path);
+      return;
+    }
+    double speed = options != null && options.hasKey("speed") ? options.getDouble("speed") : 1;
+    Log.d(LOG_TAG, "replayScanRecording, file: " + file + ", speed: " + speed);
+    ScanReplayer replayer = new ScanReplayer(file, speed, new ScanReplayer.Listener() {
+      @Override
+      public void onRanging(List<Beacon> beacons, Region region) {
+        mRangeNotifier.didRangeBeaconsInRegion(beacons, region);
+      }
+
+      @Override
+      public void onTransition(Region region, boolean entered) {
+        if (entered) {
+          mMonitorNotifier.didEnterRegion(region);
+        } else {
+          mMonitorNotifier.didExitRegion(region);
+        }
+      }
+
+      @Override
+      public void onState(int state, Region region) {
+        mMonitorNotifier.didDetermineStateForRegion(state, region);
+      }
+
+      @Override
+      public void onComplete(int entries, long elapsedMs, @Nullable Exception error) {
+        mScanReplayer = null;
+        if (error != null) {
+          Log.e(LOG_TAG, "replayScanRecording, error: ", error);
+          promise.reject(ERROR_SCAN_REPLAY, error.getMessage(), error);
+          return;
+        }
+        WritableMap map = new WritableNativeMap();
+        map.putInt("entries", entries);
+        map.putDouble("elapsedMs", elapsedMs);
+        promise.resolve(map);
+      }
+    });
+    mScanReplayer = replayer;
+    replayer.start();
+  }
+
+  @ReactMethod
+  public void stopScanReplay() {
+    ScanReplayer replayer = mScanReplayer;
+    if (replayer != null) {
+      replayer.cancel();
+    }
+  }
+
+  private WritableMap createPositionMap(PositionEngine.Position position) {
+    WritableMap map = new WritableNativeMap();
+    map.putDouble("x", position.x);
+    map.putDouble("y", position.y);
+    map.putInt("floor", position.floor);
+    map.putDouble("error", position.error);
+    map.putInt("anchors", position.anchors);
+    return map;
+  }
+
+  /***********************************************************************************************
+   * Event journal
+   **********************************************************************************************/
+  /**
+   * Journals on disk the events emitted while no JS instance is active,
+   * see `drainEventJournal` to replay them.
+   */
+  @ReactMethod
+  public void setEventJournal(ReadableMap config) {
+    boolean enabled = config.hasKey("enabled") && config.getBoolean("enabled");
+    long maxBytes = config.hasKey("maxBytes") ? (long) config.getDouble("maxBytes") : EventJournal.DEFAULT_MAX_BYTES;
+    long maxAgeMs = config.hasKey("maxAgeMs") ? (long) config.getDouble("maxAgeMs") : EventJournal.DEFAULT_MAX_AGE_MS;
+    Log.d(LOG_TAG, "setEventJournal, enabled: " + enabled + ", maxBytes: " + maxBytes + ", maxAgeMs: " + maxAgeMs);
+    mBackgroundMonitor.setEventJournal(enabled, maxBytes, maxAgeMs);
+  }
+
+  /**
+   * Resolves the journaled events, oldest first, and empties the journal.
+   */
+  @ReactMethod
+  public void drainEventJournal(final Promise promise) {
+    mBackgroundMonitor.getEventJournal().replay(new EventJournal.ReplayCallback() {
+      @Override
+      public void onReplay(List<EventJournal.Record> records) {
+        WritableArray array = new WritableNativeArray();
+        for (EventJournal.Record record : records) {
+          WritableMap map = new WritableNativeMap();
+          map.putString("event", record.eventName);
+          map.putDouble("timestamp", record.timestamp);
+          map.putString("body", record.body);
+          array.pushMap(map);
+        }
+        promise.resolve(array);
+      }
+
+      @Override
+      public void onError(Exception e) {
+        Log.e(LOG_TAG, "drainEventJournal, error: ", e);
+        promise.reject(ERROR_EVENT_JOURNAL, e.getMessage(), e);
+      }
+    });
+  }
 
   /***********************************************************************************************
    * Utils
@@ -387,6 +1815,12 @@ public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
       reactContext
         .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
         .emit(eventName, params);
+      mScanMetrics.onEventEmitted();
+    } else {
+      mScanMetrics.onEventDroppedNoCatalyst();
+      if (mBackgroundMonitor.isEventJournalEnabled()) {
+        mBackgroundMonitor.getEventJournal().append(eventName, params);
+      }
     }
   }
 
@@ -406,52 +1840,53 @@ public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
   }
 
   @ReactMethod
-  public void enableForegroundServiceScanning(ReadableMap notificationConfig, Callback resolve, Callback reject) {
+  public void enableForegroundServiceScanning(final ReadableMap notificationConfig, Promise promise) {
     if (notificationConfig == null) {
-      reject.invoke("Notification config is invalid");
+      promise.reject(ERROR_INVALID_CONFIG, "Notification config is invalid");
       return;
     }
 
     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
       if (!notificationConfig.hasKey("channelId")) {
-        reject.invoke("channelId is required");
+        promise.reject(ERROR_INVALID_CONFIG, "channelId is required");
         return;
       }
     }
 
     if (!notificationConfig.hasKey("id")) {
-      reject.invoke("id is required");
+      promise.reject(ERROR_INVALID_CONFIG, "id is required");
       return;
     }
 
     if (!notificationConfig.hasKey("icon")) {
-      reject.invoke("icon is required");
+      promise.reject(ERROR_INVALID_CONFIG, "icon is required");
       return;
     }
 
     if (!notificationConfig.hasKey("title")) {
-      reject.invoke("title is reqired");
+      promise.reject(ERROR_INVALID_CONFIG, "title is reqired");
       return;
     }
 
     if (!notificationConfig.hasKey("text")) {
-      reject.invoke("text is required");
+      promise.reject(ERROR_INVALID_CONFIG, "text is required");
       return;
     }
 
-    Notification notification = buildNotification(mApplicationContext, notificationConfig);
+    final Notification notification = buildNotification(mApplicationContext, notificationConfig);
     if (notification == null) {
-      reject.invoke("unable to build notification");
+      promise.reject(ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING, "unable to build notification");
       return;
     }
 
-    try {
-      mBeaconManager.enableForegroundServiceScanning(notification, (int)notificationConfig.getDouble("id"));
-      resolve.invoke();
-    } catch (Exception e) {
-      Log.e(LOG_TAG, "enableForegroundServiceScanning, error: ", e);
-      reject.invoke(e.getMessage());
-    }
+    // BeaconManager refuses it once regions are started: ordered with the region changes
+    runConfigTask("enableForegroundServiceScanning", ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        mBeaconManager.enableForegroundServiceScanning(notification, (int)notificationConfig.getDouble("id"));
+        return null;
+      }
+    });
   }
 
   Notification buildNotification(Context context, @NonNull ReadableMap notificationConfig) {
@@ -544,12 +1979,68 @@ public class BeaconsAndroidModule extends ReactContextBaseJavaModule {
   }
 
   @ReactMethod
-  public void disableForegroundServiceScanning(Callback resolve, Callback reject) {
+  public void disableForegroundServiceScanning(Promise promise) {
+    runConfigTask("disableForegroundServiceScanning", ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING, promise, new ConfigTask() {
+      @Override
+      public Object run() {
+        mBeaconManager.disableForegroundServiceScanning();
+        return null;
+      }
+    });
+  }
+
+  private interface ConfigTask {
+    /**
+     * @return the value to resolve
+     */
+    @Nullable
+    Object run();
+  }
+
+  /**
+   * Runs `task` on the config executor and settles `promise` with its result.
+   */
+  private void runConfigTask(final String name, final String errorCode, final Promise promise, final ConfigTask task) {
     try {
-      mBeaconManager.disableForegroundServiceScanning();
-      resolve.invoke();
-    } catch (Exception e) {
-      reject.invoke(e.getMessage());
+      mConfigExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            promise.resolve(task.run());
+          } catch (Exception e) {
+            Log.e(LOG_TAG, name + ", error: ", e);
+            reject(promise, errorCode, e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // called while the catalyst instance is being destroyed
+      promise.reject(errorCode, name + " called after the module was destroyed", e);
+    }
+  }
+
+  /**
+   * Rejects with ERROR_INVALID_CONFIG when the arguments were invalid (malformed uuid or layout,
+   * missing key...), with `errorCode` otherwise.
+   */
+  private static void reject(Promise promise, String errorCode, Exception e) {
+    boolean invalidConfig = e instanceof IllegalArgumentException || e instanceof JSApplicationCausedNativeException;
+    promise.reject(invalidConfig ? ERROR_INVALID_CONFIG : errorCode, e.getMessage(), e);
+  }
+
+  private static List<String> toStringList(ReadableArray array) {
+    List<String> list = new ArrayList<>(array.size());
+    for (int i = 0; i < array.size(); i++) {
+      list.add(array.getString(i));
+    }
+    return list;
+  }
+
+  private static WritableArray createStringArray(List<String> list) {
+    WritableArray array = new WritableNativeArray();
+    for (String value : list) {
+      array.pushString(value);
     }
+    return array;
   }
 }
@@ -0,0 +1,35 @@
+package com.mackentoch.beaconsandroid;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.HeadlessJsTaskService;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.jstasks.HeadlessJsTaskConfig;
+
+/**
+ * Runs the `BeaconsRegionTransitions` headless JS task with the region transitions batched by
+ * HeadlessTaskScheduler while no JS instance was active.
+ */
+public class BeaconsHeadlessTaskService extends HeadlessJsTaskService {
+  static final String EXTRA_DATA = "data";
+  static final String EXTRA_TIMEOUT_MS = "timeoutMs";
+
+  @Override
+  @Nullable
+  protected HeadlessJsTaskConfig getTaskConfig(Intent intent) {
+    Bundle data = intent.getBundleExtra(EXTRA_DATA);
+    if (data == null) {
+      return null;
+    }
+    return new HeadlessJsTaskConfig(
+      HeadlessTaskScheduler.TASK_NAME,
+      Arguments.fromBundle(data),
+      intent.getLongExtra(EXTRA_TIMEOUT_MS, HeadlessTaskScheduler.DEFAULT_TIMEOUT_MS),
+      // only started without an active JS instance, the app may come to the foreground meanwhile
+      true
+    );
+  }
+}
@@ -0,0 +1,49 @@
+package com.mackentoch.beaconsandroid;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Restores BackgroundMonitor when the process starts, before any JS instance: a process
+ * restarted by the scanning service gets its notifiers back, and keeps journaling and running
+ * the headless task. Provides no content.
+ */
+public class BeaconsInitProvider extends ContentProvider {
+  @Override
+  public boolean onCreate() {
+    BackgroundMonitor.restore(getContext());
+    return true;
+  }
+
+  @Nullable
+  @Override
+  public Cursor query(Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public String getType(Uri uri) {
+    return null;
+  }
+
+  @Nullable
+  @Override
+  public Uri insert(Uri uri, @Nullable ContentValues values) {
+    return null;
+  }
+
+  @Override
+  public int delete(Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+    return 0;
+  }
+
+  @Override
+  public int update(Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+    return 0;
+  }
+}
@@ -0,0 +1,227 @@
+package com.mackentoch.beaconsandroid;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Single consumer queue running the marshalling and emission of events on a dedicated worker,
+ * so that building payloads never delays the thread AltBeacon delivers its callbacks on.
+ *
+ * When the queue is full, the backpressure policy decides what happens to a new task:
+ * - POLICY_DROP_OLDEST: the oldest queued task is dropped
+ * - POLICY_COALESCE: the last queued task with the same key (e.g. the ranging of a region) is
+ *   replaced, keyless tasks or new keys fall back to dropping the oldest task
+ * - POLICY_BLOCK: the producer waits, up to MAX_BLOCK_MS, for the worker to make room, then
+ *   drops the oldest task. The main thread never waits: it always drops the oldest task.
+ *
+ * shutdown() stops the worker for good, tasks dispatched afterwards are dropped.
+ */
+class EventDispatcher {
+  private static final String LOG_TAG = "BeaconsEventDispatcher";
+  static final int POLICY_DROP_OLDEST = 0;
+  static final int POLICY_COALESCE = 1;
+  static final int POLICY_BLOCK = 2;
+  static final int DEFAULT_CAPACITY = 64;
+  static final long MAX_BLOCK_MS = 100;
+
+  private static final class Task {
+    @Nullable final String key;
+    Runnable runnable;
+    long enqueueTime;
+
+    Task(@Nullable String key, Runnable runnable, long enqueueTime) {
+      this.key = key;
+      this.runnable = runnable;
+      this.enqueueTime = enqueueTime;
+    }
+  }
+
+  static final class Stats {
+    int depth;
+    int capacity;
+    int policy;
+    long dispatched;
+    long dropped;
+    long coalesced;
+    long lastLatencyMs;
+    long maxLatencyMs;
+    double avgLatencyMs;
+  }
+
+  private final ArrayDeque<Task> mQueue = new ArrayDeque<>();
+  private final HashMap<String, Task> mQueuedByKey = new HashMap<>();
+  private int mCapacity = DEFAULT_CAPACITY;
+  private int mPolicy = POLICY_COALESCE;
+  private long mDispatched;
+  private long mDropped;
+  private long mCoalesced;
+  private long mLastLatencyMs;
+  private long mMaxLatencyMs;
+  private double mAvgLatencyMs;
+  private boolean mShutdown;
+  private final Thread mWorker;
+
+  EventDispatcher() {
+    mWorker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runWorker();
+      }
+    }, LOG_TAG);
+    mWorker.setDaemon(true);
+    mWorker.start();
+  }
+
+  synchronized void configure(int policy, int capacity) {
+    mPolicy = policy;
+    mCapacity = Math.max(1, capacity);
+    while (mQueue.size() > mCapacity) {
+      dropOldest();
+    }
+    notifyAll();
+  }
+
+  /**
+   * @param key tasks sharing a key may be coalesced, null if the task must not be replaced
+   */
+  synchronized void dispatch(@Nullable String key, Runnable runnable) {
+    if (mShutdown) {
+      mDropped++;
+      return;
+    }
+    long now = SystemClock.elapsedRealtime();
+    if (mQueue.size() >= mCapacity) {
+      // only when full: a replaced task loses its samples (e.g. a ranging cycle)
+      if (mPolicy == POLICY_COALESCE && key != null) {
+        Task queued = mQueuedByKey.get(key);
+        if (queued != null) {
+          queued.runnable = runnable;
+          queued.enqueueTime = now;
+          mCoalesced++;
+          return;
+        }
+      }
+      if (mPolicy == POLICY_BLOCK && !isMainThread()) {
+        long deadline = System.nanoTime() + MAX_BLOCK_MS * 1000000;
+        long remaining;
+        while (mQueue.size() >= mCapacity && !mShutdown
+          && (remaining = (deadline - System.nanoTime()) / 1000000) > 0) {
+          try {
+            wait(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mDropped++;
+            return;
+          }
+        }
+        if (mShutdown) {
+          mDropped++;
+          return;
+        }
+      }
+      if (mQueue.size() >= mCapacity) {
+        dropOldest();
+      }
+    }
+
+    Task task = new Task(key, runnable, now);
+    mQueue.addLast(task);
+    if (key != null) {
+      mQueuedByKey.put(key, task);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Stops the worker once the running task (if any) returns, the queued tasks are dropped.
+   */
+  synchronized void shutdown() {
+    if (mShutdown) {
+      return;
+    }
+    mShutdown = true;
+    mDropped += mQueue.size();
+    mQueue.clear();
+    mQueuedByKey.clear();
+    notifyAll();
+    mWorker.interrupt();
+  }
+
+  synchronized Stats getStats() {
+    Stats stats = new Stats();
+    stats.depth = mQueue.size();
+    stats.capacity = mCapacity;
+    stats.policy = mPolicy;
+    stats.dispatched = mDispatched;
+    stats.dropped = mDropped;
+    stats.coalesced = mCoalesced;
+    stats.lastLatencyMs = mLastLatencyMs;
+    stats.maxLatencyMs = mMaxLatencyMs;
+    stats.avgLatencyMs = mAvgLatencyMs;
+    return stats;
+  }
+
+  private static boolean isMainThread() {
+    Looper mainLooper = Looper.getMainLooper();
+    return mainLooper != null && mainLooper.getThread() == Thread.currentThread();
+  }
+
+  private void dropOldest() {
+    Task dropped = mQueue.pollFirst();
+    if (dropped != null) {
+      removeKey(dropped);
+      mDropped++;
+    }
+  }
+
+  private void removeKey(Task task) {
+    if (task.key != null && mQueuedByKey.get(task.key) == task) {
+      mQueuedByKey.remove(task.key);
+    }
+  }
+
+  private void runWorker() {
+    while (true) {
+      Runnable runnable;
+      long enqueueTime;
+      synchronized (this) {
+        while (mQueue.isEmpty()) {
+          if (mShutdown) {
+            return;
+          }
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        Task task = mQueue.pollFirst();
+        removeKey(task);
+        runnable = task.runnable;
+        enqueueTime = task.enqueueTime;
+        // room was made for blocked producers
+        notifyAll();
+      }
+
+      try {
+        runnable.run();
+      } catch (RuntimeException e) {
+        Log.e(LOG_TAG, "dispatch, error: ", e);
+      }
+
+      long latency = SystemClock.elapsedRealtime() - enqueueTime;
+      synchronized (this) {
+        mDispatched++;
+        mLastLatencyMs = latency;
+        mMaxLatencyMs = Math.max(mMaxLatencyMs, latency);
+        mAvgLatencyMs = mDispatched == 1 ? latency : mAvgLatencyMs * 0.9 + latency * 0.1;
+      }
+    }
+  }
+}
@@ -0,0 +1,307 @@
+package com.mackentoch.beaconsandroid;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Bounded on-disk journal of the events emitted while no JS instance is active (cold start,
+ * JS reload, headless foreground service scanning), replayed in bulk once JS is attached.
+ * There is one journal per process, owned by BackgroundMonitor.
+ *
+ * Records are appended to segment files through a buffered stream, on a dedicated thread so
+ * the scan thread never waits on disk. Oldest segments are dropped beyond the size cap, and
+ * segments and records older than the max age are dropped on rotation and on replay.
+ *
+ * Record layout: long timestamp, UTF event name, int length + UTF-8 JSON body ("null" without body).
+ */
+class EventJournal {
+  private static final String LOG_TAG = "BeaconsEventJournal";
+  private static final String DIRECTORY_NAME = "beacons-event-journal";
+  private static final String SEGMENT_SUFFIX = ".journal";
+  static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+  static final long DEFAULT_MAX_AGE_MS = 24 * 60 * 60 * 1000;
+  private static final int SEGMENTS_PER_JOURNAL = 4;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  static final class Record {
+    final long timestamp;
+    final String eventName;
+    final String body;
+
+    Record(long timestamp, String eventName, String body) {
+      this.timestamp = timestamp;
+      this.eventName = eventName;
+      this.body = body;
+    }
+  }
+
+  /**
+   * Builds the params of an event on the journal thread, off the thread of the callback.
+   */
+  interface ParamsBuilder {
+    @Nullable
+    ReadableMap build();
+  }
+
+  interface ReplayCallback {
+    void onReplay(List<Record> records);
+
+    void onError(Exception e);
+  }
+
+  private final File mDirectory;
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private volatile long mMaxBytes = DEFAULT_MAX_BYTES;
+  private volatile long mMaxAgeMs = DEFAULT_MAX_AGE_MS;
+  // only touched from the executor thread
+  private DataOutputStream mOutput;
+  private File mSegment;
+
+  EventJournal(File filesDir) {
+    mDirectory = new File(filesDir, DIRECTORY_NAME);
+  }
+
+  void configure(long maxBytes, long maxAgeMs) {
+    mMaxBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES;
+    mMaxAgeMs = maxAgeMs > 0 ? maxAgeMs : DEFAULT_MAX_AGE_MS;
+  }
+
+  void append(String eventName, @Nullable final ReadableMap params) {
+    append(eventName, new ParamsBuilder() {
+      @Override
+      public ReadableMap build() {
+        return params;
+      }
+    });
+  }
+
+  void append(final String eventName, final ParamsBuilder paramsBuilder) {
+    final long timestamp = System.currentTimeMillis();
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ReadableMap params = paramsBuilder.build();
+          String body = params != null ? toJson(params).toString() : "null";
+          DataOutputStream output = getOutput();
+          output.writeLong(timestamp);
+          output.writeUTF(eventName);
+          byte[] bytes = body.getBytes(UTF_8);
+          output.writeInt(bytes.length);
+          output.write(bytes);
+          output.flush();
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "append, error: ", e);
+          closeOutput();
+        } catch (JSONException e) {
+          Log.e(LOG_TAG, "append, error: ", e);
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads every journaled record (oldest first) then deletes the journal.
+   */
+  void replay(final ReplayCallback callback) {
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        closeOutput();
+        List<Record> records = new ArrayList<>();
+        long minTimestamp = System.currentTimeMillis() - mMaxAgeMs;
+        try {
+          for (File segment : listSegments()) {
+            readSegment(segment, minTimestamp, records);
+          }
+        } catch (IOException e) {
+          callback.onError(e);
+          return;
+        }
+        for (File segment : listSegments()) {
+          segment.delete();
+        }
+        callback.onReplay(records);
+      }
+    });
+  }
+
+  void clear() {
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        closeOutput();
+        for (File segment : listSegments()) {
+          segment.delete();
+        }
+      }
+    });
+  }
+
+  /**
+   * Converts every nested map and array: the toHashMap() of JavaOnlyMap keeps them as is.
+   */
+  private static JSONObject toJson(ReadableMap map) throws JSONException {
+    JSONObject json = new JSONObject();
+    ReadableMapKeySetIterator iterator = map.keySetIterator();
+    while (iterator.hasNextKey()) {
+      String key = iterator.nextKey();
+      switch (map.getType(key)) {
+        case Boolean:
+          json.put(key, map.getBoolean(key));
+          break;
+        case Number:
+          json.put(key, map.getDouble(key));
+          break;
+        case String:
+          json.put(key, map.getString(key));
+          break;
+        case Map:
+          json.put(key, toJson(map.getMap(key)));
+          break;
+        case Array:
+          json.put(key, toJson(map.getArray(key)));
+          break;
+        default:
+          json.put(key, JSONObject.NULL);
+          break;
+      }
+    }
+    return json;
+  }
+
+  private static JSONArray toJson(ReadableArray array) throws JSONException {
+    JSONArray json = new JSONArray();
+    for (int i = 0; i < array.size(); i++) {
+      switch (array.getType(i)) {
+        case Boolean:
+          json.put(array.getBoolean(i));
+          break;
+        case Number:
+          json.put(array.getDouble(i));
+          break;
+        case String:
+          json.put(array.getString(i));
+          break;
+        case Map:
+          json.put(toJson(array.getMap(i)));
+          break;
+        case Array:
+          json.put(toJson(array.getArray(i)));
+          break;
+        default:
+          json.put(JSONObject.NULL);
+          break;
+      }
+    }
+    return json;
+  }
+
+  private DataOutputStream getOutput() throws IOException {
+    long segmentMaxBytes = mMaxBytes / SEGMENTS_PER_JOURNAL;
+    if (mOutput != null && mSegment.length() < segmentMaxBytes) {
+      return mOutput;
+    }
+    closeOutput();
+    compact();
+    if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+      throw new IOException("unable to create " + mDirectory);
+    }
+    mSegment = new File(mDirectory, System.currentTimeMillis() + SEGMENT_SUFFIX);
+    mOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mSegment, true)));
+    return mOutput;
+  }
+
+  private void closeOutput() {
+    if (mOutput == null) {
+      return;
+    }
+    try {
+      mOutput.close();
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "closeOutput, error: ", e);
+    }
+    mOutput = null;
+    mSegment = null;
+  }
+
+  /**
+   * Drops the segments older than the max age, then the oldest ones until the journal
+   * leaves room for a new segment under the size cap.
+   */
+  private void compact() {
+    File[] segments = listSegments();
+    long minLastModified = System.currentTimeMillis() - mMaxAgeMs;
+    long totalBytes = 0;
+    for (File segment : segments) {
+      totalBytes += segment.length();
+    }
+    long maxBytes = mMaxBytes - mMaxBytes / SEGMENTS_PER_JOURNAL;
+    for (File segment : segments) {
+      if (segment.lastModified() < minLastModified || totalBytes > maxBytes) {
+        totalBytes -= segment.length();
+        segment.delete();
+      }
+    }
+  }
+
+  private File[] listSegments() {
+    File[] segments = mDirectory.listFiles();
+    if (segments == null) {
+      return new File[0];
+    }
+    // segments are named after their creation time
+    Arrays.sort(segments);
+    return segments;
+  }
+
+  private static void readSegment(File segment, long minTimestamp, List<Record> records) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(segment)));
+    try {
+      while (true) {
+        long timestamp = input.readLong();
+        String eventName = input.readUTF();
+        int length = input.readInt();
+        if (length < 0 || length > segment.length()) {
+          // corrupted record: keep what was read so far
+          break;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        String body = new String(bytes, UTF_8);
+        if (timestamp >= minTimestamp) {
+          records.add(new Record(timestamp, eventName, body));
+        }
+      }
+    } catch (EOFException e) {
+      // end of segment, or a record truncated by the process being killed mid-write
+    } finally {
+      input.close();
+    }
+  }
+}
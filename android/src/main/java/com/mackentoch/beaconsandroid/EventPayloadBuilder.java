@@ -0,0 +1,192 @@
+package com.mackentoch.beaconsandroid;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Region;
+
+import java.util.Collection;
+
+/**
+ * Builds the payloads of the ranging and monitoring events. Only depends on the identity cache
+ * the handles come from and on the PayloadFactory, so it can be run off device.
+ */
+class EventPayloadBuilder {
+  private final BeaconIdentityCache mIdentityCache;
+  private final PayloadFactory mFactory;
+
+  EventPayloadBuilder(BeaconIdentityCache identityCache, PayloadFactory factory) {
+    this.mIdentityCache = identityCache;
+    this.mFactory = factory;
+  }
+
+  WritableMap createMap() {
+    return mFactory.createMap();
+  }
+
+  WritableArray createArray() {
+    return mFactory.createArray();
+  }
+
+  /**
+   * @param useHandles identify the beacons by handle, see BeaconIdentityCache
+   */
+  WritableMap createRangingResponse(Collection<Beacon> beacons, Region region, boolean useHandles) {
+    WritableMap map = mFactory.createMap();
+    map.putString("identifier", region.getUniqueId());
+    map.putString("uuid", mIdentityCache.getUuidString(region.getId1()));
+    WritableArray handleDefinitions = useHandles ? mFactory.createArray() : null;
+    WritableArray a = mFactory.createArray();
+    for (Beacon beacon : beacons) {
+      a.pushMap(createBeaconMap(beacon, handleDefinitions));
+    }
+    map.putArray("beacons", a);
+    if (handleDefinitions != null) {
+      map.putArray("handleDefinitions", handleDefinitions);
+    }
+    return map;
+  }
+
+  WritableMap createRangingSummaryResponse(RangingSummarizer.Summary summary, Region region, boolean useHandles) {
+    WritableMap map = mFactory.createMap();
+    map.putString("identifier", region.getUniqueId());
+    map.putString("uuid", mIdentityCache.getUuidString(region.getId1()));
+    map.putInt("count", summary.count);
+    WritableMap countByMajor = mFactory.createMap();
+    for (int i = 0; i < summary.countByMajor.size(); i++) {
+      countByMajor.putInt(String.valueOf(summary.countByMajor.keyAt(i)), summary.countByMajor.valueAt(i));
+    }
+    map.putMap("countByMajor", countByMajor);
+    map.putInt("minRssi", summary.minRssi);
+    map.putInt("maxRssi", summary.maxRssi);
+    map.putDouble("avgRssi", summary.avgRssi);
+    WritableArray handleDefinitions = useHandles ? mFactory.createArray() : null;
+    WritableArray nearest = mFactory.createArray();
+    for (Beacon beacon : summary.nearest) {
+      nearest.pushMap(createBeaconMap(beacon, handleDefinitions));
+    }
+    map.putArray("nearest", nearest);
+    if (handleDefinitions != null) {
+      map.putArray("handleDefinitions", handleDefinitions);
+    }
+    return map;
+  }
+
+  WritableMap createRangingDeltaResponse(RangingDeltaTracker.Delta delta, Region region, boolean useHandles) {
+    WritableMap map = mFactory.createMap();
+    map.putString("identifier", region.getUniqueId());
+    map.putString("uuid", mIdentityCache.getUuidString(region.getId1()));
+    WritableArray handleDefinitions = useHandles ? mFactory.createArray() : null;
+    WritableArray added = mFactory.createArray();
+    for (Beacon beacon : delta.added) {
+      added.pushMap(createBeaconMap(beacon, handleDefinitions));
+    }
+    WritableArray updated = mFactory.createArray();
+    for (Beacon beacon : delta.updated) {
+      updated.pushMap(createBeaconMap(beacon, handleDefinitions));
+    }
+    WritableArray removed = mFactory.createArray();
+    for (BeaconIdentityCache.BeaconIdentity identity : delta.removed) {
+      removed.pushMap(createBeaconIdentityMap(identity, handleDefinitions));
+    }
+    map.putArray("added", added);
+    map.putArray("updated", updated);
+    map.putArray("removed", removed);
+    if (handleDefinitions != null) {
+      map.putArray("handleDefinitions", handleDefinitions);
+    }
+    return map;
+  }
+
+  WritableMap createMonitoringResponse(Region region) {
+    WritableMap map = mFactory.createMap();
+    map.putString("identifier", region.getUniqueId());
+    map.putString("uuid", region.getId1() != null ? region.getId1().toString() : "");
+    map.putInt("major", region.getId2() != null ? region.getId2().toInt() : 0);
+    map.putInt("minor", region.getId3() != null ? region.getId3().toInt() : 0);
+    return map;
+  }
+
+  /**
+   * @param fields EventSubscriptions.FIELD_* flags of the keys to put
+   */
+  WritableMap createProjectedBeaconMap(Beacon beacon, int fields) {
+    WritableMap b = (fields & EventSubscriptions.FIELD_IDENTIFIERS) != 0
+      ? createHandleDefinition(mIdentityCache.get(beacon))
+      : mFactory.createMap();
+    if ((fields & EventSubscriptions.FIELD_RSSI) != 0) {
+      b.putInt("rssi", beacon.getRssi());
+    }
+    if ((fields & (EventSubscriptions.FIELD_DISTANCE | EventSubscriptions.FIELD_PROXIMITY)) != 0) {
+      double distance = getSafeDistance(beacon);
+      if ((fields & EventSubscriptions.FIELD_DISTANCE) != 0) {
+        b.putDouble("distance", distance);
+      }
+      if ((fields & EventSubscriptions.FIELD_PROXIMITY) != 0) {
+        b.putString("proximity", getProximity(distance));
+      }
+    }
+    return b;
+  }
+
+  WritableMap createHandleDefinition(BeaconIdentityCache.BeaconIdentity identity) {
+    WritableMap b = mFactory.createMap();
+    b.putInt("handle", identity.handle);
+    b.putString("uuid", identity.uuid);
+    if (identity.hasMajorMinor) {
+      b.putInt("major", identity.major);
+      b.putInt("minor", identity.minor);
+    }
+    return b;
+  }
+
+  /**
+   * @param handleDefinitions when not null, the beacon is identified by its handle, which is
+   *                          defined in this array if it was not sent to JS yet
+   */
+  private WritableMap createBeaconIdentityMap(BeaconIdentityCache.BeaconIdentity identity, @Nullable WritableArray handleDefinitions) {
+    // an evicted identity may have lost its handle to another beacon: fall back to identifiers
+    if (handleDefinitions != null && mIdentityCache.isRegistered(identity)) {
+      WritableMap b = mFactory.createMap();
+      b.putInt("handle", identity.handle);
+      if (mIdentityCache.announce(identity)) {
+        handleDefinitions.pushMap(createHandleDefinition(identity));
+      }
+      return b;
+    }
+    return createHandleDefinition(identity);
+  }
+
+  private WritableMap createBeaconMap(Beacon beacon, @Nullable WritableArray handleDefinitions) {
+    WritableMap b = createBeaconIdentityMap(mIdentityCache.get(beacon), handleDefinitions);
+    // getDistance() is read once: it is recomputed from the running average on every call
+    double distance = getSafeDistance(beacon);
+    b.putInt("rssi", beacon.getRssi());
+    b.putDouble("distance", distance);
+    b.putString("proximity", getProximity(distance));
+    return b;
+  }
+
+  static double getSafeDistance(Beacon beacon) {
+    double distance = beacon.getDistance();
+    if (Double.isNaN(distance) || Double.isInfinite(distance)) {
+      return 999.0;
+    }
+    return distance;
+  }
+
+  static String getProximity(double distance) {
+    if (distance == -1.0) {
+      return "unknown";
+    } else if (distance < 1) {
+      return "immediate";
+    } else if (distance < 3) {
+      return "near";
+    } else {
+      return "far";
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.mackentoch.beaconsandroid;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Region;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Subscriptions of JS consumers to a filtered part of the ranging or monitoring events, each
+ * emitted under its own event name (`beaconsSubscription:<id>`), so that a screen only
+ * receives, and the bridge only serializes, the beacons it asked for.
+ *
+ * The subscription list is copy-on-write: the event worker iterates it without locking while
+ * JS subscribes and unsubscribes.
+ */
+class EventSubscriptions {
+  static final String EVENT_PREFIX = "beaconsSubscription:";
+  static final int TYPE_RANGING = 0;
+  static final int TYPE_MONITORING = 1;
+  static final int FIELD_IDENTIFIERS = 1;
+  static final int FIELD_RSSI = 1 << 1;
+  static final int FIELD_DISTANCE = 1 << 2;
+  static final int FIELD_PROXIMITY = 1 << 3;
+  static final int ALL_FIELDS = FIELD_IDENTIFIERS | FIELD_RSSI | FIELD_DISTANCE | FIELD_PROXIMITY;
+
+  static final class Subscription {
+    final int id;
+    final String eventName;
+    final int type;
+    // null for every region
+    @Nullable final Set<String> regionIds;
+    final int minRssi;
+    final double maxDistance;
+    final int fields;
+    final long minIntervalMs;
+    // region id -> last emission, only touched from the event worker
+    private final HashMap<String, Long> mLastEmitTimes = new HashMap<>();
+
+    Subscription(int id, int type, @Nullable Set<String> regionIds, int minRssi, double maxDistance, int fields, long minIntervalMs) {
+      this.id = id;
+      this.eventName = EVENT_PREFIX + id;
+      this.type = type;
+      this.regionIds = regionIds;
+      this.minRssi = minRssi;
+      this.maxDistance = maxDistance;
+      this.fields = fields;
+      this.minIntervalMs = Math.max(0, minIntervalMs);
+    }
+
+    boolean matches(Region region) {
+      return regionIds == null || regionIds.contains(region.getUniqueId());
+    }
+
+    /**
+     * @return the beacons of this ranging cycle passing the filters, null when the cycle is
+     * skipped because of the emit rate
+     */
+    @Nullable
+    List<Beacon> filter(Collection<Beacon> beacons, Region region) {
+      if (minIntervalMs > 0) {
+        long now = SystemClock.elapsedRealtime();
+        Long last = mLastEmitTimes.get(region.getUniqueId());
+        if (last != null && now - last < minIntervalMs) {
+          return null;
+        }
+        mLastEmitTimes.put(region.getUniqueId(), now);
+      }
+      List<Beacon> filtered = new ArrayList<>(beacons.size());
+      for (Beacon beacon : beacons) {
+        if (beacon.getRssi() < minRssi) {
+          continue;
+        }
+        if (maxDistance > 0 && EventPayloadBuilder.getSafeDistance(beacon) > maxDistance) {
+          continue;
+        }
+        filtered.add(beacon);
+      }
+      return filtered;
+    }
+  }
+
+  private volatile List<Subscription> mSubscriptions = Collections.emptyList();
+  private int mNextId = 1;
+
+  synchronized Subscription add(int type, @Nullable Set<String> regionIds, int minRssi, double maxDistance, int fields, long minIntervalMs) {
+    Subscription subscription = new Subscription(mNextId++, type, regionIds, minRssi, maxDistance, fields, minIntervalMs);
+    List<Subscription> subscriptions = new ArrayList<>(mSubscriptions);
+    subscriptions.add(subscription);
+    mSubscriptions = Collections.unmodifiableList(subscriptions);
+    return subscription;
+  }
+
+  /**
+   * @return true if the subscription existed
+   */
+  synchronized boolean remove(int id) {
+    List<Subscription> subscriptions = new ArrayList<>(mSubscriptions);
+    for (int i = 0; i < subscriptions.size(); i++) {
+      if (subscriptions.get(i).id == id) {
+        subscriptions.remove(i);
+        mSubscriptions = Collections.unmodifiableList(subscriptions);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  synchronized void clear() {
+    mSubscriptions = Collections.emptyList();
+  }
+
+  /**
+   * @return the subscriptions of this type to this region, empty if none
+   */
+  List<Subscription> get(int type, Region region) {
+    List<Subscription> subscriptions = mSubscriptions;
+    List<Subscription> matching = null;
+    for (int i = 0; i < subscriptions.size(); i++) {
+      Subscription subscription = subscriptions.get(i);
+      if (subscription.type == type && subscription.matches(region)) {
+        if (matching == null) {
+          matching = new ArrayList<>(1);
+        }
+        matching.add(subscription);
+      }
+    }
+    return matching != null ? matching : Collections.<Subscription>emptyList();
+  }
+
+  static int parseField(String field) {
+    switch (field) {
+      case "identifiers":
+        return FIELD_IDENTIFIERS;
+      case "rssi":
+        return FIELD_RSSI;
+      case "distance":
+        return FIELD_DISTANCE;
+      case "proximity":
+        return FIELD_PROXIMITY;
+      default:
+        throw new IllegalArgumentException("unknown field: " + field);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package com.mackentoch.beaconsandroid;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.facebook.react.HeadlessJsTaskService;
+
+import org.altbeacon.beacon.Region;
+
+import java.util.ArrayList;
+
+/**
+ * Batches the region transitions happening while no JS instance is active (foreground service
+ * scanning after the app was closed) into a single start of BeaconsHeadlessTaskService. Owned
+ * by BackgroundMonitor; a batch due once a JS instance became active is dropped.
+ *
+ * A transition schedules the task `batchWindowMs` later, so that a burst of transitions wakes
+ * JS once, and tasks are started at most once every `minIntervalMs`: the transitions happening
+ * meanwhile wait for the next task. Past MAX_PENDING transitions, the oldest are dropped and
+ * counted in `dropped`.
+ */
+class HeadlessTaskScheduler {
+  private static final String LOG_TAG = "BeaconsHeadlessTask";
+  static final String TASK_NAME = "BeaconsRegionTransitions";
+  static final long DEFAULT_BATCH_WINDOW_MS = 1000;
+  static final long DEFAULT_MIN_INTERVAL_MS = 10000;
+  static final long DEFAULT_TIMEOUT_MS = 30000;
+  static final int MAX_PENDING = 100;
+
+  interface JsInstanceState {
+    boolean isJsInstanceActive();
+  }
+
+  private final Context mContext;
+  private final JsInstanceState mJsInstanceState;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private volatile long mBatchWindowMs = DEFAULT_BATCH_WINDOW_MS;
+  private volatile long mMinIntervalMs = DEFAULT_MIN_INTERVAL_MS;
+  private volatile long mTimeoutMs = DEFAULT_TIMEOUT_MS;
+  // guarded by this
+  private ArrayList<Bundle> mPending = new ArrayList<>();
+  private int mDropped;
+  private boolean mScheduled;
+  private long mLastStartMs = Long.MIN_VALUE / 2;
+
+  private final Runnable mStartRunnable = new Runnable() {
+    @Override
+    public void run() {
+      ArrayList<Bundle> transitions;
+      int dropped;
+      synchronized (HeadlessTaskScheduler.this) {
+        transitions = mPending;
+        dropped = mDropped;
+        mPending = new ArrayList<>();
+        mDropped = 0;
+        mScheduled = false;
+        mLastStartMs = SystemClock.elapsedRealtime();
+      }
+      if (transitions.isEmpty()) {
+        return;
+      }
+      if (mJsInstanceState.isJsInstanceActive()) {
+        Log.d(LOG_TAG, "start, skipped: a JS instance is active, transitions: " + transitions.size());
+        return;
+      }
+      start(transitions, dropped);
+    }
+  };
+
+  HeadlessTaskScheduler(Context context, JsInstanceState jsInstanceState) {
+    mContext = context;
+    mJsInstanceState = jsInstanceState;
+  }
+
+  void configure(long batchWindowMs, long minIntervalMs, long timeoutMs) {
+    mBatchWindowMs = Math.max(0, batchWindowMs);
+    mMinIntervalMs = Math.max(0, minIntervalMs);
+    mTimeoutMs = timeoutMs > 0 ? timeoutMs : DEFAULT_TIMEOUT_MS;
+  }
+
+  /**
+   * @param event "enter" or "exit"
+   */
+  synchronized void add(Region region, String event) {
+    if (mPending.size() >= MAX_PENDING) {
+      mPending.remove(0);
+      mDropped++;
+    }
+    Bundle transition = new Bundle();
+    transition.putString("event", event);
+    transition.putString("identifier", region.getUniqueId());
+    transition.putString("uuid", region.getId1() != null ? region.getId1().toString() : "");
+    transition.putInt("major", region.getId2() != null ? region.getId2().toInt() : 0);
+    transition.putInt("minor", region.getId3() != null ? region.getId3().toInt() : 0);
+    transition.putDouble("timestamp", System.currentTimeMillis());
+    mPending.add(transition);
+    if (!mScheduled) {
+      mScheduled = true;
+      long nextStartMs = mLastStartMs + mMinIntervalMs - SystemClock.elapsedRealtime();
+      mHandler.postDelayed(mStartRunnable, Math.max(mBatchWindowMs, nextStartMs));
+    }
+  }
+
+  synchronized void clear() {
+    mHandler.removeCallbacks(mStartRunnable);
+    mPending = new ArrayList<>();
+    mDropped = 0;
+    mScheduled = false;
+  }
+
+  private void start(ArrayList<Bundle> transitions, int dropped) {
+    Bundle data = new Bundle();
+    data.putParcelableArrayList("transitions", transitions);
+    data.putInt("dropped", dropped);
+    Intent intent = new Intent(mContext, BeaconsHeadlessTaskService.class);
+    intent.putExtra(BeaconsHeadlessTaskService.EXTRA_DATA, data);
+    intent.putExtra(BeaconsHeadlessTaskService.EXTRA_TIMEOUT_MS, mTimeoutMs);
+    try {
+      Log.d(LOG_TAG, "start, transitions: " + transitions.size() + ", dropped: " + dropped);
+      // held until the service stops: the device must not sleep before the task starts
+      HeadlessJsTaskService.acquireWakeLockNow(mContext);
+      mContext.startService(intent);
+    } catch (IllegalStateException e) {
+      // background start restrictions (Android 8+), when the foreground service isn't running
+      Log.e(LOG_TAG, "start, error: ", e);
+    }
+  }
+}
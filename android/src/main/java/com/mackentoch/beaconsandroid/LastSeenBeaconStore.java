@@ -0,0 +1,209 @@
+package com.mackentoch.beaconsandroid;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import org.altbeacon.beacon.Beacon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Last rssi, distance and time each beacon was ranged at, by region, so that JS can query the
+ * beacons around without waiting for the next scan cycle.
+ *
+ * Each region holds an immutable array of entries, republished (copy-on-write) by every
+ * ranging callback: a beacon missing from a cycle keeps its last entry until it is older than
+ * `ttlMs`. Writers are serialized, readers only read a volatile reference and never lock.
+ *
+ * Every update also expires the entries of the other regions, so that a region no longer
+ * ranged is dropped after `ttlMs`, and the oldest entries are dropped beyond `maxEntries`.
+ */
+class LastSeenBeaconStore {
+  static final long DEFAULT_TTL_MS = 30000;
+  static final int DEFAULT_MAX_ENTRIES = 4096;
+
+  static final class Entry {
+    final String regionId;
+    final BeaconIdentityCache.BeaconIdentity identity;
+    final int rssi;
+    final double distance;
+    // elapsedRealtime, for ages
+    final long seenAtMs;
+    // currentTimeMillis, for JS
+    final long timestamp;
+
+    Entry(String regionId, BeaconIdentityCache.BeaconIdentity identity, int rssi, double distance, long seenAtMs, long timestamp) {
+      this.regionId = regionId;
+      this.identity = identity;
+      this.rssi = rssi;
+      this.distance = distance;
+      this.seenAtMs = seenAtMs;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private static final Entry[] EMPTY = new Entry[0];
+
+  private final BeaconIdentityCache mIdentityCache;
+  private final int mMaxEntries;
+  // region id -> entries, both immutable once published
+  private volatile Map<String, Entry[]> mRegions = Collections.emptyMap();
+  private volatile long mTtlMs = DEFAULT_TTL_MS;
+
+  LastSeenBeaconStore(BeaconIdentityCache identityCache) {
+    this(identityCache, DEFAULT_MAX_ENTRIES);
+  }
+
+  LastSeenBeaconStore(BeaconIdentityCache identityCache, int maxEntries) {
+    mIdentityCache = identityCache;
+    mMaxEntries = maxEntries;
+  }
+
+  void setTtl(long ttlMs) {
+    mTtlMs = ttlMs > 0 ? ttlMs : DEFAULT_TTL_MS;
+  }
+
+  /**
+   * @param seenAtMs elapsedRealtime() of the ranging callback: the update runs on the event
+   *                 worker, after the events queued before it
+   */
+  void update(String regionId, Collection<Beacon> beacons, long seenAtMs) {
+    update(regionId, beacons, seenAtMs, SystemClock.elapsedRealtime());
+  }
+
+  /**
+   * @param now elapsedRealtime(), the entries older than the ttl are expired
+   */
+  synchronized void update(String regionId, Collection<Beacon> beacons, long seenAtMs, long now) {
+    long timestamp = System.currentTimeMillis() - (now - seenAtMs);
+    long ttlMs = mTtlMs;
+    Entry[] previous = mRegions.get(regionId);
+    HashMap<BeaconIdentityCache.BeaconIdentity, Entry> entries = new HashMap<>();
+    if (previous != null) {
+      for (Entry entry : previous) {
+        // an evicted identity is replaced by a new one when its beacon is seen again
+        if (now - entry.seenAtMs <= ttlMs && mIdentityCache.isRegistered(entry.identity)) {
+          entries.put(entry.identity, entry);
+        }
+      }
+    }
+    for (Beacon beacon : beacons) {
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      entries.put(identity, new Entry(regionId, identity, beacon.getRssi(), EventPayloadBuilder.getSafeDistance(beacon), seenAtMs, timestamp));
+    }
+    Map<String, Entry[]> regions = new HashMap<>();
+    int count = entries.size();
+    for (Map.Entry<String, Entry[]> region : mRegions.entrySet()) {
+      if (region.getKey().equals(regionId)) {
+        continue;
+      }
+      Entry[] recent = getRecent(region.getValue(), now, ttlMs, Long.MIN_VALUE);
+      if (recent.length > 0) {
+        regions.put(region.getKey(), recent);
+        count += recent.length;
+      }
+    }
+    if (!entries.isEmpty()) {
+      regions.put(regionId, entries.values().toArray(EMPTY));
+    }
+    if (count > mMaxEntries) {
+      trim(regions, count, count - mMaxEntries, seenAtMs, now, ttlMs);
+    }
+    mRegions = Collections.unmodifiableMap(regions);
+  }
+
+  /**
+   * Drops the entries of a region, e.g. when it is no longer ranged.
+   */
+  synchronized void remove(String regionId) {
+    if (!mRegions.containsKey(regionId)) {
+      return;
+    }
+    Map<String, Entry[]> regions = new HashMap<>(mRegions);
+    regions.remove(regionId);
+    mRegions = Collections.unmodifiableMap(regions);
+  }
+
+  /**
+   * @param regionId null for every region
+   * @param maxAgeMs 0 or less for any entry within the ttl
+   * @return the entries seen within `maxAgeMs`, without locking
+   */
+  List<Entry> get(@Nullable String regionId, long maxAgeMs) {
+    Map<String, Entry[]> regions = mRegions;
+    long maxAge = maxAgeMs > 0 ? Math.min(maxAgeMs, mTtlMs) : mTtlMs;
+    long now = SystemClock.elapsedRealtime();
+    List<Entry> result = new ArrayList<>();
+    if (regionId != null) {
+      addRecent(regions.get(regionId), now, maxAge, result);
+    } else {
+      for (Entry[] entries : regions.values()) {
+        addRecent(entries, now, maxAge, result);
+      }
+    }
+    return result;
+  }
+
+  synchronized void clear() {
+    mRegions = Collections.emptyMap();
+  }
+
+  /**
+   * Drops the `excess` oldest entries, and the ones seen at the same time as the last of them,
+   * but never the ones of the cycle seen at `seenAtMs`.
+   */
+  private static void trim(Map<String, Entry[]> regions, int count, int excess, long seenAtMs, long now, long ttlMs) {
+    long[] seenTimes = new long[count];
+    int i = 0;
+    for (Entry[] entries : regions.values()) {
+      for (Entry entry : entries) {
+        seenTimes[i++] = entry.seenAtMs;
+      }
+    }
+    Arrays.sort(seenTimes);
+    long lastDropped = Math.min(seenTimes[excess - 1], seenAtMs - 1);
+    Iterator<Map.Entry<String, Entry[]>> iterator = regions.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Entry[]> region = iterator.next();
+      Entry[] recent = getRecent(region.getValue(), now, ttlMs, lastDropped);
+      if (recent.length > 0) {
+        region.setValue(recent);
+      } else {
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * @return the entries within the ttl and seen after `seenAfterMs`, `entries` itself when
+   * they all are
+   */
+  private static Entry[] getRecent(Entry[] entries, long now, long ttlMs, long seenAfterMs) {
+    List<Entry> recent = new ArrayList<>(entries.length);
+    for (Entry entry : entries) {
+      if (now - entry.seenAtMs <= ttlMs && entry.seenAtMs > seenAfterMs) {
+        recent.add(entry);
+      }
+    }
+    return recent.size() == entries.length ? entries : recent.toArray(EMPTY);
+  }
+
+  private static void addRecent(@Nullable Entry[] entries, long now, long maxAgeMs, List<Entry> result) {
+    if (entries == null) {
+      return;
+    }
+    for (Entry entry : entries) {
+      if (now - entry.seenAtMs <= maxAgeMs) {
+        result.add(entry);
+      }
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.mackentoch.beaconsandroid;
+
+import android.util.Base64;
+
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Region;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Encodes a ranging cycle as parallel primitive arrays (or as a single base64 packed buffer)
+ * instead of one map per beacon. Uuids are interned in a dictionary which is only sent to JS
+ * when it changed since the last encoded payload.
+ *
+ * Packed buffer layout, little endian, {@link #BYTES_PER_BEACON} bytes per beacon:
+ * uint16 uuid index, int16 rssi, int32 major (-1 if absent), int32 minor (-1 if absent), float32 distance
+ */
+class PackedRangingEncoder {
+  static final int ENCODING_COLUMNS = 0;
+  static final int ENCODING_BASE64 = 1;
+  static final int BYTES_PER_BEACON = 16;
+  private static final int MAX_DICTIONARY_SIZE = 0xFFFF;
+
+  private final BeaconIdentityCache mIdentityCache;
+  private final PayloadFactory mFactory;
+  private final HashMap<String, Integer> mUuidIndexes = new HashMap<>();
+  private final ArrayList<String> mUuids = new ArrayList<>();
+  private int mDictionaryVersion = 0;
+  private int mSentDictionaryVersion = -1;
+  private int mEncoding = ENCODING_COLUMNS;
+  private ByteBuffer mBuffer = ByteBuffer.allocate(BYTES_PER_BEACON * 64).order(ByteOrder.LITTLE_ENDIAN);
+
+  PackedRangingEncoder(BeaconIdentityCache identityCache, PayloadFactory factory) {
+    this.mIdentityCache = identityCache;
+    this.mFactory = factory;
+  }
+
+  synchronized void setEncoding(int encoding) {
+    mEncoding = encoding;
+  }
+
+  synchronized WritableMap encode(Collection<Beacon> beacons, Region region) {
+    WritableMap map = mFactory.createMap();
+    map.putString("identifier", region.getUniqueId());
+    map.putString("uuid", mIdentityCache.getUuidString(region.getId1()));
+    map.putInt("count", beacons.size());
+
+    if (mUuids.size() + beacons.size() > MAX_DICTIONARY_SIZE) {
+      // start over before encoding, so all indexes of this payload refer to the same dictionary
+      mUuidIndexes.clear();
+      mUuids.clear();
+      mDictionaryVersion++;
+    }
+
+    if (mEncoding == ENCODING_BASE64) {
+      encodeBuffer(beacons, map);
+    } else {
+      encodeColumns(beacons, map);
+    }
+
+    // the dictionary may have grown while encoding, send it along with the indexes using it
+    map.putInt("dictionaryVersion", mDictionaryVersion);
+    if (mSentDictionaryVersion != mDictionaryVersion) {
+      WritableArray dictionary = mFactory.createArray();
+      for (String uuid : mUuids) {
+        dictionary.pushString(uuid);
+      }
+      map.putArray("dictionary", dictionary);
+      mSentDictionaryVersion = mDictionaryVersion;
+    }
+    return map;
+  }
+
+  private void encodeColumns(Collection<Beacon> beacons, WritableMap map) {
+    WritableArray uuidIndexes = mFactory.createArray();
+    WritableArray majors = mFactory.createArray();
+    WritableArray minors = mFactory.createArray();
+    WritableArray rssis = mFactory.createArray();
+    WritableArray distances = mFactory.createArray();
+    for (Beacon beacon : beacons) {
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      uuidIndexes.pushInt(getUuidIndex(identity.uuid));
+      majors.pushInt(identity.hasMajorMinor ? identity.major : -1);
+      minors.pushInt(identity.hasMajorMinor ? identity.minor : -1);
+      rssis.pushInt(beacon.getRssi());
+      distances.pushDouble(EventPayloadBuilder.getSafeDistance(beacon));
+    }
+    map.putArray("uuidIndex", uuidIndexes);
+    map.putArray("major", majors);
+    map.putArray("minor", minors);
+    map.putArray("rssi", rssis);
+    map.putArray("distance", distances);
+  }
+
+  private void encodeBuffer(Collection<Beacon> beacons, WritableMap map) {
+    int size = beacons.size() * BYTES_PER_BEACON;
+    if (mBuffer.capacity() < size) {
+      mBuffer = ByteBuffer.allocate(Math.max(size, mBuffer.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    mBuffer.clear();
+    for (Beacon beacon : beacons) {
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      mBuffer.putShort((short) getUuidIndex(identity.uuid));
+      mBuffer.putShort((short) beacon.getRssi());
+      mBuffer.putInt(identity.hasMajorMinor ? identity.major : -1);
+      mBuffer.putInt(identity.hasMajorMinor ? identity.minor : -1);
+      mBuffer.putFloat((float) EventPayloadBuilder.getSafeDistance(beacon));
+    }
+    map.putString("buffer", Base64.encodeToString(mBuffer.array(), 0, mBuffer.position(), Base64.NO_WRAP));
+  }
+
+  private int getUuidIndex(String uuid) {
+    Integer index = mUuidIndexes.get(uuid);
+    if (index != null) {
+      return index;
+    }
+    int newIndex = mUuids.size();
+    mUuids.add(uuid);
+    mUuidIndexes.put(uuid, newIndex);
+    mDictionaryVersion++;
+    return newIndex;
+  }
+
+  /**
+   * Forces the dictionary to be sent with the next payload (e.g. after a JS reload).
+   */
+  synchronized void resetSentDictionary() {
+    mSentDictionaryVersion = -1;
+  }
+}
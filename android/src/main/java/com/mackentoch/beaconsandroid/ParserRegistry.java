@@ -0,0 +1,131 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.BeaconParser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of parsed beacon layouts, keyed by layout string: each layout is parsed once and
+ * the same BeaconParser instance is reused, so adding a layout already active is a no-op (a JS
+ * reload no longer stacks duplicate parsers, each of which parses every advertisement) and
+ * removing one doesn't depend on the equality of a newly parsed parser.
+ *
+ * Layouts can also be referred to by preset name (e.g. "eddystone_uid").
+ */
+class ParserRegistry {
+  static final String PRESET_IBEACON = "ibeacon";
+  static final String IBEACON_LAYOUT = "m:0-3=4c000215,i:4-19,i:20-21,i:22-23,p:24-24";
+  private static final Map<String, String> PRESETS = new LinkedHashMap<>();
+
+  static {
+    // same layouts as the PARSER_* constants of the JS module
+    PRESETS.put(PRESET_IBEACON, IBEACON_LAYOUT);
+    PRESETS.put("estimote", "m:2-3=0215,i:4-19,i:20-21,i:22-23,p:24-24");
+    PRESETS.put("altbeacon", "m:2-3=beac,i:4-19,i:20-21,i:22-23,p:24-24,d:25-25");
+    PRESETS.put("eddystone_tlm", "x,s:0-1=feaa,m:2-2=20,d:3-3,d:4-5,d:6-7,d:8-11,d:12-15");
+    PRESETS.put("eddystone_uid", "s:0-1=feaa,m:2-2=00,p:3-3:-41,i:4-13,i:14-19");
+    PRESETS.put("eddystone_url", "s:0-1=feaa,m:2-2=10,p:3-3:-41,i:4-20v");
+  }
+
+  private final HashMap<String, BeaconParser> mParsers = new HashMap<>();
+
+  static Map<String, String> getPresets() {
+    return PRESETS;
+  }
+
+  /**
+   * @param layout a beacon layout or a preset name
+   * @return the parser of this layout, parsed on first use
+   */
+  synchronized BeaconParser get(String layout) {
+    String resolved = resolve(layout);
+    BeaconParser parser = mParsers.get(resolved);
+    if (parser == null) {
+      // throws on invalid layouts, which are then not cached
+      parser = new BeaconParser().setBeaconLayout(resolved);
+      mParsers.put(resolved, parser);
+    }
+    return parser;
+  }
+
+  /**
+   * Adds the parser of this layout to the active parsers unless it is already there.
+   *
+   * @return true if it was added
+   */
+  synchronized boolean add(List<BeaconParser> active, String layout) {
+    BeaconParser parser = get(layout);
+    if (indexOf(active, parser.getLayout()) >= 0) {
+      return false;
+    }
+    active.add(parser);
+    return true;
+  }
+
+  /**
+   * Removes every active parser of this layout.
+   *
+   * @return true if one was removed
+   */
+  synchronized boolean remove(List<BeaconParser> active, String layout) {
+    String resolved = resolve(layout);
+    List<BeaconParser> matching = new ArrayList<>();
+    for (BeaconParser parser : active) {
+      if (resolved.equals(parser.getLayout())) {
+        matching.add(parser);
+      }
+    }
+    return active.removeAll(matching);
+  }
+
+  /**
+   * Makes the active parsers match the layouts: the parsers of layouts no longer wanted and
+   * the duplicates are removed, the missing ones added, the others are left in place.
+   */
+  synchronized void set(List<BeaconParser> active, Collection<String> layouts) {
+    Map<String, BeaconParser> wanted = new LinkedHashMap<>();
+    for (String layout : layouts) {
+      BeaconParser parser = get(layout);
+      wanted.put(parser.getLayout(), parser);
+    }
+    Map<String, BeaconParser> kept = new HashMap<>();
+    for (BeaconParser parser : active) {
+      if (wanted.containsKey(parser.getLayout()) && !kept.containsKey(parser.getLayout())) {
+        kept.put(parser.getLayout(), parser);
+      }
+    }
+    // by index and identity: duplicates are equal to the parser they duplicate
+    for (int i = active.size() - 1; i >= 0; i--) {
+      BeaconParser parser = active.get(i);
+      if (kept.get(parser.getLayout()) != parser) {
+        active.remove(i);
+      }
+    }
+    List<BeaconParser> missing = new ArrayList<>();
+    for (Map.Entry<String, BeaconParser> entry : wanted.entrySet()) {
+      if (!kept.containsKey(entry.getKey())) {
+        missing.add(entry.getValue());
+      }
+    }
+    active.addAll(missing);
+  }
+
+  private static String resolve(String layout) {
+    String preset = PRESETS.get(layout);
+    return preset != null ? preset : layout;
+  }
+
+  private static int indexOf(List<BeaconParser> parsers, String layout) {
+    for (int i = 0; i < parsers.size(); i++) {
+      if (layout.equals(parsers.get(i).getLayout())) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,43 @@
+package com.mackentoch.beaconsandroid;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * Creates the maps and arrays event payloads are built into. The module sends native ones over
+ * the bridge. JAVA_ONLY ones don't need the native bridge library: they are used where no JS
+ * instance may ever have been created (BackgroundMonitor) and by the JVM tests.
+ */
+interface PayloadFactory {
+  PayloadFactory NATIVE = new PayloadFactory() {
+    @Override
+    public WritableMap createMap() {
+      return new WritableNativeMap();
+    }
+
+    @Override
+    public WritableArray createArray() {
+      return new WritableNativeArray();
+    }
+  };
+
+  PayloadFactory JAVA_ONLY = new PayloadFactory() {
+    @Override
+    public WritableMap createMap() {
+      return new JavaOnlyMap();
+    }
+
+    @Override
+    public WritableArray createArray() {
+      return new JavaOnlyArray();
+    }
+  };
+
+  WritableMap createMap();
+
+  WritableArray createArray();
+}
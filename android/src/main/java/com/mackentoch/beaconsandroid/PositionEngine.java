@@ -0,0 +1,271 @@
+package com.mackentoch.beaconsandroid;
+
+import androidx.annotation.Nullable;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Indoor position from the distances to beacons of known coordinates (anchors).
+ *
+ * Ranging cycles only record the last distance to each anchor. A solve picks the floor with
+ * the most weight among the anchors seen within `maxAgeMs`, then minimizes the weighted
+ * squared distance residuals of its anchors with Gauss-Newton, starting from their weighted
+ * centroid. Weights are 1/d^2, the error of a ranged distance growing with the distance.
+ *
+ * The anchor of a beacon is resolved once per beacon identity and cached in arrays indexed by
+ * the handle of the identity, like ProximityTracker.
+ */
+class PositionEngine {
+  static final long DEFAULT_INTERVAL_MS = 1000;
+  static final long DEFAULT_MAX_AGE_MS = 5000;
+  static final int DEFAULT_MIN_ANCHORS = 3;
+  private static final int NOT_AN_ANCHOR = -1;
+  private static final int MAX_ITERATIONS = 10;
+  // meters
+  private static final double CONVERGENCE = 0.001;
+  private static final double MIN_DISTANCE = 0.1;
+
+  static final class Anchor {
+    final Identifier uuid;
+    final int major;
+    final int minor;
+    final double x;
+    final double y;
+    final int floor;
+
+    Anchor(Identifier uuid, int major, int minor, double x, double y, int floor) {
+      this.uuid = uuid;
+      this.major = major;
+      this.minor = minor;
+      this.x = x;
+      this.y = y;
+      this.floor = floor;
+    }
+  }
+
+  static final class Position {
+    double x;
+    double y;
+    int floor;
+    // weighted RMS of the distance residuals, in meters
+    double error;
+    int anchors;
+  }
+
+  private final BeaconIdentityCache mIdentityCache;
+  private final BeaconIdentityCache.BeaconIdentity[] mOwners;
+  private final int[] mAnchorIndexes;
+
+  private final HashMap<String, Integer> mAnchorsByKey = new HashMap<>();
+  private double[] mX = new double[0];
+  private double[] mY = new double[0];
+  private int[] mFloors = new int[0];
+  private double[] mDistances = new double[0];
+  private long[] mSeenTimes = new long[0];
+  private int[] mFresh = new int[0];
+  private long mMaxAgeMs = DEFAULT_MAX_AGE_MS;
+  private int mMinAnchors = DEFAULT_MIN_ANCHORS;
+
+  PositionEngine(BeaconIdentityCache identityCache) {
+    mIdentityCache = identityCache;
+    int capacity = identityCache.getMaxSize();
+    mOwners = new BeaconIdentityCache.BeaconIdentity[capacity];
+    mAnchorIndexes = new int[capacity];
+  }
+
+  /**
+   * Replaces the anchors, the recorded distances are dropped.
+   */
+  synchronized void configure(List<Anchor> anchors, long maxAgeMs, int minAnchors) {
+    HashMap<String, Integer> byKey = new HashMap<>();
+    for (int i = 0; i < anchors.size(); i++) {
+      Anchor anchor = anchors.get(i);
+      if (byKey.put(getKey(anchor.uuid.toString(), anchor.major, anchor.minor), i) != null) {
+        throw new IllegalArgumentException("duplicate anchor: " + anchor.uuid + " " + anchor.major + " " + anchor.minor);
+      }
+    }
+    mAnchorsByKey.clear();
+    mAnchorsByKey.putAll(byKey);
+    int size = anchors.size();
+    mX = new double[size];
+    mY = new double[size];
+    mFloors = new int[size];
+    mDistances = new double[size];
+    mSeenTimes = new long[size];
+    mFresh = new int[size];
+    for (int i = 0; i < size; i++) {
+      Anchor anchor = anchors.get(i);
+      mX[i] = anchor.x;
+      mY[i] = anchor.y;
+      mFloors[i] = anchor.floor;
+    }
+    mMaxAgeMs = maxAgeMs > 0 ? maxAgeMs : DEFAULT_MAX_AGE_MS;
+    mMinAnchors = Math.max(3, minAnchors);
+    Arrays.fill(mOwners, null);
+  }
+
+  /**
+   * Records the distances of the anchors ranged in this cycle.
+   *
+   * @param smoothing the tracker of the smoothed distances, already updated with this cycle,
+   *                  null to use the ranged ones
+   * @param now       elapsedRealtime() of the ranging callback
+   */
+  synchronized void update(Collection<Beacon> beacons, @Nullable ProximityTracker smoothing, long now) {
+    if (mAnchorsByKey.isEmpty()) {
+      return;
+    }
+    for (Beacon beacon : beacons) {
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      int h = identity.handle;
+      if (mOwners[h] != identity) {
+        mOwners[h] = identity;
+        Integer index = identity.hasMajorMinor
+          ? mAnchorsByKey.get(getKey(identity.uuid, identity.major, identity.minor))
+          : null;
+        mAnchorIndexes[h] = index != null ? index : NOT_AN_ANCHOR;
+      }
+      int index = mAnchorIndexes[h];
+      if (index == NOT_AN_ANCHOR) {
+        continue;
+      }
+      double distance = smoothing != null ? smoothing.getDistance(identity) : Double.NaN;
+      if (Double.isNaN(distance)) {
+        distance = beacon.getDistance();
+      }
+      if (Double.isNaN(distance) || Double.isInfinite(distance) || distance < 0) {
+        continue;
+      }
+      mDistances[index] = distance;
+      mSeenTimes[index] = now;
+    }
+  }
+
+  /**
+   * @param now elapsedRealtime(), the anchors seen more than `maxAgeMs` before are left out
+   * @return the position, null when fewer than `minAnchors` anchors of a floor were seen
+   */
+  @Nullable
+  synchronized Position solve(long now) {
+    int freshCount = 0;
+    for (int i = 0; i < mSeenTimes.length; i++) {
+      if (mSeenTimes[i] > 0 && now - mSeenTimes[i] <= mMaxAgeMs) {
+        mFresh[freshCount++] = i;
+      }
+    }
+    if (freshCount < mMinAnchors) {
+      return null;
+    }
+    // a handful of floors are seen at once: quadratic but allocation free
+    int floor = 0;
+    double floorWeight = -1;
+    for (int i = 0; i < freshCount; i++) {
+      int candidate = mFloors[mFresh[i]];
+      double weight = 0;
+      for (int j = 0; j < freshCount; j++) {
+        if (mFloors[mFresh[j]] == candidate) {
+          weight += getWeight(mFresh[j]);
+        }
+      }
+      if (weight > floorWeight) {
+        floor = candidate;
+        floorWeight = weight;
+      }
+    }
+    int count = 0;
+    for (int i = 0; i < freshCount; i++) {
+      if (mFloors[mFresh[i]] == floor) {
+        mFresh[count++] = mFresh[i];
+      }
+    }
+    if (count < mMinAnchors) {
+      return null;
+    }
+
+    double x = 0;
+    double y = 0;
+    for (int i = 0; i < count; i++) {
+      int a = mFresh[i];
+      double w = getWeight(a);
+      x += w * mX[a];
+      y += w * mY[a];
+    }
+    x /= floorWeight;
+    y /= floorWeight;
+
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      // normal equations (J^T W J) step = J^T W r of the linearized residuals r = |p - a| - d
+      double jxx = 0;
+      double jxy = 0;
+      double jyy = 0;
+      double gx = 0;
+      double gy = 0;
+      for (int i = 0; i < count; i++) {
+        int a = mFresh[i];
+        double dx = x - mX[a];
+        double dy = y - mY[a];
+        double range = Math.sqrt(dx * dx + dy * dy);
+        if (range < 1e-9) {
+          continue;
+        }
+        double w = getWeight(a);
+        double ux = dx / range;
+        double uy = dy / range;
+        double r = range - mDistances[a];
+        jxx += w * ux * ux;
+        jxy += w * ux * uy;
+        jyy += w * uy * uy;
+        gx += w * ux * r;
+        gy += w * uy * r;
+      }
+      double det = jxx * jyy - jxy * jxy;
+      if (Math.abs(det) < 1e-12) {
+        // collinear anchors: keep the last estimate
+        break;
+      }
+      double stepX = (jyy * gx - jxy * gy) / det;
+      double stepY = (jxx * gy - jxy * gx) / det;
+      x -= stepX;
+      y -= stepY;
+      if (stepX * stepX + stepY * stepY < CONVERGENCE * CONVERGENCE) {
+        break;
+      }
+    }
+
+    double squaredResiduals = 0;
+    for (int i = 0; i < count; i++) {
+      int a = mFresh[i];
+      double dx = x - mX[a];
+      double dy = y - mY[a];
+      double r = Math.sqrt(dx * dx + dy * dy) - mDistances[a];
+      squaredResiduals += getWeight(a) * r * r;
+    }
+    Position position = new Position();
+    position.x = x;
+    position.y = y;
+    position.floor = floor;
+    position.error = Math.sqrt(squaredResiduals / floorWeight);
+    position.anchors = count;
+    return position;
+  }
+
+  synchronized void clear() {
+    Arrays.fill(mOwners, null);
+    Arrays.fill(mSeenTimes, 0);
+  }
+
+  private double getWeight(int anchor) {
+    double d = Math.max(MIN_DISTANCE, mDistances[anchor]);
+    return 1 / (d * d);
+  }
+
+  private static String getKey(String uuid, int major, int minor) {
+    return uuid + "/" + major + "/" + minor;
+  }
+}
@@ -0,0 +1,194 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Smooths the distance of every ranged beacon (EWMA or 1D Kalman filter) and runs a
+ * proximity state machine with hysteresis on top of it, so that only real transitions
+ * between immediate/near/far are reported.
+ *
+ * State is kept in primitive arrays indexed by the handle of the beacon identity; a handle
+ * reused by another identity after an eviction starts over from an unknown proximity.
+ */
+class ProximityTracker {
+  static final int FILTER_EWMA = 0;
+  static final int FILTER_KALMAN = 1;
+  static final double DEFAULT_ALPHA = 0.3;
+  static final double DEFAULT_PROCESS_NOISE = 0.05;
+  static final double DEFAULT_MEASUREMENT_NOISE = 1.0;
+  static final double DEFAULT_HYSTERESIS = 0.3;
+  static final int DEFAULT_MIN_SAMPLES = 2;
+
+  static final int PROXIMITY_UNKNOWN = 0;
+  static final int PROXIMITY_IMMEDIATE = 1;
+  static final int PROXIMITY_NEAR = 2;
+  static final int PROXIMITY_FAR = 3;
+  private static final String[] PROXIMITY_NAMES = {"unknown", "immediate", "near", "far"};
+  private static final double IMMEDIATE_UPPER_BOUND = 1.0;
+  private static final double NEAR_UPPER_BOUND = 3.0;
+  // overlapping ranged regions deliver the same beacon several times per scan cycle
+  private static final long MIN_SAMPLE_INTERVAL_MS = 50;
+
+  static final class Transition {
+    final BeaconIdentityCache.BeaconIdentity identity;
+    final int previousProximity;
+    final int proximity;
+    final double distance;
+
+    Transition(BeaconIdentityCache.BeaconIdentity identity, int previousProximity, int proximity, double distance) {
+      this.identity = identity;
+      this.previousProximity = previousProximity;
+      this.proximity = proximity;
+      this.distance = distance;
+    }
+  }
+
+  private final BeaconIdentityCache mIdentityCache;
+  private final BeaconIdentityCache.BeaconIdentity[] mOwners;
+  private final double[] mEstimates;
+  private final double[] mVariances;
+  private final int[] mProximities;
+  private final int[] mCandidates;
+  private final int[] mCandidateCounts;
+  private final long[] mLastSampleTimes;
+
+  private int mFilter = FILTER_EWMA;
+  private double mAlpha = DEFAULT_ALPHA;
+  private double mProcessNoise = DEFAULT_PROCESS_NOISE;
+  private double mMeasurementNoise = DEFAULT_MEASUREMENT_NOISE;
+  private double mHysteresis = DEFAULT_HYSTERESIS;
+  private int mMinSamples = DEFAULT_MIN_SAMPLES;
+
+  ProximityTracker(BeaconIdentityCache identityCache) {
+    mIdentityCache = identityCache;
+    int capacity = identityCache.getMaxSize();
+    mOwners = new BeaconIdentityCache.BeaconIdentity[capacity];
+    mEstimates = new double[capacity];
+    mVariances = new double[capacity];
+    mProximities = new int[capacity];
+    mCandidates = new int[capacity];
+    mCandidateCounts = new int[capacity];
+    mLastSampleTimes = new long[capacity];
+  }
+
+  synchronized void configure(int filter, double alpha, double processNoise, double measurementNoise, double hysteresis, int minSamples) {
+    mFilter = filter;
+    mAlpha = alpha;
+    mProcessNoise = processNoise;
+    mMeasurementNoise = measurementNoise;
+    mHysteresis = hysteresis;
+    mMinSamples = Math.max(1, minSamples);
+  }
+
+  /**
+   * @param now elapsedRealtime() of the ranging callback
+   * @return the proximity transitions confirmed by this ranging cycle, null if none
+   */
+  synchronized List<Transition> update(Collection<Beacon> beacons, long now) {
+    List<Transition> transitions = null;
+    for (Beacon beacon : beacons) {
+      double distance = beacon.getDistance();
+      if (Double.isNaN(distance) || Double.isInfinite(distance) || distance < 0) {
+        continue;
+      }
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      int h = identity.handle;
+      if (mOwners[h] != identity) {
+        mOwners[h] = identity;
+        mEstimates[h] = distance;
+        mVariances[h] = mMeasurementNoise;
+        mProximities[h] = PROXIMITY_UNKNOWN;
+        mCandidates[h] = PROXIMITY_UNKNOWN;
+        mCandidateCounts[h] = 0;
+      } else if (now - mLastSampleTimes[h] < MIN_SAMPLE_INTERVAL_MS) {
+        continue;
+      } else {
+        smooth(h, distance);
+      }
+      mLastSampleTimes[h] = now;
+
+      int current = mProximities[h];
+      int next = nextProximity(current, mEstimates[h]);
+      if (next == current) {
+        mCandidateCounts[h] = 0;
+        continue;
+      }
+      if (mCandidates[h] == next) {
+        mCandidateCounts[h]++;
+      } else {
+        mCandidates[h] = next;
+        mCandidateCounts[h] = 1;
+      }
+      // the first classification of a beacon doesn't need to be confirmed
+      if (current == PROXIMITY_UNKNOWN || mCandidateCounts[h] >= mMinSamples) {
+        mProximities[h] = next;
+        mCandidateCounts[h] = 0;
+        if (transitions == null) {
+          transitions = new ArrayList<>();
+        }
+        transitions.add(new Transition(identity, current, next, mEstimates[h]));
+      }
+    }
+    return transitions;
+  }
+
+  /**
+   * @return the smoothed distance of this beacon, NaN if it wasn't ranged since it got its handle
+   */
+  synchronized double getDistance(BeaconIdentityCache.BeaconIdentity identity) {
+    return mOwners[identity.handle] == identity ? mEstimates[identity.handle] : Double.NaN;
+  }
+
+  synchronized void clear() {
+    Arrays.fill(mOwners, null);
+  }
+
+  static String getProximityName(int proximity) {
+    return PROXIMITY_NAMES[proximity];
+  }
+
+  private void smooth(int h, double distance) {
+    if (mFilter == FILTER_KALMAN) {
+      double variance = mVariances[h] + mProcessNoise;
+      double gain = variance / (variance + mMeasurementNoise);
+      mEstimates[h] += gain * (distance - mEstimates[h]);
+      mVariances[h] = (1 - gain) * variance;
+    } else {
+      mEstimates[h] += mAlpha * (distance - mEstimates[h]);
+    }
+  }
+
+  /**
+   * The zone boundaries are moved away from the current zone by the hysteresis margin,
+   * so an estimate oscillating around a boundary doesn't flap between two zones.
+   */
+  private int nextProximity(int current, double distance) {
+    switch (current) {
+      case PROXIMITY_IMMEDIATE:
+        return distance >= IMMEDIATE_UPPER_BOUND + mHysteresis ? getZone(distance) : current;
+      case PROXIMITY_NEAR:
+        if (distance < IMMEDIATE_UPPER_BOUND - mHysteresis || distance >= NEAR_UPPER_BOUND + mHysteresis) {
+          return getZone(distance);
+        }
+        return current;
+      case PROXIMITY_FAR:
+        return distance < NEAR_UPPER_BOUND - mHysteresis ? getZone(distance) : current;
+      default:
+        return getZone(distance);
+    }
+  }
+
+  private static int getZone(double distance) {
+    if (distance < IMMEDIATE_UPPER_BOUND) {
+      return PROXIMITY_IMMEDIATE;
+    } else if (distance < NEAR_UPPER_BOUND) {
+      return PROXIMITY_NEAR;
+    }
+    return PROXIMITY_FAR;
+  }
+}
@@ -0,0 +1,99 @@
+package com.mackentoch.beaconsandroid;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Region;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Collects the ranging results of every ranged region during a time window and hands them
+ * over as a single batch. Only the latest result of a region is kept within a window, so the
+ * number of batches (and the bridge traffic) depends on the emit rate, not on the region count.
+ */
+class RangeBatcher {
+  static final long DEFAULT_WINDOW_MS = 1000;
+  static final double DEFAULT_MAX_EVENTS_PER_SECOND = 1.0;
+
+  interface Listener {
+    void onBatch(List<RangeSnapshot> snapshots);
+  }
+
+  static final class RangeSnapshot {
+    final Region region;
+    final List<Beacon> beacons;
+    final long timestamp;
+
+    RangeSnapshot(Region region, List<Beacon> beacons, long timestamp) {
+      this.region = region;
+      this.beacons = beacons;
+      this.timestamp = timestamp;
+    }
+  }
+
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final LinkedHashMap<String, RangeSnapshot> mPending = new LinkedHashMap<>();
+  private final Listener mListener;
+  private long mWindowMs = DEFAULT_WINDOW_MS;
+  private long mMinIntervalMs = (long) (1000 / DEFAULT_MAX_EVENTS_PER_SECOND);
+  private long mLastFlushTime;
+  private boolean mFlushScheduled;
+
+  private final Runnable mFlushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  RangeBatcher(Listener listener) {
+    this.mListener = listener;
+  }
+
+  synchronized void configure(long windowMs, double maxEventsPerSecond) {
+    mWindowMs = windowMs > 0 ? windowMs : DEFAULT_WINDOW_MS;
+    mMinIntervalMs = maxEventsPerSecond > 0 ? (long) (1000 / maxEventsPerSecond) : 0;
+  }
+
+  /**
+   * @param beacons snapshot of the ranged beacons, kept as is until the batch is flushed
+   */
+  void add(List<Beacon> beacons, Region region) {
+    long now = SystemClock.elapsedRealtime();
+    synchronized (this) {
+      mPending.put(region.getUniqueId(), new RangeSnapshot(region, beacons, System.currentTimeMillis()));
+      if (mFlushScheduled) {
+        return;
+      }
+      mFlushScheduled = true;
+      long delay = Math.max(mWindowMs, mLastFlushTime + mMinIntervalMs - now);
+      mHandler.postDelayed(mFlushRunnable, delay);
+    }
+  }
+
+  void flush() {
+    List<RangeSnapshot> snapshots;
+    synchronized (this) {
+      mHandler.removeCallbacks(mFlushRunnable);
+      mFlushScheduled = false;
+      if (mPending.isEmpty()) {
+        return;
+      }
+      snapshots = new ArrayList<>(mPending.values());
+      mPending.clear();
+      mLastFlushTime = SystemClock.elapsedRealtime();
+    }
+    mListener.onBatch(snapshots);
+  }
+
+  synchronized void clear() {
+    mHandler.removeCallbacks(mFlushRunnable);
+    mFlushScheduled = false;
+    mPending.clear();
+  }
+}
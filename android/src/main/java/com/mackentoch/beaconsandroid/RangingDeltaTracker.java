@@ -0,0 +1,129 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps, for every ranged region, the last state emitted for each beacon and computes what
+ * changed since then: added and removed beacons, and beacons whose rssi, distance or
+ * proximity moved past the configured thresholds.
+ *
+ * Once every beacon of a region has been seen, an update allocates nothing: the states are
+ * updated in place and the Delta is reused, so it is only valid until the next update.
+ */
+class RangingDeltaTracker {
+  static final int DEFAULT_RSSI_THRESHOLD = 3;
+  static final double DEFAULT_DISTANCE_THRESHOLD = 0.5;
+
+  static final class Delta {
+    final List<Beacon> added = new ArrayList<>();
+    final List<Beacon> updated = new ArrayList<>();
+    final List<BeaconIdentityCache.BeaconIdentity> removed = new ArrayList<>();
+
+    boolean isEmpty() {
+      return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+
+    private void clear() {
+      added.clear();
+      updated.clear();
+      removed.clear();
+    }
+  }
+
+  private static final class EmittedState {
+    BeaconIdentityCache.BeaconIdentity identity;
+    int rssi;
+    double distance;
+    String proximity;
+    boolean seen;
+
+    void set(Beacon beacon, double distance) {
+      this.rssi = beacon.getRssi();
+      this.distance = distance;
+      this.proximity = EventPayloadBuilder.getProximity(distance);
+    }
+  }
+
+  private static final class RegionStates {
+    final HashMap<BeaconIdentityCache.BeaconIdentity, EmittedState> byIdentity = new HashMap<>();
+    // same states, iterated by index to find the removed ones without an iterator
+    final ArrayList<EmittedState> list = new ArrayList<>();
+  }
+
+  private final HashMap<String, RegionStates> mRegions = new HashMap<>();
+  private final BeaconIdentityCache mIdentityCache;
+  private final Delta mDelta = new Delta();
+  private int mRssiThreshold = DEFAULT_RSSI_THRESHOLD;
+  private double mDistanceThreshold = DEFAULT_DISTANCE_THRESHOLD;
+
+  RangingDeltaTracker(BeaconIdentityCache identityCache) {
+    this.mIdentityCache = identityCache;
+  }
+
+  synchronized void configure(int rssiThreshold, double distanceThreshold) {
+    mRssiThreshold = rssiThreshold;
+    mDistanceThreshold = distanceThreshold;
+  }
+
+  /**
+   * @return the changes since the previous update of the region, valid until the next update
+   */
+  synchronized Delta update(String regionId, Collection<Beacon> beacons) {
+    RegionStates states = mRegions.get(regionId);
+    if (states == null) {
+      states = new RegionStates();
+      mRegions.put(regionId, states);
+    }
+
+    Delta delta = mDelta;
+    delta.clear();
+    for (Beacon beacon : beacons) {
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      double distance = EventPayloadBuilder.getSafeDistance(beacon);
+      EmittedState state = states.byIdentity.get(identity);
+      if (state == null) {
+        state = new EmittedState();
+        state.identity = identity;
+        state.set(beacon, distance);
+        states.byIdentity.put(identity, state);
+        states.list.add(state);
+        delta.added.add(beacon);
+      } else if (Math.abs(beacon.getRssi() - state.rssi) >= mRssiThreshold
+        || Math.abs(distance - state.distance) >= mDistanceThreshold
+        || !EventPayloadBuilder.getProximity(distance).equals(state.proximity)) {
+        state.set(beacon, distance);
+        delta.updated.add(beacon);
+      }
+      state.seen = true;
+    }
+
+    ArrayList<EmittedState> list = states.list;
+    for (int i = list.size() - 1; i >= 0; i--) {
+      EmittedState state = list.get(i);
+      if (!state.seen) {
+        delta.removed.add(state.identity);
+        states.byIdentity.remove(state.identity);
+        // swap with the last one, the order of the states does not matter
+        int last = list.size() - 1;
+        list.set(i, list.get(last));
+        list.remove(last);
+      } else {
+        state.seen = false;
+      }
+    }
+    return delta;
+  }
+
+  synchronized void reset(String regionId) {
+    mRegions.remove(regionId);
+  }
+
+  synchronized void clear() {
+    mRegions.clear();
+  }
+}
@@ -0,0 +1,131 @@
+package com.mackentoch.beaconsandroid;
+
+import android.util.SparseIntArray;
+
+import org.altbeacon.beacon.Beacon;
+
+import java.util.Collection;
+
+/**
+ * Reduces the beacons of a ranging cycle to a summary of the region: the number of beacons
+ * of each major, the nearest N beacons and the min/max/average rssi. The summary doesn't grow
+ * with the number of beacons (only with the number of majors).
+ *
+ * The nearest beacons are kept in a bounded max-heap on distance, so the cycle costs
+ * O(n log N) without sorting or copying the beacons. Only the event marshalling worker
+ * summarizes: the heap buffers are reused between cycles.
+ */
+class RangingSummarizer {
+  static final int DEFAULT_NEAREST_COUNT = 3;
+
+  static final class Summary {
+    int count;
+    // major -> number of beacons, beacons without major are only counted in `count`
+    final SparseIntArray countByMajor = new SparseIntArray();
+    int minRssi;
+    int maxRssi;
+    double avgRssi;
+    // nearest first
+    Beacon[] nearest;
+  }
+
+  private final BeaconIdentityCache mIdentityCache;
+  private volatile int mNearestCount = DEFAULT_NEAREST_COUNT;
+  private Beacon[] mHeap = new Beacon[DEFAULT_NEAREST_COUNT];
+  private double[] mHeapDistances = new double[DEFAULT_NEAREST_COUNT];
+
+  RangingSummarizer(BeaconIdentityCache identityCache) {
+    mIdentityCache = identityCache;
+  }
+
+  void setNearestCount(int nearestCount) {
+    mNearestCount = Math.max(0, nearestCount);
+  }
+
+  Summary summarize(Collection<Beacon> beacons) {
+    int capacity = mNearestCount;
+    if (mHeap.length != capacity) {
+      mHeap = new Beacon[capacity];
+      mHeapDistances = new double[capacity];
+    }
+    Summary summary = new Summary();
+    int size = 0;
+    long rssiSum = 0;
+    int minRssi = Integer.MAX_VALUE;
+    int maxRssi = Integer.MIN_VALUE;
+    for (Beacon beacon : beacons) {
+      int rssi = beacon.getRssi();
+      rssiSum += rssi;
+      minRssi = Math.min(minRssi, rssi);
+      maxRssi = Math.max(maxRssi, rssi);
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      if (identity.hasMajorMinor) {
+        summary.countByMajor.put(identity.major, summary.countByMajor.get(identity.major) + 1);
+      }
+      double distance = EventPayloadBuilder.getSafeDistance(beacon);
+      if (size < capacity) {
+        mHeap[size] = beacon;
+        mHeapDistances[size] = distance;
+        siftUp(size++);
+      } else if (capacity > 0 && distance < mHeapDistances[0]) {
+        // nearer than the farthest of the nearest ones: replace it
+        mHeap[0] = beacon;
+        mHeapDistances[0] = distance;
+        siftDown(0, size);
+      }
+    }
+    summary.count = beacons.size();
+    summary.minRssi = summary.count > 0 ? minRssi : 0;
+    summary.maxRssi = summary.count > 0 ? maxRssi : 0;
+    summary.avgRssi = summary.count > 0 ? (double) rssiSum / summary.count : 0;
+
+    // popping the max-heap yields the farthest first: fill from the end
+    summary.nearest = new Beacon[size];
+    for (int i = size - 1; i >= 0; i--) {
+      summary.nearest[i] = mHeap[0];
+      swap(0, i);
+      mHeap[i] = null;
+      siftDown(0, i);
+    }
+    return summary;
+  }
+
+  private void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (mHeapDistances[parent] >= mHeapDistances[i]) {
+        return;
+      }
+      swap(parent, i);
+      i = parent;
+    }
+  }
+
+  private void siftDown(int i, int size) {
+    while (true) {
+      int largest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < size && mHeapDistances[left] > mHeapDistances[largest]) {
+        largest = left;
+      }
+      if (right < size && mHeapDistances[right] > mHeapDistances[largest]) {
+        largest = right;
+      }
+      if (largest == i) {
+        return;
+      }
+      swap(i, largest);
+      i = largest;
+    }
+  }
+
+  private void swap(int i, int j) {
+    Beacon beacon = mHeap[i];
+    mHeap[i] = mHeap[j];
+    mHeap[j] = beacon;
+    double distance = mHeapDistances[i];
+    mHeapDistances[i] = mHeapDistances[j];
+    mHeapDistances[j] = distance;
+  }
+}
@@ -0,0 +1,69 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Region;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Difference between the regions registered in BeaconManager and a requested set of regions,
+ * matched by unique id (Region#equals only compares unique ids): regions whose identifiers
+ * changed are updated, i.e. stopped then started again.
+ */
+class RegionDiff {
+  final List<Region> added = new ArrayList<>();
+  final List<Region> removed = new ArrayList<>();
+  // registered regions and the regions replacing them, index for index
+  final List<Region> updatedFrom = new ArrayList<>();
+  final List<Region> updatedTo = new ArrayList<>();
+
+  static RegionDiff compute(Collection<Region> current, List<Region> requested) {
+    Map<String, Region> remaining = new LinkedHashMap<>();
+    for (Region region : current) {
+      remaining.put(region.getUniqueId(), region);
+    }
+    RegionDiff diff = new RegionDiff();
+    Map<String, Region> seen = new LinkedHashMap<>();
+    for (Region region : requested) {
+      if (seen.put(region.getUniqueId(), region) != null) {
+        throw new IllegalArgumentException("duplicate region identifier: " + region.getUniqueId());
+      }
+      Region registered = remaining.remove(region.getUniqueId());
+      if (registered == null) {
+        diff.added.add(region);
+      } else if (!registered.hasSameIdentifiers(region)) {
+        diff.updatedFrom.add(registered);
+        diff.updatedTo.add(region);
+      }
+    }
+    diff.removed.addAll(remaining.values());
+    return diff;
+  }
+
+  /**
+   * @return the regions to stop: removed ones and the previous version of updated ones
+   */
+  List<Region> getRegionsToStop() {
+    List<Region> regions = new ArrayList<>(removed.size() + updatedFrom.size());
+    regions.addAll(removed);
+    regions.addAll(updatedFrom);
+    return regions;
+  }
+
+  /**
+   * @return the regions to start: added ones and the new version of updated ones
+   */
+  List<Region> getRegionsToStart() {
+    List<Region> regions = new ArrayList<>(added.size() + updatedTo.size());
+    regions.addAll(updatedTo);
+    regions.addAll(added);
+    return regions;
+  }
+
+  boolean isEmpty() {
+    return added.isEmpty() && removed.isEmpty() && updatedTo.isEmpty();
+  }
+}
@@ -0,0 +1,213 @@
+package com.mackentoch.beaconsandroid;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.altbeacon.beacon.Region;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Debounces the monitoring transitions of each region before they are emitted:
+ * - an enter is only reported once the region stayed entered for `minDwellMs`
+ * - an exit is only reported once the region stayed exited for `exitGraceMs`, entering again
+ *   meanwhile cancels it
+ * - a dwell is reported once per visit, `dwellMs` after the region was entered
+ * so the enter/exit storms at the edge of a region never reach JS.
+ *
+ * Timers run on the main looper. The listener is always called without holding the lock of
+ * the debouncer.
+ */
+class RegionTransitionDebouncer {
+  static final long DEFAULT_MIN_DWELL_MS = 0;
+  static final long DEFAULT_EXIT_GRACE_MS = 0;
+  static final long DEFAULT_DWELL_MS = 0;
+  private static final int TIMER_ENTER = 0;
+  private static final int TIMER_EXIT = 1;
+  private static final int TIMER_DWELL = 2;
+
+  interface Listener {
+    void onEnter(Region region);
+
+    void onExit(Region region);
+
+    void onDwell(Region region, long dwellMs);
+  }
+
+  static final class Config {
+    final long minDwellMs;
+    final long exitGraceMs;
+    // 0 disables the dwell event
+    final long dwellMs;
+
+    Config(long minDwellMs, long exitGraceMs, long dwellMs) {
+      this.minDwellMs = Math.max(0, minDwellMs);
+      this.exitGraceMs = Math.max(0, exitGraceMs);
+      this.dwellMs = Math.max(0, dwellMs);
+    }
+  }
+
+  private static final class RegionState {
+    Region region;
+    final Config config;
+    final long enterTime;
+    boolean confirmed;
+    final Timer[] timers = new Timer[3];
+
+    RegionState(Region region, Config config, long enterTime) {
+      this.region = region;
+      this.config = config;
+      this.enterTime = enterTime;
+    }
+  }
+
+  private final class Timer implements Runnable {
+    final RegionState state;
+    final int type;
+
+    Timer(RegionState state, int type) {
+      this.state = state;
+      this.type = type;
+    }
+
+    @Override
+    public void run() {
+      onTimer(this);
+    }
+  }
+
+  private final Listener mListener;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final HashMap<String, RegionState> mStates = new HashMap<>();
+  private Config mDefaultConfig = new Config(DEFAULT_MIN_DWELL_MS, DEFAULT_EXIT_GRACE_MS, DEFAULT_DWELL_MS);
+  private Map<String, Config> mRegionConfigs = new HashMap<>();
+
+  RegionTransitionDebouncer(Listener listener) {
+    mListener = listener;
+  }
+
+  synchronized void configure(Config defaultConfig, Map<String, Config> regionConfigs) {
+    mDefaultConfig = defaultConfig;
+    mRegionConfigs = new HashMap<>(regionConfigs);
+  }
+
+  void onEnter(Region region) {
+    boolean confirmed = false;
+    synchronized (this) {
+      RegionState state = mStates.get(region.getUniqueId());
+      if (state != null) {
+        state.region = region;
+        // back within the exit grace period: the exit never happened
+        cancelTimer(state, TIMER_EXIT);
+        return;
+      }
+      Config config = mRegionConfigs.get(region.getUniqueId());
+      state = new RegionState(region, config != null ? config : mDefaultConfig, SystemClock.elapsedRealtime());
+      mStates.put(region.getUniqueId(), state);
+      if (state.config.minDwellMs == 0) {
+        confirmEnter(state);
+        confirmed = true;
+      } else {
+        startTimer(state, TIMER_ENTER, state.config.minDwellMs);
+      }
+    }
+    if (confirmed) {
+      mListener.onEnter(region);
+    }
+  }
+
+  void onExit(Region region) {
+    synchronized (this) {
+      RegionState state = mStates.get(region.getUniqueId());
+      if (state == null || state.timers[TIMER_EXIT] != null) {
+        return;
+      }
+      if (!state.confirmed) {
+        // exited before the min dwell time: neither the enter nor the exit is reported
+        removeState(state);
+        return;
+      }
+      if (state.config.exitGraceMs > 0) {
+        startTimer(state, TIMER_EXIT, state.config.exitGraceMs);
+        return;
+      }
+      removeState(state);
+    }
+    mListener.onExit(region);
+  }
+
+  /**
+   * Forgets every region, pending transitions are dropped.
+   */
+  synchronized void clear() {
+    for (RegionState state : new ArrayList<>(mStates.values())) {
+      removeState(state);
+    }
+  }
+
+  private void onTimer(Timer timer) {
+    RegionState state = timer.state;
+    long dwellMs;
+    synchronized (this) {
+      // the timer may have been cancelled after it was dequeued
+      if (state.timers[timer.type] != timer || mStates.get(state.region.getUniqueId()) != state) {
+        return;
+      }
+      state.timers[timer.type] = null;
+      switch (timer.type) {
+        case TIMER_ENTER:
+          confirmEnter(state);
+          break;
+        case TIMER_EXIT:
+          removeState(state);
+          break;
+        default:
+          break;
+      }
+      dwellMs = SystemClock.elapsedRealtime() - state.enterTime;
+    }
+    switch (timer.type) {
+      case TIMER_ENTER:
+        mListener.onEnter(state.region);
+        break;
+      case TIMER_EXIT:
+        mListener.onExit(state.region);
+        break;
+      default:
+        mListener.onDwell(state.region, dwellMs);
+        break;
+    }
+  }
+
+  private void confirmEnter(RegionState state) {
+    state.confirmed = true;
+    if (state.config.dwellMs > 0) {
+      long elapsed = SystemClock.elapsedRealtime() - state.enterTime;
+      startTimer(state, TIMER_DWELL, Math.max(0, state.config.dwellMs - elapsed));
+    }
+  }
+
+  private void startTimer(RegionState state, int type, long delayMs) {
+    Timer timer = new Timer(state, type);
+    state.timers[type] = timer;
+    mHandler.postDelayed(timer, delayMs);
+  }
+
+  private void cancelTimer(RegionState state, int type) {
+    Timer timer = state.timers[type];
+    if (timer != null) {
+      mHandler.removeCallbacks(timer);
+      state.timers[type] = null;
+    }
+  }
+
+  private void removeState(RegionState state) {
+    cancelTimer(state, TIMER_ENTER);
+    cancelTimer(state, TIMER_EXIT);
+    cancelTimer(state, TIMER_DWELL);
+    mStates.remove(state.region.getUniqueId());
+  }
+}
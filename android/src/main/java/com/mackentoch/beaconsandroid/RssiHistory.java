@@ -0,0 +1,259 @@
+package com.mackentoch.beaconsandroid;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import org.altbeacon.beacon.Beacon;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Short rssi histories of the ranged beacons, kept in fixed capacity ring buffers, with the
+ * statistics of a time window (mean, variance, slope) to tell a beacon walked by from one
+ * staying around.
+ *
+ * The buffers are slots of two flat primitive arrays (rssi, time) sized once from `maxBytes`,
+ * so the memory used is bounded whatever the number of beacons. A beacon gets a slot on its
+ * first sample; when none is free, the least recently updated beacon loses its slot. Beacons not
+ * ranged for `idleTimeoutMs` release theirs. As in ProximityTracker, slots are found through the
+ * handle of the beacon identity, a handle reused by another identity starts a new history.
+ */
+class RssiHistory {
+  static final int DEFAULT_CAPACITY = 64;
+  static final long DEFAULT_MAX_BYTES = 256 * 1024;
+  static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+  // rssi (int) + time (long) of a sample
+  private static final int SAMPLE_BYTES = 4 + 8;
+  private static final int NONE = -1;
+  // overlapping ranged regions deliver the same beacon several times per scan cycle
+  private static final long MIN_SAMPLE_INTERVAL_MS = 50;
+  private static final long SWEEP_INTERVAL_MS = 1000;
+
+  static final class Stats {
+    final int count;
+    final double mean;
+    final double variance;
+    // dBm per second, least squares
+    final double slope;
+    // time between the oldest and the newest sample of the window
+    final long spanMs;
+
+    Stats(int count, double mean, double variance, double slope, long spanMs) {
+      this.count = count;
+      this.mean = mean;
+      this.variance = variance;
+      this.slope = slope;
+      this.spanMs = spanMs;
+    }
+  }
+
+  private final BeaconIdentityCache mIdentityCache;
+  // by handle
+  private final BeaconIdentityCache.BeaconIdentity[] mOwners;
+  private final int[] mSlotsByHandle;
+  // "uuid/major/minor" (uuid alone without major/minor) -> handle, of the beacons with a slot
+  private final HashMap<String, Integer> mHandlesByKey = new HashMap<>();
+
+  private int mCapacity;
+  private long mIdleTimeoutMs = DEFAULT_IDLE_TIMEOUT_MS;
+  // by slot
+  private int[] mRssis;
+  private long[] mTimes;
+  private int[] mHandles;
+  private int[] mHeads;
+  private int[] mCounts;
+  private long[] mLastUpdates;
+  private int[] mFreeSlots;
+  private int mFreeCount;
+  private long mLastSweep;
+
+  RssiHistory(BeaconIdentityCache identityCache) {
+    mIdentityCache = identityCache;
+    mOwners = new BeaconIdentityCache.BeaconIdentity[identityCache.getMaxSize()];
+    mSlotsByHandle = new int[identityCache.getMaxSize()];
+    configure(DEFAULT_CAPACITY, DEFAULT_MAX_BYTES, DEFAULT_IDLE_TIMEOUT_MS);
+  }
+
+  /**
+   * Drops every history: the buffers are reallocated.
+   */
+  synchronized void configure(int capacity, long maxBytes, long idleTimeoutMs) {
+    mCapacity = Math.max(2, capacity);
+    mIdleTimeoutMs = idleTimeoutMs > 0 ? idleTimeoutMs : DEFAULT_IDLE_TIMEOUT_MS;
+    int slots = (int) Math.max(1, Math.min(mOwners.length, maxBytes / ((long) mCapacity * SAMPLE_BYTES)));
+    mRssis = new int[slots * mCapacity];
+    mTimes = new long[slots * mCapacity];
+    mHandles = new int[slots];
+    mHeads = new int[slots];
+    mCounts = new int[slots];
+    mLastUpdates = new long[slots];
+    mFreeSlots = new int[slots];
+    clear();
+  }
+
+  /**
+   * @param now elapsedRealtime() of the ranging callback: the update runs on the event worker
+   */
+  synchronized void update(Collection<Beacon> beacons, long now) {
+    if (now - mLastSweep >= SWEEP_INTERVAL_MS) {
+      mLastSweep = now;
+      releaseIdleSlots(now);
+    }
+    for (Beacon beacon : beacons) {
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      int h = identity.handle;
+      int slot = mOwners[h] == identity ? mSlotsByHandle[h] : NONE;
+      if (slot == NONE) {
+        if (mOwners[h] != null && mSlotsByHandle[h] != NONE) {
+          // the handle was reused by another identity
+          release(mSlotsByHandle[h]);
+        }
+        slot = acquire(h);
+        mOwners[h] = identity;
+        mHandlesByKey.put(getKey(identity), h);
+      } else if (now - mLastUpdates[slot] < MIN_SAMPLE_INTERVAL_MS) {
+        continue;
+      }
+      int index = slot * mCapacity + mHeads[slot];
+      mRssis[index] = beacon.getRssi();
+      mTimes[index] = now;
+      mHeads[slot] = (mHeads[slot] + 1) % mCapacity;
+      mCounts[slot] = Math.min(mCounts[slot] + 1, mCapacity);
+      mLastUpdates[slot] = now;
+    }
+  }
+
+  /**
+   * @param key      "uuid/major/minor", or the beacon handle
+   * @param windowMs 0 or less for the whole history
+   * @return the statistics of the samples of the last `windowMs`, null if the beacon has no
+   * history
+   */
+  @Nullable
+  synchronized Stats getStats(String key, long windowMs) {
+    int slot = findSlot(key);
+    if (slot == NONE) {
+      return null;
+    }
+    long now = SystemClock.elapsedRealtime();
+    int count = 0;
+    long firstTime = 0;
+    long lastTime = 0;
+    // shifted by the newest sample for precision
+    double sumT = 0;
+    double sumR = 0;
+    double sumTT = 0;
+    double sumTR = 0;
+    double sumRR = 0;
+    long origin = mLastUpdates[slot];
+    // newest first: stop at the first sample out of the window
+    for (int i = 0; i < mCounts[slot]; i++) {
+      int index = slot * mCapacity + (mHeads[slot] - 1 - i + mCapacity) % mCapacity;
+      long time = mTimes[index];
+      if (windowMs > 0 && now - time > windowMs) {
+        break;
+      }
+      if (count == 0) {
+        lastTime = time;
+      }
+      firstTime = time;
+      double t = (time - origin) / 1000.0;
+      double r = mRssis[index];
+      sumT += t;
+      sumR += r;
+      sumTT += t * t;
+      sumTR += t * r;
+      sumRR += r * r;
+      count++;
+    }
+    if (count == 0) {
+      return new Stats(0, 0, 0, 0, 0);
+    }
+    double mean = sumR / count;
+    double variance = count > 1 ? Math.max(0, (sumRR - count * mean * mean) / (count - 1)) : 0;
+    double denominator = count * sumTT - sumT * sumT;
+    double slope = count > 1 && denominator > 1e-12 ? (count * sumTR - sumT * sumR) / denominator : 0;
+    return new Stats(count, mean, variance, slope, lastTime - firstTime);
+  }
+
+  synchronized int size() {
+    return mHandles.length - mFreeCount;
+  }
+
+  synchronized void clear() {
+    Arrays.fill(mOwners, null);
+    Arrays.fill(mSlotsByHandle, NONE);
+    Arrays.fill(mHandles, NONE);
+    mHandlesByKey.clear();
+    mFreeCount = mFreeSlots.length;
+    for (int i = 0; i < mFreeCount; i++) {
+      mFreeSlots[i] = mFreeCount - 1 - i;
+    }
+  }
+
+  static String getKey(BeaconIdentityCache.BeaconIdentity identity) {
+    return identity.hasMajorMinor ? identity.uuid + "/" + identity.major + "/" + identity.minor : identity.uuid;
+  }
+
+  private int findSlot(String key) {
+    Integer handle = mHandlesByKey.get(key.toLowerCase());
+    if (handle == null && key.indexOf('/') < 0 && key.indexOf('-') < 0) {
+      try {
+        handle = Integer.parseInt(key);
+      } catch (NumberFormatException e) {
+        return NONE;
+      }
+    }
+    if (handle == null || handle < 0 || handle >= mOwners.length || mOwners[handle] == null) {
+      return NONE;
+    }
+    return mSlotsByHandle[handle];
+  }
+
+  private int acquire(int handle) {
+    if (mFreeCount == 0) {
+      release(findLeastRecentlyUpdatedSlot());
+    }
+    int slot = mFreeSlots[--mFreeCount];
+    mHandles[slot] = handle;
+    mHeads[slot] = 0;
+    mCounts[slot] = 0;
+    mSlotsByHandle[handle] = slot;
+    return slot;
+  }
+
+  private void release(int slot) {
+    int handle = mHandles[slot];
+    if (handle == NONE) {
+      return;
+    }
+    if (mOwners[handle] != null) {
+      mHandlesByKey.remove(getKey(mOwners[handle]));
+    }
+    mOwners[handle] = null;
+    mSlotsByHandle[handle] = NONE;
+    mHandles[slot] = NONE;
+    mFreeSlots[mFreeCount++] = slot;
+  }
+
+  private int findLeastRecentlyUpdatedSlot() {
+    int oldest = 0;
+    for (int slot = 1; slot < mHandles.length; slot++) {
+      if (mLastUpdates[slot] < mLastUpdates[oldest]) {
+        oldest = slot;
+      }
+    }
+    return oldest;
+  }
+
+  private void releaseIdleSlots(long now) {
+    for (int slot = 0; slot < mHandles.length; slot++) {
+      if (mHandles[slot] != NONE && now - mLastUpdates[slot] > mIdleTimeoutMs) {
+        release(slot);
+      }
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package com.mackentoch.beaconsandroid;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counters of the scan pipeline, cheap enough to stay enabled in release builds:
+ * every update is a single atomic add (or a compare-and-set loop for maximums).
+ *
+ * Latencies are recorded in a histogram of power of 2 buckets of microseconds, percentiles
+ * are reported as the upper bound of the bucket they fall in.
+ */
+class ScanMetrics {
+  private static final int LATENCY_BUCKETS = 25;
+  // AltBeacon delivers the ranging of every region at the end of a scan cycle, within a few ms
+  static final long CYCLE_GAP_NANOS = 100 * 1000 * 1000L;
+
+  static final class Snapshot {
+    long scanCycles;
+    long rangingCallbacks;
+    long beaconsRanged;
+    long lastCycleBeacons;
+    long maxCycleBeacons;
+    long eventsEmitted;
+    long eventsDroppedNoCatalyst;
+    long payloads;
+    long payloadEntries;
+    long maxPayloadEntries;
+    long payloadBuildCount;
+    long payloadBuildTotalNanos;
+    long payloadBuildMaxNanos;
+    long latencyCount;
+    double latencyP50Ms;
+    double latencyP90Ms;
+    double latencyP99Ms;
+    long latencyMaxNanos;
+    long solveCount;
+    long solveTotalNanos;
+    long solveMaxNanos;
+  }
+
+  private final AtomicLong mScanCycles = new AtomicLong();
+  private final AtomicLong mRangingCallbacks = new AtomicLong();
+  private final AtomicLong mBeaconsRanged = new AtomicLong();
+  private final AtomicLong mLastCallbackNanos = new AtomicLong();
+  private final AtomicLong mCurrentCycleBeacons = new AtomicLong();
+  private final AtomicLong mLastCycleBeacons = new AtomicLong();
+  private final AtomicLong mMaxCycleBeacons = new AtomicLong();
+  private final AtomicLong mEventsEmitted = new AtomicLong();
+  private final AtomicLong mEventsDroppedNoCatalyst = new AtomicLong();
+  private final AtomicLong mPayloads = new AtomicLong();
+  private final AtomicLong mPayloadEntries = new AtomicLong();
+  private final AtomicLong mMaxPayloadEntries = new AtomicLong();
+  private final AtomicLong mPayloadBuildCount = new AtomicLong();
+  private final AtomicLong mPayloadBuildTotalNanos = new AtomicLong();
+  private final AtomicLong mPayloadBuildMaxNanos = new AtomicLong();
+  private final AtomicLongArray mLatencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+  private final AtomicLong mLatencyMaxNanos = new AtomicLong();
+  private final AtomicLong mSolveCount = new AtomicLong();
+  private final AtomicLong mSolveTotalNanos = new AtomicLong();
+  private final AtomicLong mSolveMaxNanos = new AtomicLong();
+
+  /**
+   * Called for every ranging callback, a new scan cycle starts when the previous callback
+   * is older than CYCLE_GAP_NANOS.
+   */
+  void onRangingCallback(int beaconCount, long nowNanos) {
+    mRangingCallbacks.incrementAndGet();
+    mBeaconsRanged.addAndGet(beaconCount);
+    long previous = mLastCallbackNanos.getAndSet(nowNanos);
+    if (previous == 0 || nowNanos - previous > CYCLE_GAP_NANOS) {
+      long cycleBeacons = mCurrentCycleBeacons.getAndSet(beaconCount);
+      if (previous != 0) {
+        mLastCycleBeacons.set(cycleBeacons);
+        updateMax(mMaxCycleBeacons, cycleBeacons);
+      }
+      mScanCycles.incrementAndGet();
+    } else {
+      mCurrentCycleBeacons.addAndGet(beaconCount);
+    }
+  }
+
+  /**
+   * @param entries the beacons the payload carries, not its serialized size
+   */
+  void onPayloadBuilt(int entries, long buildNanos) {
+    mPayloads.incrementAndGet();
+    mPayloadEntries.addAndGet(entries);
+    updateMax(mMaxPayloadEntries, entries);
+    mPayloadBuildCount.incrementAndGet();
+    mPayloadBuildTotalNanos.addAndGet(buildNanos);
+    updateMax(mPayloadBuildMaxNanos, buildNanos);
+  }
+
+  void onEventEmitted() {
+    mEventsEmitted.incrementAndGet();
+  }
+
+  void onEventDroppedNoCatalyst() {
+    mEventsDroppedNoCatalyst.incrementAndGet();
+  }
+
+  /**
+   * @param latencyNanos time from the AltBeacon callback to the emission of its event
+   */
+  void onLatency(long latencyNanos) {
+    long micros = Math.max(0, latencyNanos / 1000);
+    int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+    mLatencyBuckets.incrementAndGet(Math.min(bucket, LATENCY_BUCKETS - 1));
+    updateMax(mLatencyMaxNanos, latencyNanos);
+  }
+
+  /**
+   * @param solveNanos time spent by the position engine to solve one position
+   */
+  void onPositionSolved(long solveNanos) {
+    mSolveCount.incrementAndGet();
+    mSolveTotalNanos.addAndGet(solveNanos);
+    updateMax(mSolveMaxNanos, solveNanos);
+  }
+
+  Snapshot snapshot() {
+    Snapshot snapshot = new Snapshot();
+    snapshot.scanCycles = mScanCycles.get();
+    snapshot.rangingCallbacks = mRangingCallbacks.get();
+    snapshot.beaconsRanged = mBeaconsRanged.get();
+    snapshot.lastCycleBeacons = mLastCycleBeacons.get();
+    snapshot.maxCycleBeacons = mMaxCycleBeacons.get();
+    snapshot.eventsEmitted = mEventsEmitted.get();
+    snapshot.eventsDroppedNoCatalyst = mEventsDroppedNoCatalyst.get();
+    snapshot.payloads = mPayloads.get();
+    snapshot.payloadEntries = mPayloadEntries.get();
+    snapshot.maxPayloadEntries = mMaxPayloadEntries.get();
+    snapshot.payloadBuildCount = mPayloadBuildCount.get();
+    snapshot.payloadBuildTotalNanos = mPayloadBuildTotalNanos.get();
+    snapshot.payloadBuildMaxNanos = mPayloadBuildMaxNanos.get();
+    snapshot.latencyMaxNanos = mLatencyMaxNanos.get();
+    snapshot.solveCount = mSolveCount.get();
+    snapshot.solveTotalNanos = mSolveTotalNanos.get();
+    snapshot.solveMaxNanos = mSolveMaxNanos.get();
+
+    long[] buckets = new long[LATENCY_BUCKETS];
+    long count = 0;
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      buckets[i] = mLatencyBuckets.get(i);
+      count += buckets[i];
+    }
+    snapshot.latencyCount = count;
+    snapshot.latencyP50Ms = percentile(buckets, count, 0.5);
+    snapshot.latencyP90Ms = percentile(buckets, count, 0.9);
+    snapshot.latencyP99Ms = percentile(buckets, count, 0.99);
+    return snapshot;
+  }
+
+  void reset() {
+    mScanCycles.set(0);
+    mRangingCallbacks.set(0);
+    mBeaconsRanged.set(0);
+    mLastCallbackNanos.set(0);
+    mCurrentCycleBeacons.set(0);
+    mLastCycleBeacons.set(0);
+    mMaxCycleBeacons.set(0);
+    mEventsEmitted.set(0);
+    mEventsDroppedNoCatalyst.set(0);
+    mPayloads.set(0);
+    mPayloadEntries.set(0);
+    mMaxPayloadEntries.set(0);
+    mPayloadBuildCount.set(0);
+    mPayloadBuildTotalNanos.set(0);
+    mPayloadBuildMaxNanos.set(0);
+    for (int i = 0; i < LATENCY_BUCKETS; i++) {
+      mLatencyBuckets.set(i, 0);
+    }
+    mLatencyMaxNanos.set(0);
+    mSolveCount.set(0);
+    mSolveTotalNanos.set(0);
+    mSolveMaxNanos.set(0);
+  }
+
+  private static double percentile(long[] buckets, long count, double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(count * percentile);
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        // bucket i holds latencies in [2^(i-1), 2^i) microseconds
+        return (1L << i) / 1000.0;
+      }
+    }
+    return (1L << (buckets.length - 1)) / 1000.0;
+  }
+
+  private static void updateMax(AtomicLong max, long value) {
+    long current;
+    while (value > (current = max.get())) {
+      if (max.compareAndSet(current, value)) {
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,201 @@
+package com.mackentoch.beaconsandroid;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Region;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Records the raw callbacks of the range and monitor notifiers into a scan recording (see
+ * ScanRecording), to replay them later without beacons (see ScanReplayer).
+ *
+ * The callbacks only capture what AltBeacon may change afterwards (the beacon list and rssi),
+ * the recording is written on a dedicated thread, like EventJournal. Recording stops by itself
+ * past `maxBytes`.
+ */
+class ScanRecorder {
+  private static final String LOG_TAG = "BeaconsScanRecorder";
+  static final long DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+  static final class Result {
+    final File file;
+    final int records;
+    final int bytes;
+
+    Result(File file, int records, int bytes) {
+      this.file = file;
+      this.records = records;
+      this.bytes = bytes;
+    }
+  }
+
+  interface StopCallback {
+    void onStop(Result result);
+  }
+
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+  private volatile boolean mRecording;
+  // only touched from the executor thread
+  private ScanRecording.Writer mWriter;
+  private File mFile;
+  private long mMaxBytes;
+  private int mRecords;
+  private int mBytes;
+
+  boolean isRecording() {
+    return mRecording;
+  }
+
+  synchronized void start(final File file, final long maxBytes) throws IOException {
+    if (mRecording) {
+      throw new IllegalStateException("already recording");
+    }
+    File directory = file.getParentFile();
+    if (directory != null && !directory.exists() && !directory.mkdirs()) {
+      throw new IOException("unable to create " + directory);
+    }
+    // opened here so that a bad path is reported to the caller
+    final ScanRecording.Writer writer = new ScanRecording.Writer(
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))
+    );
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        mWriter = writer;
+        mFile = file;
+        mMaxBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES;
+        mRecords = 0;
+        mBytes = 0;
+      }
+    });
+    mRecording = true;
+  }
+
+  synchronized void stop(final StopCallback callback) {
+    mRecording = false;
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        // may have stopped by itself already
+        close();
+        callback.onStop(new Result(mFile, mRecords, mBytes));
+      }
+    });
+  }
+
+  /**
+   * Stops the recording, if any, and the thread once the pending records are written.
+   */
+  synchronized void shutdown() {
+    mRecording = false;
+    if (mExecutor.isShutdown()) {
+      return;
+    }
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        close();
+      }
+    });
+    mExecutor.shutdown();
+  }
+
+  void recordRanging(Collection<Beacon> beacons, final Region region) {
+    final long timeMs = SystemClock.elapsedRealtime();
+    final List<Beacon> snapshot = new ArrayList<>(beacons);
+    final int[] rssis = new int[snapshot.size()];
+    final double[] averageRssis = new double[snapshot.size()];
+    for (int i = 0; i < rssis.length; i++) {
+      Beacon beacon = snapshot.get(i);
+      rssis[i] = beacon.getRssi();
+      averageRssis[i] = beacon.getRunningAverageRssi();
+    }
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (mWriter != null) {
+            mWriter.writeRanging(timeMs, region, snapshot, rssis, averageRssis);
+            onRecorded();
+          }
+        } catch (IOException e) {
+          onError(e);
+        }
+      }
+    });
+  }
+
+  void recordTransition(final Region region, final boolean entered) {
+    final long timeMs = SystemClock.elapsedRealtime();
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (mWriter != null) {
+            mWriter.writeTransition(timeMs, region, entered);
+            onRecorded();
+          }
+        } catch (IOException e) {
+          onError(e);
+        }
+      }
+    });
+  }
+
+  void recordState(final Region region, final int state) {
+    final long timeMs = SystemClock.elapsedRealtime();
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (mWriter != null) {
+            mWriter.writeState(timeMs, region, state);
+            onRecorded();
+          }
+        } catch (IOException e) {
+          onError(e);
+        }
+      }
+    });
+  }
+
+  private void onRecorded() {
+    mRecords++;
+    if (mWriter.size() >= mMaxBytes) {
+      Log.w(LOG_TAG, "recording stopped at " + mWriter.size() + " bytes: " + mFile);
+      mRecording = false;
+      close();
+    }
+  }
+
+  private void onError(IOException e) {
+    Log.e(LOG_TAG, "record, error: ", e);
+    mRecording = false;
+    close();
+  }
+
+  private void close() {
+    if (mWriter == null) {
+      return;
+    }
+    mBytes = mWriter.size();
+    try {
+      mWriter.close();
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "close, error: ", e);
+    }
+    mWriter = null;
+  }
+}
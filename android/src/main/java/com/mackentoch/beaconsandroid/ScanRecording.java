@@ -0,0 +1,328 @@
+package com.mackentoch.beaconsandroid;
+
+import androidx.annotation.Nullable;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+import org.altbeacon.beacon.Region;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compact binary format of the ranging and monitoring callbacks of AltBeacon, read back by
+ * ScanReplayer. Depends on java.io and AltBeacon only, so recordings can be replayed on a
+ * plain JVM as well as on a device.
+ *
+ * Regions and beacon identities are written once, in definition records, and then referred to
+ * by index: a ranging record only costs the time, the region index and, for each beacon, its
+ * index and rssi.
+ *
+ * Layout: int MAGIC, short VERSION, then records starting with a type byte:
+ * - REGION: short index, UTF unique id, 3 UTF identifiers ("" for none)
+ * - BEACON: int index, byte count + UTF identifiers, int tx power, int manufacturer,
+ *   int type code, int service uuid, UTF address ("" for none), UTF parser id ("" for none),
+ *   byte count + long data fields
+ * - RANGING: int ms since the previous record, short region, int count, then per beacon
+ *   int beacon index, short rssi, double running average rssi
+ * - ENTER, EXIT: int ms, short region
+ * - STATE: int ms, short region, byte state
+ */
+class ScanRecording {
+  static final int MAGIC = 0x42534352;
+  static final short VERSION = 1;
+  static final byte TYPE_REGION = 0;
+  static final byte TYPE_BEACON = 1;
+  static final byte TYPE_RANGING = 2;
+  static final byte TYPE_ENTER = 3;
+  static final byte TYPE_EXIT = 4;
+  static final byte TYPE_STATE = 5;
+
+  /**
+   * A replayed callback, `delayMs` after the previous one.
+   */
+  static final class Entry {
+    final byte type;
+    final long delayMs;
+    final Region region;
+    @Nullable final List<Beacon> beacons;
+    final int state;
+
+    Entry(byte type, long delayMs, Region region, @Nullable List<Beacon> beacons, int state) {
+      this.type = type;
+      this.delayMs = delayMs;
+      this.region = region;
+      this.beacons = beacons;
+      this.state = state;
+    }
+  }
+
+  /**
+   * Not thread-safe: ScanRecorder only writes from its executor.
+   */
+  static final class Writer {
+    private final DataOutputStream mOutput;
+    private final HashMap<String, Integer> mRegionIndexes = new HashMap<>();
+    private final List<Region> mRegions = new ArrayList<>();
+    private final HashMap<Beacon, Integer> mBeaconIndexes = new HashMap<>();
+    private long mLastTime = -1;
+
+    Writer(DataOutputStream output) throws IOException {
+      mOutput = output;
+      mOutput.writeInt(MAGIC);
+      mOutput.writeShort(VERSION);
+    }
+
+    /**
+     * @param rssis          rssi of each beacon, captured in the callback: AltBeacon updates
+     *                       its beacons in place
+     * @param averageRssis   running average rssi of each beacon
+     */
+    void writeRanging(long timeMs, Region region, List<Beacon> beacons, int[] rssis, double[] averageRssis) throws IOException {
+      int regionIndex = defineRegion(region);
+      int[] indexes = new int[beacons.size()];
+      for (int i = 0; i < indexes.length; i++) {
+        indexes[i] = defineBeacon(beacons.get(i));
+      }
+      writeHeader(TYPE_RANGING, timeMs, regionIndex);
+      mOutput.writeInt(indexes.length);
+      for (int i = 0; i < indexes.length; i++) {
+        mOutput.writeInt(indexes[i]);
+        mOutput.writeShort(rssis[i]);
+        mOutput.writeDouble(averageRssis[i]);
+      }
+    }
+
+    void writeTransition(long timeMs, Region region, boolean entered) throws IOException {
+      writeHeader(entered ? TYPE_ENTER : TYPE_EXIT, timeMs, defineRegion(region));
+    }
+
+    void writeState(long timeMs, Region region, int state) throws IOException {
+      writeHeader(TYPE_STATE, timeMs, defineRegion(region));
+      mOutput.writeByte(state);
+    }
+
+    void close() throws IOException {
+      mOutput.close();
+    }
+
+    int size() {
+      return mOutput.size();
+    }
+
+    private void writeHeader(byte type, long timeMs, int regionIndex) throws IOException {
+      long delayMs = mLastTime < 0 ? 0 : Math.max(0, timeMs - mLastTime);
+      mLastTime = timeMs;
+      mOutput.writeByte(type);
+      mOutput.writeInt((int) Math.min(Integer.MAX_VALUE, delayMs));
+      mOutput.writeShort(regionIndex);
+    }
+
+    private int defineRegion(Region region) throws IOException {
+      Integer index = mRegionIndexes.get(region.getUniqueId());
+      // a region id redefined with other identifiers gets a new index
+      if (index != null && mRegions.get(index).hasSameIdentifiers(region)) {
+        return index;
+      }
+      index = mRegions.size();
+      mRegions.add(region);
+      mRegionIndexes.put(region.getUniqueId(), index);
+      mOutput.writeByte(TYPE_REGION);
+      mOutput.writeShort(index);
+      mOutput.writeUTF(region.getUniqueId());
+      for (int i = 0; i < 3; i++) {
+        Identifier identifier = region.getIdentifier(i);
+        mOutput.writeUTF(identifier != null ? identifier.toString() : "");
+      }
+      return index;
+    }
+
+    private int defineBeacon(Beacon beacon) throws IOException {
+      Integer index = mBeaconIndexes.get(beacon);
+      if (index != null) {
+        return index;
+      }
+      index = mBeaconIndexes.size();
+      mBeaconIndexes.put(beacon, index);
+      mOutput.writeByte(TYPE_BEACON);
+      mOutput.writeInt(index);
+      writeIdentifiers(beacon.getIdentifiers());
+      mOutput.writeInt(beacon.getTxPower());
+      mOutput.writeInt(beacon.getManufacturer());
+      mOutput.writeInt(beacon.getBeaconTypeCode());
+      mOutput.writeInt(beacon.getServiceUuid());
+      mOutput.writeUTF(beacon.getBluetoothAddress() != null ? beacon.getBluetoothAddress() : "");
+      mOutput.writeUTF(beacon.getParserIdentifier() != null ? beacon.getParserIdentifier() : "");
+      List<Long> dataFields = beacon.getDataFields();
+      int count = dataFields != null ? dataFields.size() : 0;
+      mOutput.writeByte(count);
+      for (int i = 0; i < count; i++) {
+        mOutput.writeLong(dataFields.get(i));
+      }
+      return index;
+    }
+
+    private void writeIdentifiers(List<Identifier> identifiers) throws IOException {
+      mOutput.writeByte(identifiers.size());
+      for (Identifier identifier : identifiers) {
+        mOutput.writeUTF(identifier.toString());
+      }
+    }
+  }
+
+  private static final class BeaconDefinition {
+    List<Identifier> identifiers;
+    int txPower;
+    int manufacturer;
+    int beaconTypeCode;
+    int serviceUuid;
+    String bluetoothAddress;
+    String parserIdentifier;
+    List<Long> dataFields;
+
+    Beacon build(int rssi, double runningAverageRssi) {
+      // a Builder builds a single instance: one per beacon
+      Beacon.Builder builder = new Beacon.Builder()
+        .setIdentifiers(identifiers)
+        .setTxPower(txPower)
+        .setManufacturer(manufacturer)
+        .setBeaconTypeCode(beaconTypeCode)
+        .setServiceUuid(serviceUuid)
+        .setDataFields(dataFields)
+        .setRssi(rssi)
+        .setRunningAverageRssi(runningAverageRssi);
+      if (bluetoothAddress.length() > 0) {
+        builder.setBluetoothAddress(bluetoothAddress);
+      }
+      if (parserIdentifier.length() > 0) {
+        builder.setParserIdentifier(parserIdentifier);
+      }
+      return builder.build();
+    }
+  }
+
+  static final class Reader {
+    private final DataInputStream mInput;
+    private final List<Region> mRegions = new ArrayList<>();
+    private final List<BeaconDefinition> mBeacons = new ArrayList<>();
+
+    Reader(DataInputStream input) throws IOException {
+      mInput = input;
+      if (input.readInt() != MAGIC) {
+        throw new IOException("not a scan recording");
+      }
+      short version = input.readShort();
+      if (version != VERSION) {
+        throw new IOException("unsupported scan recording version: " + version);
+      }
+    }
+
+    /**
+     * @return the next callback, null at the end of the recording
+     */
+    @Nullable
+    Entry next() throws IOException {
+      while (true) {
+        byte type;
+        try {
+          type = mInput.readByte();
+        } catch (EOFException e) {
+          return null;
+        }
+        switch (type) {
+          case TYPE_REGION:
+            readRegion();
+            break;
+          case TYPE_BEACON:
+            readBeacon();
+            break;
+          case TYPE_RANGING:
+          case TYPE_ENTER:
+          case TYPE_EXIT:
+          case TYPE_STATE:
+            return readEntry(type);
+          default:
+            throw new IOException("unknown record type: " + type);
+        }
+      }
+    }
+
+    void close() throws IOException {
+      mInput.close();
+    }
+
+    private Entry readEntry(byte type) throws IOException {
+      long delayMs = mInput.readInt();
+      int regionIndex = mInput.readShort();
+      if (regionIndex < 0 || regionIndex >= mRegions.size()) {
+        throw new IOException("undefined region: " + regionIndex);
+      }
+      Region region = mRegions.get(regionIndex);
+      if (type == TYPE_STATE) {
+        return new Entry(type, delayMs, region, null, mInput.readByte());
+      }
+      if (type != TYPE_RANGING) {
+        return new Entry(type, delayMs, region, null, 0);
+      }
+      int count = mInput.readInt();
+      List<Beacon> beacons = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        int index = mInput.readInt();
+        if (index < 0 || index >= mBeacons.size()) {
+          throw new IOException("undefined beacon: " + index);
+        }
+        // a new beacon for every callback, as AltBeacon does
+        beacons.add(mBeacons.get(index).build(mInput.readShort(), mInput.readDouble()));
+      }
+      return new Entry(type, delayMs, region, beacons, 0);
+    }
+
+    private void readRegion() throws IOException {
+      int index = mInput.readShort();
+      String uniqueId = mInput.readUTF();
+      Identifier[] identifiers = new Identifier[3];
+      for (int i = 0; i < 3; i++) {
+        String identifier = mInput.readUTF();
+        identifiers[i] = identifier.length() > 0 ? Identifier.parse(identifier) : null;
+      }
+      set(mRegions, index, new Region(uniqueId, identifiers[0], identifiers[1], identifiers[2]));
+    }
+
+    private void readBeacon() throws IOException {
+      int index = mInput.readInt();
+      BeaconDefinition definition = new BeaconDefinition();
+      int identifierCount = mInput.readByte();
+      definition.identifiers = new ArrayList<>(identifierCount);
+      for (int i = 0; i < identifierCount; i++) {
+        definition.identifiers.add(Identifier.parse(mInput.readUTF()));
+      }
+      definition.txPower = mInput.readInt();
+      definition.manufacturer = mInput.readInt();
+      definition.beaconTypeCode = mInput.readInt();
+      definition.serviceUuid = mInput.readInt();
+      definition.bluetoothAddress = mInput.readUTF();
+      definition.parserIdentifier = mInput.readUTF();
+      int dataFieldCount = mInput.readByte();
+      definition.dataFields = new ArrayList<>(dataFieldCount);
+      for (int i = 0; i < dataFieldCount; i++) {
+        definition.dataFields.add(mInput.readLong());
+      }
+      set(mBeacons, index, definition);
+    }
+
+    private static <T> void set(List<T> list, int index, T value) throws IOException {
+      if (index == list.size()) {
+        list.add(value);
+      } else if (index >= 0 && index < list.size()) {
+        list.set(index, value);
+      } else {
+        throw new IOException("out of order definition: " + index);
+      }
+    }
+  }
+}
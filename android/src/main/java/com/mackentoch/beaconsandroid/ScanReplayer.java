@@ -0,0 +1,100 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Region;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Feeds a scan recording back to a listener on its own thread, with the recorded delays
+ * divided by `speed` (0 replays as fast as possible). Like ScanRecording, depends on java.io
+ * and AltBeacon only.
+ */
+class ScanReplayer {
+  interface Listener {
+    void onRanging(List<Beacon> beacons, Region region);
+
+    void onTransition(Region region, boolean entered);
+
+    void onState(int state, Region region);
+
+    /**
+     * @param error null when the recording was replayed to its end or the replay cancelled
+     */
+    void onComplete(int entries, long elapsedMs, Exception error);
+  }
+
+  private final Thread mThread;
+  private volatile boolean mCancelled;
+
+  ScanReplayer(final File file, final double speed, final Listener listener) {
+    mThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        replay(file, speed, listener);
+      }
+    }, "ScanReplayer");
+  }
+
+  void start() {
+    mThread.start();
+  }
+
+  void cancel() {
+    mCancelled = true;
+    mThread.interrupt();
+  }
+
+  private void replay(File file, double speed, Listener listener) {
+    int entries = 0;
+    long start = System.nanoTime();
+    // the time each entry is due, so the time spent in the listener doesn't accumulate
+    double dueMs = 0;
+    ScanRecording.Reader reader = null;
+    try {
+      reader = new ScanRecording.Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(file))));
+      ScanRecording.Entry entry;
+      while (!mCancelled && (entry = reader.next()) != null) {
+        if (speed > 0) {
+          dueMs += entry.delayMs / speed;
+          long waitMs = (long) dueMs - (System.nanoTime() - start) / 1000000;
+          if (waitMs > 0) {
+            Thread.sleep(waitMs);
+          }
+        }
+        switch (entry.type) {
+          case ScanRecording.TYPE_RANGING:
+            listener.onRanging(entry.beacons, entry.region);
+            break;
+          case ScanRecording.TYPE_ENTER:
+          case ScanRecording.TYPE_EXIT:
+            listener.onTransition(entry.region, entry.type == ScanRecording.TYPE_ENTER);
+            break;
+          default:
+            listener.onState(entry.state, entry.region);
+            break;
+        }
+        entries++;
+      }
+    } catch (InterruptedException e) {
+      // cancelled
+    } catch (IOException e) {
+      listener.onComplete(entries, (System.nanoTime() - start) / 1000000, e);
+      return;
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          // nothing left to read
+        }
+      }
+    }
+    listener.onComplete(entries, (System.nanoTime() - start) / 1000000, null);
+  }
+}
@@ -0,0 +1,236 @@
+package com.mackentoch.beaconsandroid;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+import org.altbeacon.beacon.Region;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Logical ("virtual") regions matched natively against the beacons ranged in a few wildcard
+ * regions, one per uuid, so that BeaconManager keeps a handful of regions however many
+ * logical regions are monitored.
+ *
+ * Logical regions are indexed by uuid, then major, then minor: matching a beacon costs a
+ * hash lookup and two binary searches, whatever the number of logical regions. A logical
+ * region is entered when one of its beacons is ranged and exited when none was ranged for the
+ * exit timeout; only the regions currently inside are checked for exits.
+ */
+class VirtualRegionIndex {
+  static final String REGION_PREFIX = "virtual:";
+  private static final String ANY_UUID_REGION_ID = REGION_PREFIX + "*";
+  // same default as the region exit period of BeaconManager
+  static final long DEFAULT_EXIT_TIMEOUT_MS = 10000;
+
+  static final class LogicalRegion {
+    final Region region;
+    boolean inside;
+    long lastSeenTime;
+
+    LogicalRegion(Region region) {
+      this.region = region;
+    }
+  }
+
+  static final class Transition {
+    final Region region;
+    final boolean entered;
+
+    Transition(Region region, boolean entered) {
+      this.region = region;
+      this.entered = entered;
+    }
+  }
+
+  private static final class MajorNode {
+    final List<LogicalRegion> anyMinor = new ArrayList<>();
+    final SparseArray<List<LogicalRegion>> byMinor = new SparseArray<>();
+  }
+
+  private static final class UuidNode {
+    final List<LogicalRegion> anyMajor = new ArrayList<>();
+    final SparseArray<MajorNode> byMajor = new SparseArray<>();
+  }
+
+  private final BeaconIdentityCache mIdentityCache;
+  private final HashMap<Identifier, UuidNode> mByUuid = new HashMap<>();
+  @Nullable
+  private UuidNode mAnyUuid;
+  private final Map<String, LogicalRegion> mRegions = new LinkedHashMap<>();
+  private final List<LogicalRegion> mInside = new ArrayList<>();
+  private long mExitTimeoutMs = DEFAULT_EXIT_TIMEOUT_MS;
+
+  VirtualRegionIndex(BeaconIdentityCache identityCache) {
+    mIdentityCache = identityCache;
+  }
+
+  static boolean isVirtualRegion(Region region) {
+    return region.getUniqueId() != null && region.getUniqueId().startsWith(REGION_PREFIX);
+  }
+
+  /**
+   * Replaces the logical regions, regions kept with the same identifiers keep their state.
+   *
+   * @return the wildcard regions to range
+   */
+  synchronized List<Region> setRegions(List<Region> regions, long exitTimeoutMs) {
+    HashSet<String> ids = new HashSet<>();
+    for (Region region : regions) {
+      if (!ids.add(region.getUniqueId())) {
+        throw new IllegalArgumentException("duplicate region identifier: " + region.getUniqueId());
+      }
+      if (region.getId2() == null && region.getId3() != null) {
+        throw new IllegalArgumentException("minor requires a major: " + region.getUniqueId());
+      }
+    }
+    mExitTimeoutMs = exitTimeoutMs > 0 ? exitTimeoutMs : DEFAULT_EXIT_TIMEOUT_MS;
+
+    Map<String, LogicalRegion> previous = new HashMap<>(mRegions);
+    mRegions.clear();
+    mByUuid.clear();
+    mAnyUuid = null;
+    mInside.clear();
+    Map<String, Region> wildcards = new LinkedHashMap<>();
+    for (Region region : regions) {
+      LogicalRegion logical = previous.get(region.getUniqueId());
+      if (logical == null || !logical.region.hasSameIdentifiers(region)) {
+        logical = new LogicalRegion(region);
+      } else if (logical.inside) {
+        mInside.add(logical);
+      }
+      mRegions.put(region.getUniqueId(), logical);
+      index(logical);
+
+      Identifier uuid = region.getId1();
+      String wildcardId = uuid == null ? ANY_UUID_REGION_ID : REGION_PREFIX + mIdentityCache.getUuidString(uuid);
+      if (!wildcards.containsKey(wildcardId)) {
+        wildcards.put(wildcardId, new Region(wildcardId, uuid, null, null));
+      }
+    }
+    return new ArrayList<>(wildcards.values());
+  }
+
+  /**
+   * @return the logical regions entered or exited, null if none
+   */
+  synchronized List<Transition> update(Collection<Beacon> beacons) {
+    List<Transition> transitions = null;
+    long now = SystemClock.elapsedRealtime();
+    for (Beacon beacon : beacons) {
+      BeaconIdentityCache.BeaconIdentity identity = mIdentityCache.get(beacon);
+      transitions = match(mByUuid.get(identity.id1), identity, now, transitions);
+      transitions = match(mAnyUuid, identity, now, transitions);
+    }
+    for (int i = mInside.size() - 1; i >= 0; i--) {
+      LogicalRegion logical = mInside.get(i);
+      if (now - logical.lastSeenTime > mExitTimeoutMs) {
+        logical.inside = false;
+        int last = mInside.size() - 1;
+        mInside.set(i, mInside.get(last));
+        mInside.remove(last);
+        transitions = addTransition(transitions, new Transition(logical.region, false));
+      }
+    }
+    return transitions;
+  }
+
+  synchronized int size() {
+    return mRegions.size();
+  }
+
+  synchronized void clear() {
+    mRegions.clear();
+    mByUuid.clear();
+    mAnyUuid = null;
+    mInside.clear();
+  }
+
+  private void index(LogicalRegion logical) {
+    Region region = logical.region;
+    UuidNode uuidNode;
+    if (region.getId1() == null) {
+      if (mAnyUuid == null) {
+        mAnyUuid = new UuidNode();
+      }
+      uuidNode = mAnyUuid;
+    } else {
+      uuidNode = mByUuid.get(region.getId1());
+      if (uuidNode == null) {
+        uuidNode = new UuidNode();
+        mByUuid.put(region.getId1(), uuidNode);
+      }
+    }
+    if (region.getId2() == null) {
+      uuidNode.anyMajor.add(logical);
+      return;
+    }
+    int major = region.getId2().toInt();
+    MajorNode majorNode = uuidNode.byMajor.get(major);
+    if (majorNode == null) {
+      majorNode = new MajorNode();
+      uuidNode.byMajor.put(major, majorNode);
+    }
+    if (region.getId3() == null) {
+      majorNode.anyMinor.add(logical);
+      return;
+    }
+    int minor = region.getId3().toInt();
+    List<LogicalRegion> minorRegions = majorNode.byMinor.get(minor);
+    if (minorRegions == null) {
+      minorRegions = new ArrayList<>(1);
+      majorNode.byMinor.put(minor, minorRegions);
+    }
+    minorRegions.add(logical);
+  }
+
+  @Nullable
+  private List<Transition> match(@Nullable UuidNode uuidNode, BeaconIdentityCache.BeaconIdentity identity, long now, @Nullable List<Transition> transitions) {
+    if (uuidNode == null) {
+      return transitions;
+    }
+    transitions = mark(uuidNode.anyMajor, now, transitions);
+    if (!identity.hasMajorMinor) {
+      return transitions;
+    }
+    MajorNode majorNode = uuidNode.byMajor.get(identity.major);
+    if (majorNode == null) {
+      return transitions;
+    }
+    transitions = mark(majorNode.anyMinor, now, transitions);
+    List<LogicalRegion> minorRegions = majorNode.byMinor.get(identity.minor);
+    return minorRegions != null ? mark(minorRegions, now, transitions) : transitions;
+  }
+
+  @Nullable
+  private List<Transition> mark(List<LogicalRegion> regions, long now, @Nullable List<Transition> transitions) {
+    for (int i = 0; i < regions.size(); i++) {
+      LogicalRegion logical = regions.get(i);
+      logical.lastSeenTime = now;
+      if (!logical.inside) {
+        logical.inside = true;
+        mInside.add(logical);
+        transitions = addTransition(transitions, new Transition(logical.region, true));
+      }
+    }
+    return transitions;
+  }
+
+  private static List<Transition> addTransition(@Nullable List<Transition> transitions, Transition transition) {
+    if (transitions == null) {
+      transitions = new ArrayList<>();
+    }
+    transitions.add(transition);
+    return transitions;
+  }
+}
@@ -0,0 +1,64 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.mackentoch.beaconsandroid.BeaconIdentityCacheTest.createBeacon;
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveScanSchedulerTest {
+  private static final String UUID = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+  private static final long CYCLE_NANOS = 1100L * 1000000;
+  private static final long REGION_GAP_NANOS = 2L * 1000000;
+
+  @Test
+  public void stableCyclesAreCountedOncePerCycleWhateverTheRegionCount() {
+    AdaptiveScanScheduler scheduler = new AdaptiveScanScheduler(new BeaconIdentityCache());
+    scheduler.configure(0, 10000, 2, 3, 8, 10000);
+    List<Beacon> beacons = Collections.singletonList(createBeacon(UUID, 1, 1, -60));
+    long now = CYCLE_NANOS;
+
+    // the beacon is new
+    assertEquals(AdaptiveScanScheduler.NO_CHANGE, rangeCycle(scheduler, beacons, now, 4));
+    // a cycle is counted once the next one starts: 3 stable cycles of 4 region callbacks each
+    assertEquals(AdaptiveScanScheduler.NO_CHANGE, rangeCycle(scheduler, beacons, now += CYCLE_NANOS, 4));
+    assertEquals(AdaptiveScanScheduler.NO_CHANGE, rangeCycle(scheduler, beacons, now += CYCLE_NANOS, 4));
+    assertEquals(AdaptiveScanScheduler.NO_CHANGE, rangeCycle(scheduler, beacons, now += CYCLE_NANOS, 4));
+    assertEquals(1000, rangeCycle(scheduler, beacons, now += CYCLE_NANOS, 4));
+  }
+
+  @Test
+  public void activityInAnyRegionOfTheCycleResetsTheCount() {
+    AdaptiveScanScheduler scheduler = new AdaptiveScanScheduler(new BeaconIdentityCache());
+    scheduler.configure(0, 10000, 2, 2, 8, 10000);
+    List<Beacon> beacons = Collections.singletonList(createBeacon(UUID, 1, 1, -60));
+    long now = CYCLE_NANOS;
+
+    rangeCycle(scheduler, beacons, now, 2);
+    rangeCycle(scheduler, beacons, now += CYCLE_NANOS, 2);
+    // a new beacon in the second region of the cycle
+    scheduler.onRanging(beacons, now += CYCLE_NANOS);
+    scheduler.onRanging(Collections.singletonList(createBeacon(UUID, 1, 2, -60)), now + REGION_GAP_NANOS);
+
+    assertEquals(AdaptiveScanScheduler.NO_CHANGE, rangeCycle(scheduler, beacons, now += CYCLE_NANOS, 2));
+    assertEquals(AdaptiveScanScheduler.NO_CHANGE, rangeCycle(scheduler, beacons, now += CYCLE_NANOS, 2));
+    assertEquals(1000, rangeCycle(scheduler, beacons, now += CYCLE_NANOS, 2));
+  }
+
+  /**
+   * @return the last period change of the cycle, NO_CHANGE if none
+   */
+  private static long rangeCycle(AdaptiveScanScheduler scheduler, List<Beacon> beacons, long startNanos, int regions) {
+    long change = AdaptiveScanScheduler.NO_CHANGE;
+    for (int i = 0; i < regions; i++) {
+      long period = scheduler.onRanging(beacons, startNanos + i * REGION_GAP_NANOS);
+      if (period != AdaptiveScanScheduler.NO_CHANGE) {
+        change = period;
+      }
+    }
+    return change;
+  }
+}
@@ -0,0 +1,138 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BeaconIdentityCacheTest {
+  private static final String UUID = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+
+  static Beacon createBeacon(String uuid, int major, int minor, int rssi) {
+    return new Beacon.Builder()
+      .setId1(uuid)
+      .setId2(String.valueOf(major))
+      .setId3(String.valueOf(minor))
+      .setTxPower(-59)
+      .setRssi(rssi)
+      .build();
+  }
+
+  static Beacon createEddystoneBeacon(String namespace, String instance) {
+    return new Beacon.Builder()
+      .setIdentifiers(Arrays.asList(Identifier.parse(namespace), Identifier.parse(instance)))
+      .setTxPower(-59)
+      .setRssi(-60)
+      .build();
+  }
+
+  @Test
+  public void getReturnsTheSameIdentityForTheSameIdentifiers() {
+    BeaconIdentityCache cache = new BeaconIdentityCache();
+    BeaconIdentityCache.BeaconIdentity identity = cache.get(createBeacon(UUID, 1, 2, -60));
+
+    assertSame(identity, cache.get(createBeacon(UUID, 1, 2, -70)));
+    assertNotSame(identity, cache.get(createBeacon(UUID, 1, 3, -60)));
+    assertEquals(UUID, identity.uuid);
+    assertEquals(1, identity.major);
+    assertEquals(2, identity.minor);
+  }
+
+  @Test
+  public void eddystoneInstancesOfTheSameNamespaceAreDistinct() {
+    BeaconIdentityCache cache = new BeaconIdentityCache();
+    BeaconIdentityCache.BeaconIdentity first = cache.get(createEddystoneBeacon("0x00010203040506070809", "0x0a0b0c0d0e0f"));
+    BeaconIdentityCache.BeaconIdentity second = cache.get(createEddystoneBeacon("0x00010203040506070809", "0x0a0b0c0d0e10"));
+
+    assertNotSame(first, second);
+    assertFalse(first.handle == second.handle);
+    assertFalse(first.hasMajorMinor);
+    assertSame(first, cache.get(createEddystoneBeacon("0x00010203040506070809", "0x0a0b0c0d0e0f")));
+  }
+
+  @Test
+  public void identifiersWiderThanTwoBytesHaveNoMajorMinor() {
+    BeaconIdentityCache cache = new BeaconIdentityCache();
+    BeaconIdentityCache.BeaconIdentity identity = cache.get(new Beacon.Builder()
+      .setIdentifiers(Arrays.asList(Identifier.parse(UUID), Identifier.parse("0x01020304"), Identifier.fromInt(7)))
+      .build());
+
+    assertFalse(identity.hasMajorMinor);
+    assertEquals(3, identity.identifiers.length);
+  }
+
+  @Test
+  public void getEvictsTheLeastRecentlySeenIdentity() {
+    BeaconIdentityCache cache = new BeaconIdentityCache(2);
+    BeaconIdentityCache.BeaconIdentity first = cache.get(createBeacon(UUID, 1, 1, -60));
+    BeaconIdentityCache.BeaconIdentity second = cache.get(createBeacon(UUID, 1, 2, -60));
+    cache.get(createBeacon(UUID, 1, 1, -60));
+    BeaconIdentityCache.BeaconIdentity third = cache.get(createBeacon(UUID, 1, 3, -60));
+
+    assertTrue(cache.isRegistered(first));
+    assertTrue(!cache.isRegistered(second));
+    assertEquals(second.handle, third.handle);
+  }
+
+  @Test
+  public void beaconsWithoutIdentifiersAreLeftOut() {
+    Beacon identified = createBeacon(UUID, 1, 2, -60);
+    Beacon unidentified = new Beacon.Builder()
+      .setIdentifiers(Collections.<Identifier>emptyList())
+      .setRssi(-60)
+      .build();
+
+    List<Beacon> beacons = BeaconIdentityCache.getIdentifiedBeacons(Arrays.asList(unidentified, identified));
+    assertEquals(Collections.singletonList(identified), beacons);
+    try {
+      new BeaconIdentityCache().get(unidentified);
+      fail("identity of a beacon without identifiers");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test
+  public void getOfKnownBeaconsDoesNotAllocate() {
+    // escape analysis, which this relies on, can be defeated by the profiles of other tests in the same JVM
+    Assume.assumeTrue(Boolean.getBoolean("beacons.benchmark"));
+    BeaconIdentityCache cache = new BeaconIdentityCache();
+    List<Beacon> beacons = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      beacons.add(createBeacon(UUID, i / 10, i, -60));
+    }
+    int sink = 0;
+    for (int cycle = 0; cycle < 20000; cycle++) {
+      sink += getAll(cache, beacons);
+    }
+
+    int cycles = 1000;
+    long before = PipelineBenchmark.getAllocatedBytes();
+    for (int cycle = 0; cycle < cycles; cycle++) {
+      sink += getAll(cache, beacons);
+    }
+    long allocated = PipelineBenchmark.getAllocatedBytes() - before;
+
+    assertTrue(sink != 0);
+    assertTrue("allocated " + allocated + " bytes", allocated < (long) cycles * beacons.size());
+  }
+
+  private static int getAll(BeaconIdentityCache cache, List<Beacon> beacons) {
+    int sink = 0;
+    for (int i = 0; i < beacons.size(); i++) {
+      sink += cache.get(beacons.get(i)).handle;
+    }
+    return sink;
+  }
+}
@@ -0,0 +1,126 @@
+package com.mackentoch.beaconsandroid;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventDispatcherTest {
+
+  @Test
+  public void blockPolicyDropsTheOldestTaskAfterMaxBlock() throws InterruptedException {
+    EventDispatcher dispatcher = new EventDispatcher();
+    dispatcher.configure(EventDispatcher.POLICY_BLOCK, 1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    dispatcher.dispatch(null, new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        awaitQuietly(release);
+      }
+    });
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    Runnable count = new Runnable() {
+      @Override
+      public void run() {
+      }
+    };
+    // fills the queue
+    dispatcher.dispatch(null, count);
+
+    long start = System.nanoTime();
+    dispatcher.dispatch(null, count);
+    long blockedMs = (System.nanoTime() - start) / 1000000;
+
+    assertTrue("blocked " + blockedMs + " ms", blockedMs >= EventDispatcher.MAX_BLOCK_MS - 10);
+    assertTrue("blocked " + blockedMs + " ms", blockedMs < EventDispatcher.MAX_BLOCK_MS * 10);
+    assertEquals(1, dispatcher.getStats().dropped);
+    release.countDown();
+    dispatcher.shutdown();
+  }
+
+  @Test
+  public void shutdownDropsQueuedAndLaterTasks() throws InterruptedException {
+    EventDispatcher dispatcher = new EventDispatcher();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger ran = new AtomicInteger();
+    dispatcher.dispatch(null, new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        awaitQuietly(release);
+      }
+    });
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    Runnable count = new Runnable() {
+      @Override
+      public void run() {
+        ran.incrementAndGet();
+      }
+    };
+    dispatcher.dispatch(null, count);
+
+    dispatcher.shutdown();
+    release.countDown();
+    dispatcher.dispatch(null, count);
+    Thread.sleep(50);
+
+    assertEquals(0, ran.get());
+    assertEquals(2, dispatcher.getStats().dropped);
+  }
+
+  @Test
+  public void coalescePolicyOnlyReplacesTasksWhenTheQueueIsFull() throws InterruptedException {
+    EventDispatcher dispatcher = new EventDispatcher();
+    dispatcher.configure(EventDispatcher.POLICY_COALESCE, 2);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    dispatcher.dispatch(null, new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        awaitQuietly(release);
+      }
+    });
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    final StringBuffer ran = new StringBuffer();
+    final CountDownLatch done = new CountDownLatch(2);
+    dispatcher.dispatch("region", createAppender(ran, "1", done));
+    dispatcher.dispatch("region", createAppender(ran, "2", done));
+    assertEquals(0, dispatcher.getStats().coalesced);
+
+    // full: replaces the last queued task of the region
+    dispatcher.dispatch("region", createAppender(ran, "3", done));
+    release.countDown();
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertEquals("13", ran.toString());
+    assertEquals(1, dispatcher.getStats().coalesced);
+    assertEquals(0, dispatcher.getStats().dropped);
+    dispatcher.shutdown();
+  }
+
+  private static Runnable createAppender(final StringBuffer buffer, final String value, final CountDownLatch done) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        buffer.append(value);
+        done.countDown();
+      }
+    };
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.mackentoch.beaconsandroid;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static com.mackentoch.beaconsandroid.BeaconIdentityCacheTest.createBeacon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LastSeenBeaconStoreTest {
+  private static final String UUID = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+
+  @Test
+  public void removeDropsTheEntriesOfTheRegion() {
+    LastSeenBeaconStore store = new LastSeenBeaconStore(new BeaconIdentityCache());
+    store.update("a", Collections.singletonList(createBeacon(UUID, 1, 1, -60)), 1000, 1000);
+    store.update("b", Collections.singletonList(createBeacon(UUID, 1, 2, -60)), 1000, 1000);
+
+    store.remove("a");
+    assertTrue(store.get("a", 0).isEmpty());
+    assertEquals(1, store.get("b", 0).size());
+  }
+
+  @Test
+  public void updateExpiresTheEntriesOfRegionsNoLongerRanged() {
+    LastSeenBeaconStore store = new LastSeenBeaconStore(new BeaconIdentityCache());
+    store.update("a", Collections.singletonList(createBeacon(UUID, 1, 1, -60)), 1000, 1000);
+    long later = 1001 + LastSeenBeaconStore.DEFAULT_TTL_MS;
+    store.update("b", Collections.singletonList(createBeacon(UUID, 1, 2, -60)), later, later);
+
+    List<LastSeenBeaconStore.Entry> entries = store.get(null, 0);
+    assertEquals(1, entries.size());
+    assertEquals("b", entries.get(0).regionId);
+  }
+
+  @Test
+  public void updateDropsTheOldestEntriesBeyondMaxEntries() {
+    LastSeenBeaconStore store = new LastSeenBeaconStore(new BeaconIdentityCache(), 2);
+    store.update("a", Collections.singletonList(createBeacon(UUID, 1, 1, -60)), 1000, 1000);
+    store.update("b", Collections.singletonList(createBeacon(UUID, 1, 2, -60)), 2000, 2000);
+    store.update("c", Collections.singletonList(createBeacon(UUID, 1, 3, -60)), 3000, 3000);
+
+    assertTrue(store.get("a", 0).isEmpty());
+    assertEquals(1, store.get("b", 0).size());
+    assertEquals(1, store.get("c", 0).size());
+  }
+}
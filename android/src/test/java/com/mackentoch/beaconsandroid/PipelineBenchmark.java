@@ -0,0 +1,153 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Region;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Micro benchmarks of the ranging pipeline against synthetic beacons, on the JVM. Each case is
+ * warmed up, then run for a fixed time, reporting the time and the bytes allocated per
+ * operation by the benchmark thread.
+ *
+ * Each case gets its own state (identity cache, payload builder) from its Factory, so that
+ * nothing is shared with another case, or with a running module.
+ */
+class PipelineBenchmark {
+  static final int[] DEFAULT_BEACON_COUNTS = {1, 50, 500, 5000};
+  static final long DEFAULT_WARMUP_MS = 200;
+  static final long DEFAULT_MEASURE_MS = 1000;
+  private static final String UUID_PREFIX = "2f234454-cf6d-4a0f-adf2-";
+
+  /**
+   * Synthetic input of a benchmark case: `count` beacons spread over 4 uuids, a region per
+   * beacon, and the same identifiers as strings, as JS sends them.
+   */
+  static final class Dataset {
+    final Region region;
+    final List<Beacon> beacons;
+    final List<Region> regions;
+    final String[] uuids;
+    final String[] majors;
+    final String[] minors;
+
+    Dataset(int count) {
+      Random random = new Random(count);
+      region = new Region("benchmark", null, null, null);
+      beacons = new ArrayList<>(count);
+      regions = new ArrayList<>(count);
+      uuids = new String[count];
+      majors = new String[count];
+      minors = new String[count];
+      for (int i = 0; i < count; i++) {
+        uuids[i] = UUID_PREFIX + String.format(Locale.US, "%012x", i % 4);
+        majors[i] = String.valueOf(i / 4 % 65536);
+        minors[i] = String.valueOf(i % 65536);
+        beacons.add(new Beacon.Builder()
+          .setId1(uuids[i])
+          .setId2(majors[i])
+          .setId3(minors[i])
+          .setTxPower(-59)
+          .setRssi(-40 - random.nextInt(60))
+          .setManufacturer(0x004c)
+          .setBeaconTypeCode(0x0215)
+          .build());
+        Beacon beacon = beacons.get(i);
+        regions.add(new Region("region" + i, beacon.getId1(), beacon.getId2(), beacon.getId3()));
+      }
+    }
+  }
+
+  interface Operation {
+    /**
+     * @return any value derived from the result, so the work can't be optimized away
+     */
+    int run(Dataset dataset);
+  }
+
+  interface Factory {
+    /**
+     * @return a new operation, with its own state, for the given dataset
+     */
+    Operation create(Dataset dataset);
+  }
+
+  static final class Result {
+    final String name;
+    final int beacons;
+    final long operations;
+    final double nanosPerOperation;
+    final double bytesPerOperation;
+
+    Result(String name, int beacons, long operations, double nanosPerOperation, double bytesPerOperation) {
+      this.name = name;
+      this.beacons = beacons;
+      this.operations = operations;
+      this.nanosPerOperation = nanosPerOperation;
+      this.bytesPerOperation = bytesPerOperation;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US, "%-28s %5d beacons %12.0f ns/op %12.1f B/op", name, beacons, nanosPerOperation, bytesPerOperation);
+    }
+  }
+
+  private final List<String> mNames = new ArrayList<>();
+  private final List<Factory> mFactories = new ArrayList<>();
+  private int mSink;
+
+  void add(String name, Factory factory) {
+    mNames.add(name);
+    mFactories.add(factory);
+  }
+
+  /**
+   * Runs every case at every beacon count, on the calling thread.
+   */
+  List<Result> run(int[] beaconCounts, long warmupMs, long measureMs) {
+    List<Result> results = new ArrayList<>();
+    for (int count : beaconCounts) {
+      Dataset dataset = new Dataset(count);
+      for (int i = 0; i < mFactories.size(); i++) {
+        Operation operation = mFactories.get(i).create(dataset);
+        results.add(measure(mNames.get(i), operation, dataset, warmupMs, measureMs));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * @return the bytes allocated so far by the calling thread
+   */
+  static long getAllocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+      .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private Result measure(String name, Operation operation, Dataset dataset, long warmupMs, long measureMs) {
+    runFor(operation, dataset, warmupMs * 1000000);
+
+    long allocatedBefore = getAllocatedBytes();
+    long start = System.nanoTime();
+    long operations = runFor(operation, dataset, measureMs * 1000000);
+    long elapsed = System.nanoTime() - start;
+    long allocated = getAllocatedBytes() - allocatedBefore;
+
+    return new Result(name, dataset.beacons.size(), operations, (double) elapsed / operations, (double) allocated / operations);
+  }
+
+  private long runFor(Operation operation, Dataset dataset, long nanos) {
+    long operations = 0;
+    long end = System.nanoTime() + nanos;
+    do {
+      mSink += operation.run(dataset);
+      operations++;
+    } while (System.nanoTime() < end);
+    return operations;
+  }
+}
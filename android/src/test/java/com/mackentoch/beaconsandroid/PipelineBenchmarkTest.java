@@ -0,0 +1,211 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+import org.altbeacon.beacon.distance.DistanceCalculator;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Runs the pipeline benchmarks, only with -Dbeacons.benchmark=true:
+ * `./gradlew test --tests '*PipelineBenchmarkTest' -Dbeacons.benchmark=true`
+ */
+public class PipelineBenchmarkTest {
+  private static final int TX_POWER = -59;
+  private static final double PATH_LOSS_EXPONENT = 2.0;
+  private static final double RSSI_NOISE = 3.0;
+  // meters between two anchors of the grid
+  private static final double ANCHOR_SPACING = 2.0;
+  private static final int RECORDED_CYCLES = 10;
+  private static final long CYCLE_MS = 1000;
+
+  @Test
+  public void runBenchmarks() {
+    Assume.assumeTrue(Boolean.getBoolean("beacons.benchmark"));
+    // the log-distance path loss the recorded rssis are simulated with
+    Beacon.setDistanceCalculator(new DistanceCalculator() {
+      @Override
+      public double calculateDistance(int txPower, double rssi) {
+        return Math.pow(10, (txPower - rssi) / (10 * PATH_LOSS_EXPONENT));
+      }
+    });
+    try {
+      run();
+    } finally {
+      Beacon.setDistanceCalculator(null);
+    }
+  }
+
+  private void run() {
+    PipelineBenchmark benchmark = new PipelineBenchmark();
+    benchmark.add("createRangingResponse", new PipelineBenchmark.Factory() {
+      @Override
+      public PipelineBenchmark.Operation create(PipelineBenchmark.Dataset dataset) {
+        final EventPayloadBuilder builder = new EventPayloadBuilder(
+          new BeaconIdentityCache(Math.max(dataset.beacons.size(), BeaconIdentityCache.DEFAULT_MAX_SIZE)),
+          PayloadFactory.JAVA_ONLY);
+        return new PipelineBenchmark.Operation() {
+          @Override
+          public int run(PipelineBenchmark.Dataset dataset) {
+            return builder.createRangingResponse(dataset.beacons, dataset.region, false) != null ? 1 : 0;
+          }
+        };
+      }
+    });
+    benchmark.add("createRangingResponse/handles", new PipelineBenchmark.Factory() {
+      @Override
+      public PipelineBenchmark.Operation create(PipelineBenchmark.Dataset dataset) {
+        final EventPayloadBuilder builder = new EventPayloadBuilder(
+          new BeaconIdentityCache(Math.max(dataset.beacons.size(), BeaconIdentityCache.DEFAULT_MAX_SIZE)),
+          PayloadFactory.JAVA_ONLY);
+        return new PipelineBenchmark.Operation() {
+          @Override
+          public int run(PipelineBenchmark.Dataset dataset) {
+            return builder.createRangingResponse(dataset.beacons, dataset.region, true) != null ? 1 : 0;
+          }
+        };
+      }
+    });
+    benchmark.add("createMonitoringResponse", new PipelineBenchmark.Factory() {
+      @Override
+      public PipelineBenchmark.Operation create(PipelineBenchmark.Dataset dataset) {
+        final EventPayloadBuilder builder = new EventPayloadBuilder(new BeaconIdentityCache(), PayloadFactory.JAVA_ONLY);
+        return new PipelineBenchmark.Operation() {
+          @Override
+          public int run(PipelineBenchmark.Dataset dataset) {
+            int sink = 0;
+            for (int i = 0; i < dataset.regions.size(); i++) {
+              sink += builder.createMonitoringResponse(dataset.regions.get(i)) != null ? 1 : 0;
+            }
+            return sink;
+          }
+        };
+      }
+    });
+    benchmark.add("getProximity", new PipelineBenchmark.Factory() {
+      @Override
+      public PipelineBenchmark.Operation create(PipelineBenchmark.Dataset dataset) {
+        return new PipelineBenchmark.Operation() {
+          @Override
+          public int run(PipelineBenchmark.Dataset dataset) {
+            int sink = 0;
+            for (int i = 0; i < dataset.beacons.size(); i++) {
+              sink += EventPayloadBuilder.getProximity(EventPayloadBuilder.getSafeDistance(dataset.beacons.get(i))).length();
+            }
+            return sink;
+          }
+        };
+      }
+    });
+    benchmark.add("Identifier.parse", new PipelineBenchmark.Factory() {
+      @Override
+      public PipelineBenchmark.Operation create(PipelineBenchmark.Dataset dataset) {
+        return new PipelineBenchmark.Operation() {
+          @Override
+          public int run(PipelineBenchmark.Dataset dataset) {
+            int sink = 0;
+            for (int i = 0; i < dataset.uuids.length; i++) {
+              sink += Identifier.parse(dataset.uuids[i]).hashCode()
+                + Identifier.parse(dataset.majors[i]).hashCode()
+                + Identifier.parse(dataset.minors[i]).hashCode();
+            }
+            return sink;
+          }
+        };
+      }
+    });
+    benchmark.add("PositionEngine.solve/recording", new PipelineBenchmark.Factory() {
+      @Override
+      public PipelineBenchmark.Operation create(PipelineBenchmark.Dataset dataset) {
+        BeaconIdentityCache cache = new BeaconIdentityCache(Math.max(dataset.beacons.size(), BeaconIdentityCache.DEFAULT_MAX_SIZE));
+        final PositionEngine engine = new PositionEngine(cache);
+        engine.configure(createAnchorGrid(dataset), PositionEngine.DEFAULT_MAX_AGE_MS, PositionEngine.DEFAULT_MIN_ANCHORS);
+        final List<ScanRecording.Entry> cycles = replayRecording(dataset);
+        return new PipelineBenchmark.Operation() {
+          private int mCycle;
+          private long mNow;
+
+          @Override
+          public int run(PipelineBenchmark.Dataset dataset) {
+            ScanRecording.Entry entry = cycles.get(mCycle);
+            mCycle = (mCycle + 1) % cycles.size();
+            mNow += CYCLE_MS;
+            engine.update(entry.beacons, null, mNow);
+            PositionEngine.Position position = engine.solve(mNow);
+            return position != null ? position.anchors : 0;
+          }
+        };
+      }
+    });
+
+    List<PipelineBenchmark.Result> results = benchmark.run(
+      PipelineBenchmark.DEFAULT_BEACON_COUNTS,
+      PipelineBenchmark.DEFAULT_WARMUP_MS,
+      PipelineBenchmark.DEFAULT_MEASURE_MS);
+    for (PipelineBenchmark.Result result : results) {
+      System.out.println(result);
+    }
+    assertFalse(results.isEmpty());
+  }
+
+  /**
+   * An anchor per beacon of the dataset, on a square grid.
+   */
+  private static List<PositionEngine.Anchor> createAnchorGrid(PipelineBenchmark.Dataset dataset) {
+    int side = (int) Math.ceil(Math.sqrt(dataset.beacons.size()));
+    List<PositionEngine.Anchor> anchors = new ArrayList<>(dataset.beacons.size());
+    for (int i = 0; i < dataset.beacons.size(); i++) {
+      anchors.add(new PositionEngine.Anchor(Identifier.parse(dataset.uuids[i]), Integer.parseInt(dataset.majors[i]),
+        Integer.parseInt(dataset.minors[i]), i % side * ANCHOR_SPACING, i / side * ANCHOR_SPACING, 0));
+    }
+    return anchors;
+  }
+
+  /**
+   * Records the ranging cycles of a device standing in the middle of the anchor grid, then
+   * reads them back as ScanReplayer does.
+   */
+  private static List<ScanRecording.Entry> replayRecording(PipelineBenchmark.Dataset dataset) {
+    int count = dataset.beacons.size();
+    int side = (int) Math.ceil(Math.sqrt(count));
+    double center = (side - 1) * ANCHOR_SPACING / 2;
+    Random random = new Random(count);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ScanRecording.Writer writer = new ScanRecording.Writer(new DataOutputStream(bytes));
+      for (int cycle = 0; cycle < RECORDED_CYCLES; cycle++) {
+        int[] rssis = new int[count];
+        double[] averageRssis = new double[count];
+        for (int i = 0; i < count; i++) {
+          double distance = Math.max(0.5, Math.hypot(i % side * ANCHOR_SPACING - center, i / side * ANCHOR_SPACING - center));
+          double rssi = TX_POWER - 10 * PATH_LOSS_EXPONENT * Math.log10(distance) + random.nextGaussian() * RSSI_NOISE;
+          rssis[i] = (int) Math.round(rssi);
+          averageRssis[i] = rssi;
+        }
+        writer.writeRanging(cycle * CYCLE_MS, dataset.region, dataset.beacons, rssis, averageRssis);
+      }
+      writer.close();
+
+      ScanRecording.Reader reader = new ScanRecording.Reader(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+      List<ScanRecording.Entry> cycles = new ArrayList<>(RECORDED_CYCLES);
+      ScanRecording.Entry entry;
+      while ((entry = reader.next()) != null) {
+        cycles.add(entry);
+      }
+      return cycles;
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
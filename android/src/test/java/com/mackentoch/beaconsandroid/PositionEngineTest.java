@@ -0,0 +1,135 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+import org.altbeacon.beacon.distance.DistanceCalculator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Solves positions from a simulated dataset: a device standing in a 10 x 10 m room with an
+ * anchor in each corner, ranged once a second with a log-distance path loss and gaussian rssi
+ * noise.
+ */
+public class PositionEngineTest {
+  private static final String UUID = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+  private static final int TX_POWER = -59;
+  private static final double PATH_LOSS_EXPONENT = 2.0;
+  private static final double RSSI_NOISE = 3.0;
+  private static final double[][] ANCHORS = {{0, 0}, {10, 0}, {0, 10}, {10, 10}};
+  private static final double DEVICE_X = 3;
+  private static final double DEVICE_Y = 4;
+  private static final int CYCLES = 60;
+  private static final long CYCLE_MS = 1000;
+
+  @Before
+  public void setUp() {
+    Beacon.setDistanceCalculator(new DistanceCalculator() {
+      @Override
+      public double calculateDistance(int txPower, double rssi) {
+        return Math.pow(10, (txPower - rssi) / (10 * PATH_LOSS_EXPONENT));
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    Beacon.setDistanceCalculator(null);
+  }
+
+  @Test
+  public void noiselessDistancesSolveTheDevicePosition() {
+    // only rounded to whole dBm
+    PositionEngine engine = createEngine(new BeaconIdentityCache());
+    engine.update(rangeCycle(new Random(1), 0), null, 1000);
+
+    PositionEngine.Position position = engine.solve(1000);
+    assertNotNull(position);
+    assertEquals(DEVICE_X, position.x, 0.5);
+    assertEquals(DEVICE_Y, position.y, 0.5);
+    assertEquals(4, position.anchors);
+  }
+
+  @Test
+  public void smoothedDistancesOfTheCurrentCycleReduceThePositionError() {
+    BeaconIdentityCache rawCache = new BeaconIdentityCache();
+    PositionEngine raw = createEngine(rawCache);
+    BeaconIdentityCache smoothedCache = new BeaconIdentityCache();
+    PositionEngine smoothed = createEngine(smoothedCache);
+    ProximityTracker tracker = new ProximityTracker(smoothedCache);
+    Random random = new Random(42);
+
+    double rawError = 0;
+    double smoothedError = 0;
+    int solved = 0;
+    for (int cycle = 1; cycle <= CYCLES; cycle++) {
+      long now = cycle * CYCLE_MS;
+      List<Beacon> beacons = rangeCycle(random, RSSI_NOISE);
+      raw.update(beacons, null, now);
+      // as in processRanging: the tracker is updated before the position engine reads it
+      tracker.update(beacons, now);
+      smoothed.update(beacons, tracker, now);
+      // the smoothing needs a few cycles to converge
+      if (cycle > 10) {
+        rawError += getError(raw.solve(now));
+        smoothedError += getError(smoothed.solve(now));
+        solved++;
+      }
+    }
+    rawError /= solved;
+    smoothedError /= solved;
+    assertTrue("smoothed " + smoothedError + " m, raw " + rawError + " m", smoothedError < rawError);
+    assertTrue("smoothed " + smoothedError + " m", smoothedError < 1.5);
+  }
+
+  @Test
+  public void anchorsOlderThanMaxAgeAreLeftOut() {
+    PositionEngine engine = createEngine(new BeaconIdentityCache());
+    engine.update(rangeCycle(new Random(1), 0), null, 1000);
+
+    assertNotNull(engine.solve(1000 + PositionEngine.DEFAULT_MAX_AGE_MS));
+    assertNull(engine.solve(1001 + PositionEngine.DEFAULT_MAX_AGE_MS));
+  }
+
+  private static PositionEngine createEngine(BeaconIdentityCache cache) {
+    List<PositionEngine.Anchor> anchors = new ArrayList<>();
+    for (int i = 0; i < ANCHORS.length; i++) {
+      anchors.add(new PositionEngine.Anchor(Identifier.parse(UUID), 1, i, ANCHORS[i][0], ANCHORS[i][1], 0));
+    }
+    PositionEngine engine = new PositionEngine(cache);
+    engine.configure(anchors, PositionEngine.DEFAULT_MAX_AGE_MS, PositionEngine.DEFAULT_MIN_ANCHORS);
+    return engine;
+  }
+
+  private static List<Beacon> rangeCycle(Random random, double rssiNoise) {
+    Beacon[] beacons = new Beacon[ANCHORS.length];
+    for (int i = 0; i < ANCHORS.length; i++) {
+      double distance = Math.hypot(DEVICE_X - ANCHORS[i][0], DEVICE_Y - ANCHORS[i][1]);
+      double rssi = TX_POWER - 10 * PATH_LOSS_EXPONENT * Math.log10(distance) + random.nextGaussian() * rssiNoise;
+      beacons[i] = new Beacon.Builder()
+        .setId1(UUID)
+        .setId2("1")
+        .setId3(String.valueOf(i))
+        .setRssi((int) Math.round(rssi))
+        .setTxPower(TX_POWER)
+        .build();
+    }
+    return Arrays.asList(beacons);
+  }
+
+  private static double getError(PositionEngine.Position position) {
+    assertNotNull(position);
+    return Math.hypot(position.x - DEVICE_X, position.y - DEVICE_Y);
+  }
+}
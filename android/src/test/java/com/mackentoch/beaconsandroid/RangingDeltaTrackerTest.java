@@ -0,0 +1,83 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.mackentoch.beaconsandroid.BeaconIdentityCacheTest.createBeacon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RangingDeltaTrackerTest {
+  private static final String UUID = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+
+  @Test
+  public void updateReportsAddedUpdatedAndRemovedBeacons() {
+    BeaconIdentityCache cache = new BeaconIdentityCache();
+    RangingDeltaTracker tracker = new RangingDeltaTracker(cache);
+    Beacon a = createBeacon(UUID, 1, 1, -60);
+    Beacon b = createBeacon(UUID, 1, 2, -60);
+
+    RangingDeltaTracker.Delta delta = tracker.update("region", Arrays.asList(a, b));
+    assertEquals(Arrays.asList(a, b), delta.added);
+    assertTrue(delta.updated.isEmpty());
+    assertTrue(delta.removed.isEmpty());
+
+    // under the rssi threshold
+    delta = tracker.update("region", Arrays.asList(createBeacon(UUID, 1, 1, -61), b));
+    assertTrue(delta.isEmpty());
+
+    Beacon moved = createBeacon(UUID, 1, 1, -60 - RangingDeltaTracker.DEFAULT_RSSI_THRESHOLD);
+    delta = tracker.update("region", Collections.singletonList(moved));
+    assertTrue(delta.added.isEmpty());
+    assertEquals(Collections.singletonList(moved), delta.updated);
+    assertEquals(1, delta.removed.size());
+    assertSame(cache.get(b), delta.removed.get(0));
+
+    delta = tracker.update("region", Collections.<Beacon>emptyList());
+    assertEquals(1, delta.removed.size());
+    assertSame(cache.get(a), delta.removed.get(0));
+  }
+
+  @Test
+  public void regionsAreTrackedSeparately() {
+    RangingDeltaTracker tracker = new RangingDeltaTracker(new BeaconIdentityCache());
+    Beacon a = createBeacon(UUID, 1, 1, -60);
+
+    tracker.update("first", Collections.singletonList(a));
+    RangingDeltaTracker.Delta delta = tracker.update("second", Collections.singletonList(a));
+
+    assertEquals(Collections.singletonList(a), delta.added);
+  }
+
+  @Test
+  public void steadyStateUpdateDoesNotAllocate() {
+    // escape analysis, which this relies on, can be defeated by the profiles of other tests in the same JVM
+    Assume.assumeTrue(Boolean.getBoolean("beacons.benchmark"));
+    RangingDeltaTracker tracker = new RangingDeltaTracker(new BeaconIdentityCache());
+    List<Beacon> beacons = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      beacons.add(createBeacon(UUID, i / 10, i, -60));
+    }
+    int sink = 0;
+    for (int cycle = 0; cycle < 20000; cycle++) {
+      sink += tracker.update("region", beacons).added.size();
+    }
+
+    int cycles = 1000;
+    long before = PipelineBenchmark.getAllocatedBytes();
+    for (int cycle = 0; cycle < cycles; cycle++) {
+      sink += tracker.update("region", beacons).updated.size();
+    }
+    long allocated = PipelineBenchmark.getAllocatedBytes() - before;
+
+    assertEquals(beacons.size(), sink);
+    assertTrue("allocated " + allocated + " bytes", allocated < cycles);
+  }
+}
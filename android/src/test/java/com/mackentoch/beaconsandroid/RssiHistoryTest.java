@@ -0,0 +1,38 @@
+package com.mackentoch.beaconsandroid;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.mackentoch.beaconsandroid.BeaconIdentityCacheTest.createBeacon;
+import static org.junit.Assert.assertEquals;
+
+public class RssiHistoryTest {
+  private static final String UUID = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+
+  @Test
+  public void samplesAreStampedWithTheCallbackTime() {
+    RssiHistory history = new RssiHistory(new BeaconIdentityCache());
+    // the worker may run the updates of several callbacks back to back: the slope uses their times
+    for (int i = 0; i < 5; i++) {
+      history.update(Collections.singletonList(createBeacon(UUID, 1, 1, -80 + 2 * i)), 10000 + i * 1000L);
+    }
+
+    RssiHistory.Stats stats = history.getStats(UUID + "/1/1", 0);
+    assertEquals(5, stats.count);
+    assertEquals(-76, stats.mean, 1e-9);
+    assertEquals(2, stats.slope, 1e-9);
+    assertEquals(4000, stats.spanMs);
+  }
+
+  @Test
+  public void samplesCloserThanTheMinimumIntervalAreDropped() {
+    RssiHistory history = new RssiHistory(new BeaconIdentityCache());
+    history.update(Collections.singletonList(createBeacon(UUID, 1, 1, -70)), 10000);
+    history.update(Collections.singletonList(createBeacon(UUID, 1, 1, -50)), 10010);
+
+    RssiHistory.Stats stats = history.getStats(UUID + "/1/1", 0);
+    assertEquals(1, stats.count);
+    assertEquals(-70, stats.mean, 1e-9);
+  }
+}
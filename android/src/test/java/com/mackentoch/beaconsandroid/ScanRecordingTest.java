@@ -0,0 +1,121 @@
+package com.mackentoch.beaconsandroid;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Identifier;
+import org.altbeacon.beacon.MonitorNotifier;
+import org.altbeacon.beacon.Region;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.mackentoch.beaconsandroid.BeaconIdentityCacheTest.createBeacon;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScanRecordingTest {
+  static final String UUID = "2f234454-cf6d-4a0f-adf2-f4911ba9ffa6";
+  static final Region REGION = new Region("region", Identifier.parse(UUID), null, null);
+
+  static Beacon createEddystoneBeacon(int rssi) {
+    return new Beacon.Builder()
+      .setIdentifiers(Arrays.asList(Identifier.parse("0x00010203040506070809"), Identifier.parse("0x0a0b0c0d0e0f")))
+      .setTxPower(-41)
+      .setServiceUuid(0xfeaa)
+      .setBeaconTypeCode(0x00)
+      .setDataFields(Collections.singletonList(42L))
+      .setBluetoothAddress("00:11:22:33:44:55")
+      .setParserIdentifier("eddystone_uid")
+      .setRssi(rssi)
+      .build();
+  }
+
+  /**
+   * A recording of two ranging cycles with a transition and a state in between.
+   */
+  static byte[] createRecording() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ScanRecording.Writer writer = new ScanRecording.Writer(new DataOutputStream(bytes));
+    List<Beacon> beacons = Arrays.asList(createBeacon(UUID, 1, 2, -60), createEddystoneBeacon(-70));
+    writer.writeRanging(1000, REGION, beacons, new int[]{-60, -70}, new double[]{-61.5, -69.25});
+    writer.writeTransition(1100, REGION, true);
+    writer.writeState(1100, REGION, MonitorNotifier.INSIDE);
+    writer.writeRanging(2100, REGION, beacons.subList(0, 1), new int[]{-65}, new double[]{-62});
+    writer.close();
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void readerReturnsTheWrittenCallbacks() throws IOException {
+    ScanRecording.Reader reader = new ScanRecording.Reader(new DataInputStream(new ByteArrayInputStream(createRecording())));
+
+    ScanRecording.Entry entry = reader.next();
+    assertEquals(ScanRecording.TYPE_RANGING, entry.type);
+    assertEquals(0, entry.delayMs);
+    assertEquals("region", entry.region.getUniqueId());
+    assertEquals(Identifier.parse(UUID), entry.region.getId1());
+    assertNull(entry.region.getId2());
+    assertEquals(2, entry.beacons.size());
+    Beacon iBeacon = entry.beacons.get(0);
+    assertEquals(Arrays.asList(Identifier.parse(UUID), Identifier.fromInt(1), Identifier.fromInt(2)), iBeacon.getIdentifiers());
+    assertEquals(-60, iBeacon.getRssi());
+    assertEquals(-61.5, iBeacon.getRunningAverageRssi(), 0);
+    Beacon eddystone = entry.beacons.get(1);
+    assertEquals(createEddystoneBeacon(0).getIdentifiers(), eddystone.getIdentifiers());
+    assertEquals(-70, eddystone.getRssi());
+    assertEquals(-69.25, eddystone.getRunningAverageRssi(), 0);
+    assertEquals(-41, eddystone.getTxPower());
+    assertEquals(0xfeaa, eddystone.getServiceUuid());
+    assertEquals(Collections.singletonList(42L), eddystone.getDataFields());
+    assertEquals("00:11:22:33:44:55", eddystone.getBluetoothAddress());
+    assertEquals("eddystone_uid", eddystone.getParserIdentifier());
+
+    entry = reader.next();
+    assertEquals(ScanRecording.TYPE_ENTER, entry.type);
+    assertEquals(100, entry.delayMs);
+    entry = reader.next();
+    assertEquals(ScanRecording.TYPE_STATE, entry.type);
+    assertEquals(0, entry.delayMs);
+    assertEquals(MonitorNotifier.INSIDE, entry.state);
+
+    entry = reader.next();
+    assertEquals(ScanRecording.TYPE_RANGING, entry.type);
+    assertEquals(1000, entry.delayMs);
+    assertEquals(1, entry.beacons.size());
+    assertEquals(iBeacon.getIdentifiers(), entry.beacons.get(0).getIdentifiers());
+    assertEquals(-65, entry.beacons.get(0).getRssi());
+
+    assertNull(reader.next());
+  }
+
+  @Test
+  public void beaconsAreDefinedOnce() throws IOException {
+    ByteArrayOutputStream once = new ByteArrayOutputStream();
+    ScanRecording.Writer writer = new ScanRecording.Writer(new DataOutputStream(once));
+    List<Beacon> beacons = Collections.singletonList(createBeacon(UUID, 1, 2, -60));
+    writer.writeRanging(0, REGION, beacons, new int[]{-60}, new double[]{-60});
+    int first = writer.size();
+    writer.writeRanging(1000, REGION, beacons, new int[]{-60}, new double[]{-60});
+
+    // type, delay, region, count, then index, rssi, average rssi
+    assertEquals(1 + 4 + 2 + 4 + 4 + 2 + 8, writer.size() - first);
+  }
+
+  @Test
+  public void otherFilesAreRejected() {
+    try {
+      new ScanRecording.Reader(new DataInputStream(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 0, 1})));
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("not a scan recording"));
+    }
+  }
+}
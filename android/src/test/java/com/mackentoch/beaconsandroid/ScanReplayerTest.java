@@ -0,0 +1,118 @@
+package com.mackentoch.beaconsandroid;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.altbeacon.beacon.Beacon;
+import org.altbeacon.beacon.Region;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a recording into the payload builder, with JAVA_ONLY maps standing for the bridge.
+ */
+public class ScanReplayerTest {
+  @Rule
+  public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  private final EventPayloadBuilder mPayloadBuilder = new EventPayloadBuilder(new BeaconIdentityCache(), PayloadFactory.JAVA_ONLY);
+  private final List<String> mEventNames = new ArrayList<>();
+  private final List<WritableMap> mPayloads = new ArrayList<>();
+  private final CountDownLatch mCompleted = new CountDownLatch(1);
+  private int mEntries;
+  private Exception mError;
+
+  private final ScanReplayer.Listener mListener = new ScanReplayer.Listener() {
+    @Override
+    public void onRanging(List<Beacon> beacons, Region region) {
+      send("beaconsDidRange", mPayloadBuilder.createRangingResponse(beacons, region, true));
+    }
+
+    @Override
+    public void onTransition(Region region, boolean entered) {
+      send(entered ? "regionDidEnter" : "regionDidExit", mPayloadBuilder.createMonitoringResponse(region));
+    }
+
+    @Override
+    public void onState(int state, Region region) {
+      send("didDetermineState", mPayloadBuilder.createMonitoringResponse(region));
+    }
+
+    @Override
+    public void onComplete(int entries, long elapsedMs, Exception error) {
+      mEntries = entries;
+      mError = error;
+      mCompleted.countDown();
+    }
+  };
+
+  @Test
+  public void recordingIsReplayedThroughThePayloadBuilder() throws Exception {
+    new ScanReplayer(writeRecording(ScanRecordingTest.createRecording()), 0, mListener).start();
+    assertTrue(mCompleted.await(5, TimeUnit.SECONDS));
+
+    assertNull(mError);
+    assertEquals(4, mEntries);
+    assertEquals("beaconsDidRange", mEventNames.get(0));
+    assertEquals("regionDidEnter", mEventNames.get(1));
+    assertEquals("didDetermineState", mEventNames.get(2));
+    assertEquals("beaconsDidRange", mEventNames.get(3));
+
+    WritableMap first = mPayloads.get(0);
+    assertEquals("region", first.getString("identifier"));
+    assertEquals(ScanRecordingTest.UUID, first.getString("uuid"));
+    ReadableArray beacons = first.getArray("beacons");
+    assertEquals(2, beacons.size());
+    assertEquals(-60, beacons.getMap(0).getInt("rssi"));
+    assertEquals(-70, beacons.getMap(1).getInt("rssi"));
+    // handles are defined the first time a beacon is sent only
+    assertEquals(2, first.getArray("handleDefinitions").size());
+    WritableMap last = mPayloads.get(3);
+    assertEquals(-65, last.getArray("beacons").getMap(0).getInt("rssi"));
+    assertEquals(beacons.getMap(0).getInt("handle"), last.getArray("beacons").getMap(0).getInt("handle"));
+    assertEquals(0, last.getArray("handleDefinitions").size());
+  }
+
+  @Test
+  public void truncatedRecordingCompletesWithAnError() throws Exception {
+    byte[] recording = ScanRecordingTest.createRecording();
+    byte[] truncated = new byte[recording.length - 3];
+    System.arraycopy(recording, 0, truncated, 0, truncated.length);
+    new ScanReplayer(writeRecording(truncated), 0, mListener).start();
+    assertTrue(mCompleted.await(5, TimeUnit.SECONDS));
+
+    assertTrue(mError instanceof IOException);
+    assertEquals(3, mEntries);
+    assertFalse(mEventNames.isEmpty());
+  }
+
+  private File writeRecording(byte[] recording) throws IOException {
+    File file = mFolder.newFile("test.scan");
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(recording);
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  private synchronized void send(String eventName, WritableMap payload) {
+    mEventNames.add(eventName);
+    mPayloads.add(payload);
+  }
+}
@@ -74,6 +74,399 @@ export type  NotificationConfig = {
 
 export type Parser = string | number;
 
+/**
+ * android only
+ * @property {boolean} enabled - emit `beaconsDidRangeBatch` instead of `beaconsDidRange`
+ * @property {number} [windowMs] - time during which ranging results are collected (default 1000)
+ * @property {number} [maxEventsPerSecond] - upper limit of emitted batches per second (default 1)
+ */
+export type RangeBatchingConfig = {
+  enabled: boolean,
+  windowMs?: number,
+  maxEventsPerSecond?: number,
+};
+
+/**
+ * android only
+ * @property {number} [minBetweenScanPeriod] - lower bound in milliseconds, used on activity (default 0)
+ * @property {number} [maxBetweenScanPeriod] - upper bound in milliseconds (default 10000)
+ * @property {number} [growthFactor] - period multiplier once stable (default 2)
+ * @property {number} [stableCycles] - ranging cycles without activity before growing the period (default 5)
+ * @property {number} [rssiThreshold] - rssi change (dBm) considered as activity (default 8)
+ * @property {number} [absenceMs] - time after which a beacon seen again counts as new (default 10000)
+ */
+export type AdaptiveScanningConfig = {
+  enabled: boolean,
+  minBetweenScanPeriod?: number,
+  maxBetweenScanPeriod?: number,
+  growthFactor?: number,
+  stableCycles?: number,
+  rssiThreshold?: number,
+  absenceMs?: number,
+};
+
+/**
+ * android only
+ * @property {number} [rssiThreshold] - RANGING_MODE_DELTA: rssi change (dBm) reporting a beacon as updated (default 3)
+ * @property {number} [distanceThreshold] - RANGING_MODE_DELTA: distance change (meters) reporting a beacon as updated (default 0.5)
+ * @property {string} [encoding] - RANGING_MODE_PACKED: 'columns' (default) or 'base64'
+ * @property {number} [nearest] - RANGING_MODE_SUMMARY: number of nearest beacons of the summary (default 3)
+ * @property {boolean} [handles] - RANGING_MODE_FULL, RANGING_MODE_DELTA and RANGING_MODE_SUMMARY: identify beacons by an integer handle
+ */
+export type RangingModeOptions = {
+  rssiThreshold?: number,
+  distanceThreshold?: number,
+  encoding?: 'columns' | 'base64',
+  nearest?: number,
+  handles?: boolean,
+};
+
+// android only: payload of `beaconsDidRangeSummary` (RANGING_MODE_SUMMARY)
+export type RangingSummary = {
+  identifier: string,
+  uuid: string,
+  count: number,
+  countByMajor: { [major: string]: number },
+  minRssi: number,
+  maxRssi: number,
+  avgRssi: number,
+  nearest: Array<Object>, // nearest first
+  handleDefinitions?: Array<Object>,
+};
+
+/**
+ * android only
+ * @property {boolean} enabled - emit `proximityChanged` events
+ * @property {string} [filter] - 'ewma' (default) or 'kalman'
+ * @property {number} [alpha] - ewma: weight of a new distance sample (default 0.3)
+ * @property {number} [processNoise] - kalman: process noise (default 0.05)
+ * @property {number} [measurementNoise] - kalman: measurement noise (default 1.0)
+ * @property {number} [hysteresis] - meters a zone boundary must be crossed by (default 0.3)
+ * @property {number} [minSamples] - consecutive samples confirming a transition (default 2)
+ */
+export type ProximitySmoothingConfig = {
+  enabled: boolean,
+  filter?: 'ewma' | 'kalman',
+  alpha?: number,
+  processNoise?: number,
+  measurementNoise?: number,
+  hysteresis?: number,
+  minSamples?: number,
+};
+
+/**
+ * android only
+ * @property {boolean} enabled - journal events emitted while JS is not running
+ * @property {number} [maxBytes] - journal size cap (default 1MB)
+ * @property {number} [maxAgeMs] - journaled events older than this are dropped (default 24h)
+ */
+export type EventJournalConfig = {
+  enabled: boolean,
+  maxBytes?: number,
+  maxAgeMs?: number,
+};
+
+// android only
+export type JournaledEvent = {
+  event: string,
+  timestamp: number,
+  data: any,
+};
+
+/**
+ * android only
+ * @property {number} [policy] - EVENT_QUEUE_DROP_OLDEST, EVENT_QUEUE_COALESCE (default) or EVENT_QUEUE_BLOCK
+ * @property {number} [capacity] - max queued events (default 64)
+ */
+export type EventQueueConfig = {
+  policy?: number,
+  capacity?: number,
+};
+
+// android only
+export type EventQueueStats = {
+  depth: number,
+  capacity: number,
+  policy: number,
+  dispatched: number,
+  dropped: number,
+  coalesced: number,
+  lastLatencyMs: number,
+  maxLatencyMs: number,
+  avgLatencyMs: number, // moving average
+};
+
+// android only
+export type RegionSetChanges = {
+  added: Array<string>, // region identifiers
+  removed: Array<string>,
+  updated: Array<string>, // restarted with new uuid/major/minor
+};
+
+/**
+ * android only
+ * @property {number} [exitTimeoutMs] - time without ranging any beacon of a virtual region before exiting it (default 10000)
+ */
+export type VirtualRegionsOptions = {
+  exitTimeoutMs?: number,
+};
+
+// android only
+export type RegionDebounceTimings = {
+  minDwellMs?: number, // time inside before regionDidEnter (default 0)
+  exitGraceMs?: number, // time outside before regionDidExit (default 0)
+  dwellMs?: number, // time inside before regionDwell (default 0: no event)
+};
+
+/**
+ * android only
+ * @property {Object} [regions] - timings overriding the default ones, by region identifier
+ */
+export type RegionDebouncingConfig = {
+  enabled: boolean,
+  ...RegionDebounceTimings,
+  regions?: { [identifier: string]: RegionDebounceTimings },
+};
+
+/**
+ * android only
+ * @property {string} [parser] - layout or PARSER_PRESETS name (default 'ibeacon')
+ * @property {Array<string>} [identifiers] - in place of uuid/major/minor (e.g. Eddystone namespace and instance)
+ * @property {number} [txPower] - measured power at 1 meter (default -59)
+ */
+export type AdvertisementSet = {
+  id?: string,
+  parser?: string,
+  uuid?: string,
+  major?: number,
+  minor?: number,
+  identifiers?: Array<string>,
+  manufacturer?: number,
+  txPower?: number,
+  dataFields?: Array<number>,
+  advertiseMode?: number, // ADVERTISE_MODE_* (default ADVERTISE_MODE_LOW_POWER)
+  txPowerLevel?: number, // ADVERTISE_TX_POWER_* (default ADVERTISE_TX_POWER_HIGH)
+};
+
+// android only
+export type AdvertisingOptions = {
+  rotationIntervalMs?: number, // default 1000
+};
+
+// android only
+export type ScanMetrics = {
+  scanCycles: number,
+  rangingCallbacks: number,
+  beaconsRanged: number,
+  avgBeaconsPerCycle: number,
+  lastCycleBeacons: number,
+  maxCycleBeacons: number,
+  eventsEmitted: number,
+  eventsDroppedNoCatalyst: number, // emitted while no JS instance was active
+  payloads: number,
+  avgPayloadEntries: number, // beacons carried by a payload: all, the delta or the nearest of a summary
+  maxPayloadEntries: number,
+  avgPayloadBuildMs: number,
+  maxPayloadBuildMs: number,
+  latencyCount: number, // callback to emit latency, batched events excluded
+  latencyP50Ms: number,
+  latencyP90Ms: number,
+  latencyP99Ms: number,
+  latencyMaxMs: number,
+  positionSolves: number,
+  avgPositionSolveMs: number,
+  maxPositionSolveMs: number,
+};
+
+// android only
+export type ScanRecordingOptions = {
+  name?: string, // file name, without extension (default: current time)
+  maxBytes?: number, // recording stops past this size (default 10MB)
+};
+
+// android only
+export type ScanRecordingResult = {
+  path: string,
+  records: number,
+  bytes: number,
+};
+
+// android only
+export type ScanReplayOptions = {
+  speed?: number, // times the recorded pace (default 1, 0: as fast as possible)
+};
+
+// android only
+export type RangingSubscriptionOptions = {
+  regionIds?: Array<string>, // default: every ranged region
+  minRssi?: number,
+  maxDistance?: number, // meters
+  fields?: Array<'identifiers' | 'rssi' | 'distance' | 'proximity'>, // default: all of them
+  minIntervalMs?: number, // per region (default 0: every ranging cycle)
+};
+
+// android only
+export type MonitoringSubscriptionOptions = {
+  regionIds?: Array<string>, // default: every monitored region
+};
+
+// android only: beacons carry the requested fields only
+export type RangingSubscriptionEvent = {
+  identifier: string,
+  beacons: Array<{
+    handle?: number,
+    uuid?: string,
+    major?: number,
+    minor?: number,
+    rssi?: number,
+    distance?: number,
+    proximity?: string,
+  }>,
+};
+
+// android only
+export type MonitoringSubscriptionEvent = {
+  event: 'enter' | 'exit' | 'state',
+  identifier: string,
+  uuid: string,
+  major: number,
+  minor: number,
+  state?: 'inside' | 'outside' | 'unknown',
+};
+
+// android only
+export type BeaconsSubscription = {
+  id: number,
+  remove: () => void,
+};
+
+// android only
+export type LastSeenStoreConfig = {
+  enabled: boolean,
+  ttlMs?: number, // entries are evicted this long after the beacon was last ranged (default 30000)
+};
+
+// android only
+export type LastSeenBeacon = {
+  identifier: string, // region
+  handle: number,
+  uuid: string,
+  major?: number,
+  minor?: number,
+  rssi: number,
+  distance: number,
+  proximity: string,
+  timestamp: number, // ms since epoch
+  ageMs: number,
+};
+
+// android only
+export type RssiHistoryConfig = {
+  enabled: boolean,
+  capacity?: number, // samples kept per beacon (default 64)
+  maxBytes?: number, // memory of every buffer, 12 bytes a sample (default 262144)
+  idleTimeoutMs?: number, // histories are evicted this long after the beacon was last ranged (default 60000)
+};
+
+// android only
+export type RssiStats = {
+  beaconKey: string,
+  count: number,
+  mean: number,
+  variance: number,
+  slope: number, // dBm per second
+  spanMs: number, // between the oldest and the newest sample of the window
+};
+
+// android only
+export type HeadlessTaskConfig = {
+  enabled: boolean,
+  batchWindowMs?: number, // transitions are batched over this window (default 1000)
+  minIntervalMs?: number, // min time between two tasks (default 10000)
+  timeoutMs?: number, // the task is stopped past this time (default 30000)
+};
+
+// android only: data of the headless task
+export type HeadlessTransitions = {
+  transitions: Array<{
+    event: 'enter' | 'exit',
+    identifier: string,
+    uuid: string,
+    major: number,
+    minor: number,
+    timestamp: number, // ms since epoch
+  }>,
+  dropped: number, // transitions dropped past 100 pending ones
+};
+
+// android only: beacon of known coordinates (meters)
+export type PositioningAnchor = {
+  uuid: string,
+  major: number,
+  minor: number,
+  x: number,
+  y: number,
+  floor?: number,
+};
+
+/**
+ * android only
+ * @property {number} [intervalMs] - period of the `positionUpdate` events (default 1000)
+ * @property {number} [maxAgeMs] - distances older than this are ignored (default 5000)
+ * @property {number} [minAnchors] - anchors of a floor needed for a position (default 3)
+ */
+export type PositioningConfig = {
+  enabled: boolean,
+  anchors?: Array<PositioningAnchor>,
+  intervalMs?: number,
+  maxAgeMs?: number,
+  minAnchors?: number,
+};
+
+// android only: payload of `positionUpdate`
+export type PositionUpdate = {
+  x: number,
+  y: number,
+  floor: number,
+  error: number, // weighted RMS of the distance residuals (meters)
+  anchors: number,
+};
+
+// android only
+export type BeaconHandleDefinition = {
+  handle: number,
+  uuid: string,
+  major?: number,
+  minor?: number,
+};
+
+// android only
+export type RangedBeacon = {
+  uuid: string,
+  major?: number,
+  minor?: number,
+  rssi: number,
+  distance: number,
+  proximity: string,
+};
+
+// android only: `beaconsDidRangePacked` event payload
+export type PackedRangingPayload = {
+  identifier: string,
+  uuid: string,
+  count: number,
+  dictionaryVersion: number,
+  dictionary?: Array<string>,
+  // 'columns' encoding:
+  uuidIndex?: Array<number>,
+  major?: Array<number>,
+  minor?: Array<number>,
+  rssi?: Array<number>,
+  distance?: Array<number>,
+  // 'base64' encoding:
+  buffer?: string,
+};
+
 export type BeaconsManagerIOS = {
   // specific to iOS:
   requestAlwaysAuthorization: () => void,
@@ -81,6 +474,7 @@ export type BeaconsManagerIOS = {
   allowsBackgroundLocationUpdates: (allow: boolean) => void,
   getAuthorizationStatus: (cb: GetAuthorizationCallback) => void,
   getMonitoredRegions: (value?: any) => void,
+  getBeaconHandles: (value?: any) => void,
   startUpdatingLocation: () => void,
   stopUpdatingLocation: () => void,
   shouldDropEmptyRanges: (drop: boolean) => void,
@@ -97,18 +491,19 @@ export type BeaconsManagerANDROID = {
   // specific to android:
   setHardwareEqualityEnforced: (flag: boolean) => void,
 
-  addParser: (parser: Parser, resolve: () => any, reject: () => any) => void,
+  addParser: (parser: Parser) => Promise<any>,
   addParsersListToDetection: (
     parsers: Array<Parser>,
-    resolve: () => any,
-    reject: () => any,
-  ) => void,
-  removeParser: (parser: Parser, resolve: () => any, reject: () => any) => void,
+  ) => Promise<any>,
+  removeParser: (parser: Parser) => Promise<any>,
   removeParsersListToDetection: (
     parsers: Array<Parser>,
-    resolve: () => any,
-    reject: () => any,
-  ) => void,
+  ) => Promise<any>,
+  setParsers: (
+    parsers: Array<Parser>,
+  ) => Promise<Array<string>>,
+  getParsers: () => Promise<Array<string>>,
+  PARSER_PRESETS: { [name: string]: string },
 
   detectIBeacons: () => Promise<any>,
   addIBeaconsDetection: () => Promise<any>,
@@ -145,12 +540,68 @@ export type BeaconsManagerANDROID = {
   setBackgroundScanPeriod: (period: number) => void,
   setBackgroundBetweenScanPeriod: (period: number) => void,
   setForegroundScanPeriod: (period: number) => void,
+  setAdaptiveScanning: (config: AdaptiveScanningConfig) => void,
   setRssiFilter: (filterType: number, avgModifier: number) => void,
-  getRangedRegions: (value?: any) => void,
+  setRangeBatching: (config: RangeBatchingConfig) => void,
+  setProximitySmoothing: (config: ProximitySmoothingConfig) => void,
+  setEventQueue: (config: EventQueueConfig) => void,
+  getEventQueueStats: () => Promise<EventQueueStats>,
+  getScanMetrics: () => Promise<ScanMetrics>,
+  setScanMetricsInterval: (intervalMs: number) => void,
+  resetScanMetrics: () => void,
+  EVENT_QUEUE_DROP_OLDEST: number,
+  EVENT_QUEUE_COALESCE: number,
+  EVENT_QUEUE_BLOCK: number,
+  setRangingMode: (mode: number, options: RangingModeOptions) => void,
+  RANGING_MODE_FULL: number,
+  RANGING_MODE_DELTA: number,
+  RANGING_MODE_PACKED: number,
+  RANGING_MODE_SUMMARY: number,
+  getRangedRegions: () => Promise<any>,
+  setMonitoredRegions: (regions: Array<BeaconRegion>) => Promise<RegionSetChanges>,
+  setRangedRegions: (regions: Array<BeaconRegion>) => Promise<RegionSetChanges>,
+  setVirtualRegions: (regions: Array<BeaconRegion>, options: VirtualRegionsOptions) => Promise<any>,
+  setRegionDebouncing: (config: RegionDebouncingConfig) => void,
+  setPositioning: (config: PositioningConfig) => Promise<any>,
+  startScanRecording: (options: ScanRecordingOptions) => Promise<string>,
+  stopScanRecording: () => Promise<ScanRecordingResult>,
+  replayScanRecording: (path: string, options: ScanReplayOptions) => Promise<any>,
+  stopScanReplay: () => void,
+  subscribeRanging: (options: RangingSubscriptionOptions) => Promise<number>,
+  subscribeMonitoring: (options: MonitoringSubscriptionOptions) => Promise<number>,
+  unsubscribe: (id: number) => void,
+  setRangingBroadcast: (enabled: boolean) => void,
+  setLastSeenStore: (config: LastSeenStoreConfig) => void,
+  getLastSeenBeacons: (regionId: ?string, maxAgeMs: number) => Promise<Array<LastSeenBeacon>>,
+  setRssiHistory: (config: RssiHistoryConfig) => void,
+  getRssiStats: (beaconKey: string, windowMs: number) => Promise<?RssiStats>,
+  setHeadlessTask: (config: HeadlessTaskConfig) => void,
+  HEADLESS_TASK_NAME: string,
+  SUBSCRIPTION_EVENT_PREFIX: string,
+  ERROR_INVALID_CONFIG: string,
+  ERROR_PARSER: string,
+  ERROR_MONITORING: string,
+  ERROR_RANGING: string,
+  ERROR_TRANSMISSION_NOT_SUPPORTED: string,
+  ERROR_ADVERTISING: string,
+  ERROR_SCAN_RECORDING: string,
+  ERROR_SCAN_REPLAY: string,
+  ERROR_EVENT_JOURNAL: string,
+  ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING: string,
+  ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING: string,
   ARMA_RSSI_FILTER: string,
   RUNNING_AVG_RSSI_FILTER: string,
-  getMonitoredRegions: (value?: any) => void,
-  checkTransmissionSupported: (status: any) => any,
+  getMonitoredRegions: () => Promise<any>,
+  checkTransmissionSupported: () => Promise<number>,
+  startAdvertising: (sets: Array<AdvertisementSet>, options: AdvertisingOptions) => Promise<any>,
+  stopAdvertising: () => Promise<any>,
+  ADVERTISE_MODE_LOW_POWER: number,
+  ADVERTISE_MODE_BALANCED: number,
+  ADVERTISE_MODE_LOW_LATENCY: number,
+  ADVERTISE_TX_POWER_ULTRA_LOW: number,
+  ADVERTISE_TX_POWER_LOW: number,
+  ADVERTISE_TX_POWER_MEDIUM: number,
+  ADVERTISE_TX_POWER_HIGH: number,
 
   // common with iOS:
   startMonitoring: (
@@ -158,43 +609,38 @@ export type BeaconsManagerANDROID = {
     uuid: string,
     minor?: number,
     major?: number,
-    resolve: () => any,
-    reject: () => any,
-  ) => void,
+  ) => Promise<any>,
 
   startRanging: (
     regionId: string,
     uuid?: string,
-    resolve: () => any,
-    reject: () => any,
-  ) => void,
+  ) => Promise<any>,
 
   stopMonitoring: (
     regionId: string,
     uuid: string,
     minor?: number,
     major?: number,
-    resolve: () => any,
-    reject: () => any,
-  ) => void,
+  ) => Promise<any>,
 
   stopRanging: (
     regionId: string,
     uuid?: string,
-    resolve: () => any,
-    reject: () => any,
-  ) => void,
+  ) => Promise<any>,
 
   requestStateForRegion: (
     regionId: string,
     uuid?: string,
     minor?: number,
     major?: number,
-  ) => void,
+  ) => Promise<any>,
 
   enableForegroundServiceScanning: (
     notificationConfig: NotificationConfig,
   ) => Promise<any>,
 
   disableForegroundServiceScanning: () => Promise<any>,
+
+  setEventJournal: (config: EventJournalConfig) => void,
+  drainEventJournal: () => Promise<Array<any>>,
 };
@@ -8,6 +8,36 @@ import {
   type BeaconsManagerANDROID,
   type Parser,
   type NotificationConfig,
+  type RangeBatchingConfig,
+  type AdaptiveScanningConfig,
+  type RangingModeOptions,
+  type BeaconHandleDefinition,
+  type ProximitySmoothingConfig,
+  type EventJournalConfig,
+  type JournaledEvent,
+  type EventQueueConfig,
+  type EventQueueStats,
+  type ScanMetrics,
+  type RegionSetChanges,
+  type VirtualRegionsOptions,
+  type RegionDebouncingConfig,
+  type AdvertisementSet,
+  type AdvertisingOptions,
+  type PositioningConfig,
+  type ScanRecordingOptions,
+  type ScanRecordingResult,
+  type ScanReplayOptions,
+  type RangingSubscriptionOptions,
+  type MonitoringSubscriptionOptions,
+  type RangingSubscriptionEvent,
+  type MonitoringSubscriptionEvent,
+  type BeaconsSubscription,
+  type LastSeenStoreConfig,
+  type LastSeenBeacon,
+  type HeadlessTaskConfig,
+  type HeadlessTransitions,
+  type RssiHistoryConfig,
+  type RssiStats,
 } from './module.types';
 import {
   PARSER_IBEACON,
@@ -18,6 +48,7 @@ import {
   PARSER_EDDYSTONE_URL,
   transmissionSupport,
 } from './module.types';
+import { decodePackedRanging } from './packed.ranging';
 // #endregion
 
 // #region instanciation and constants
@@ -27,6 +58,39 @@ const BeaconsEventEmitter = RN.DeviceEventEmitter;
 
 const ARMA_RSSI_FILTER = BeaconsManager && BeaconsManager.ARMA_RSSI_FILTER || undefined;
 const RUNNING_AVG_RSSI_FILTER = BeaconsManager && BeaconsManager.RUNNING_AVG_RSSI_FILTER || undefined;
+const RANGING_MODE_FULL = BeaconsManager && BeaconsManager.RANGING_MODE_FULL;
+const RANGING_MODE_DELTA = BeaconsManager && BeaconsManager.RANGING_MODE_DELTA;
+const RANGING_MODE_PACKED = BeaconsManager && BeaconsManager.RANGING_MODE_PACKED;
+const RANGING_MODE_SUMMARY = BeaconsManager && BeaconsManager.RANGING_MODE_SUMMARY;
+const EVENT_QUEUE_DROP_OLDEST = BeaconsManager && BeaconsManager.EVENT_QUEUE_DROP_OLDEST;
+const EVENT_QUEUE_COALESCE = BeaconsManager && BeaconsManager.EVENT_QUEUE_COALESCE;
+const EVENT_QUEUE_BLOCK = BeaconsManager && BeaconsManager.EVENT_QUEUE_BLOCK;
+// `code` of the errors the promises reject with
+const ERROR_INVALID_CONFIG = BeaconsManager && BeaconsManager.ERROR_INVALID_CONFIG;
+const ERROR_PARSER = BeaconsManager && BeaconsManager.ERROR_PARSER;
+const ERROR_MONITORING = BeaconsManager && BeaconsManager.ERROR_MONITORING;
+const ERROR_RANGING = BeaconsManager && BeaconsManager.ERROR_RANGING;
+const ERROR_TRANSMISSION_NOT_SUPPORTED = BeaconsManager && BeaconsManager.ERROR_TRANSMISSION_NOT_SUPPORTED;
+const ERROR_ADVERTISING = BeaconsManager && BeaconsManager.ERROR_ADVERTISING;
+const ERROR_SCAN_RECORDING = BeaconsManager && BeaconsManager.ERROR_SCAN_RECORDING;
+const ERROR_SCAN_REPLAY = BeaconsManager && BeaconsManager.ERROR_SCAN_REPLAY;
+const ERROR_EVENT_JOURNAL = BeaconsManager && BeaconsManager.ERROR_EVENT_JOURNAL;
+const ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING = BeaconsManager && BeaconsManager.ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING;
+const ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING = BeaconsManager && BeaconsManager.ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING;
+// name of the headless JS task started with the region transitions happening while JS is not running
+const HEADLESS_TASK_NAME = BeaconsManager && BeaconsManager.HEADLESS_TASK_NAME;
+// a subscription emits its events as `${SUBSCRIPTION_EVENT_PREFIX}${id}`
+const SUBSCRIPTION_EVENT_PREFIX = BeaconsManager && BeaconsManager.SUBSCRIPTION_EVENT_PREFIX;
+// preset name -> layout, presets names can be used in place of layouts
+const PARSER_PRESETS = BeaconsManager && BeaconsManager.PARSER_PRESETS;
+// advertise modes and tx power levels of the advertisement sets (android.bluetooth.le.AdvertiseSettings)
+const ADVERTISE_MODE_LOW_POWER = BeaconsManager && BeaconsManager.ADVERTISE_MODE_LOW_POWER;
+const ADVERTISE_MODE_BALANCED = BeaconsManager && BeaconsManager.ADVERTISE_MODE_BALANCED;
+const ADVERTISE_MODE_LOW_LATENCY = BeaconsManager && BeaconsManager.ADVERTISE_MODE_LOW_LATENCY;
+const ADVERTISE_TX_POWER_ULTRA_LOW = BeaconsManager && BeaconsManager.ADVERTISE_TX_POWER_ULTRA_LOW;
+const ADVERTISE_TX_POWER_LOW = BeaconsManager && BeaconsManager.ADVERTISE_TX_POWER_LOW;
+const ADVERTISE_TX_POWER_MEDIUM = BeaconsManager && BeaconsManager.ADVERTISE_TX_POWER_MEDIUM;
+const ADVERTISE_TX_POWER_HIGH = BeaconsManager && BeaconsManager.ADVERTISE_TX_POWER_HIGH;
 // #endregion
 
 function setHardwareEqualityEnforced(flag: boolean): void {
@@ -39,9 +103,7 @@ function setHardwareEqualityEnforced(flag: boolean): void {
  *
  */
 function detectIBeacons(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_IBEACON, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_IBEACON);
 }
 
 /**
@@ -50,9 +112,7 @@ function detectIBeacons(): Promise<any> {
  *
  */
 function addIBeaconsDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_IBEACON, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_IBEACON);
 }
 
 /**
@@ -60,9 +120,7 @@ function addIBeaconsDetection(): Promise<any> {
  *
  */
 function removeIBeaconsDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.removeParser(PARSER_IBEACON, resolve, reject);
-  });
+  return BeaconsManager.removeParser(PARSER_IBEACON);
 }
 // #enregion
 
@@ -72,21 +130,15 @@ function removeIBeaconsDetection(): Promise<any> {
  *
  */
 function detectAltBeacons(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_ALTBEACON, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_ALTBEACON);
 }
 
 function addAltBeaconsDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_ALTBEACON, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_ALTBEACON);
 }
 
 function removeAltBeaconsDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.removeParser(PARSER_ALTBEACON, resolve, reject);
-  });
+  return BeaconsManager.removeParser(PARSER_ALTBEACON);
 }
 // #endregion
 
@@ -96,21 +148,15 @@ function removeAltBeaconsDetection(): Promise<any> {
  *
  */
 function detectEstimotes(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_ESTIMOTE, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_ESTIMOTE);
 }
 
 function addEstimotesDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_ESTIMOTE, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_ESTIMOTE);
 }
 
 function removeEstimotesDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.removeParser(PARSER_ESTIMOTE, resolve, reject);
-  });
+  return BeaconsManager.removeParser(PARSER_ESTIMOTE);
 }
 // #endregion
 
@@ -120,9 +166,7 @@ function removeEstimotesDetection(): Promise<any> {
  *
  */
 function detectEddystoneUID(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_EDDYSTONE_UID, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_EDDYSTONE_UID);
 }
 
 /**
@@ -131,9 +175,7 @@ function detectEddystoneUID(): Promise<any> {
  *
  */
 function addEddystoneUIDDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_EDDYSTONE_UID, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_EDDYSTONE_UID);
 }
 
 /**
@@ -141,9 +183,7 @@ function addEddystoneUIDDetection(): Promise<any> {
  *
  */
 function removeEddystoneUIDDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.removeParser(PARSER_EDDYSTONE_UID, resolve, reject);
-  });
+  return BeaconsManager.removeParser(PARSER_EDDYSTONE_UID);
 }
 // #endregion
 
@@ -153,21 +193,15 @@ function removeEddystoneUIDDetection(): Promise<any> {
  *
  */
 function detectEddystoneURL(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_EDDYSTONE_URL, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_EDDYSTONE_URL);
 }
 
 function addEddystoneURLDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_EDDYSTONE_URL, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_EDDYSTONE_URL);
 }
 
 function removeEddystoneURLDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.removeParser(PARSER_EDDYSTONE_URL, resolve, reject);
-  });
+  return BeaconsManager.removeParser(PARSER_EDDYSTONE_URL);
 }
 // #endregion
 
@@ -177,21 +211,15 @@ function removeEddystoneURLDetection(): Promise<any> {
  *
  */
 function detectEddystoneTLM(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_EDDYSTONE_TLM, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_EDDYSTONE_TLM);
 }
 
 function addEddystoneTLMDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(PARSER_EDDYSTONE_TLM, resolve, reject);
-  });
+  return BeaconsManager.addParser(PARSER_EDDYSTONE_TLM);
 }
 
 function removeEddystoneTLMDetection(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.removeParser(PARSER_EDDYSTONE_TLM, resolve, reject);
-  });
+  return BeaconsManager.removeParser(PARSER_EDDYSTONE_TLM);
 }
 // #endregion
 
@@ -201,35 +229,45 @@ function removeEddystoneTLMDetection(): Promise<any> {
  *
  */
 function detectCustomBeaconLayout(parser: number): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(parser, resolve, reject);
-  });
+  return BeaconsManager.addParser(parser);
 }
 
 function addCustomBeaconLayoutDetection(parser: number): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParser(parser, resolve, reject);
-  });
+  return BeaconsManager.addParser(parser);
 }
 
 function removeCustomBeaconLayoutDetection(parser: number): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.removeParser(parser, resolve, reject);
-  });
+  return BeaconsManager.removeParser(parser);
 }
 // #endregion
 
 // #region add remove multiple parsers in a row
 function addParsersListToDetection(parsers: Array<Parser>) {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.addParsersListToDetection(parsers, resolve, reject);
-  });
+  return BeaconsManager.addParsersListToDetection(parsers);
 }
 
 function removeParsersListToDetection(parsers: Array<Parser>) {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.removeParsersListToDetection(parsers, resolve, reject);
-  });
+  return BeaconsManager.removeParsersListToDetection(parsers);
+}
+
+/**
+ * replace the active parsers by these layouts (or PARSER_PRESETS names) in one step,
+ * parsers already active are left in place
+ *
+ * @param {Array<Parser>} parsers layouts or preset names
+ * @returns {Promise<Array<string>>} promise resolves to the active layouts
+ */
+function setParsers(parsers: Array<Parser>): Promise<Array<string>> {
+  return BeaconsManager.setParsers(parsers);
+}
+
+/**
+ * get the active parser layouts
+ *
+ * @returns {Promise<Array<string>>} promise resolves to the active layouts
+ */
+function getParsers(): Promise<Array<string>> {
+  return BeaconsManager.getParsers();
 }
 // #endregion
 
@@ -245,14 +283,110 @@ function setForegroundScanPeriod(period: number): void {
   BeaconsManager.setForegroundScanPeriod(period);
 }
 
+/**
+ * let the between scan period adapt to the beacon activity: it grows while the beacon set and
+ * rssi are stable and drops back to `minBetweenScanPeriod` on new beacons or region transitions
+ *
+ * @param {AdaptiveScanningConfig} config bounds and growth of the between scan period
+ */
+function setAdaptiveScanning(config: AdaptiveScanningConfig): void {
+  BeaconsManager.setAdaptiveScanning(config);
+}
+
 function setRssiFilter(filterType: number, avgModifier: number): void {
   BeaconsManager.setRssiFilter(filterType, avgModifier);
 }
 
+/**
+ * coalesce ranging results of all regions into a single `beaconsDidRangeBatch` event
+ * (`beaconsDidRange` is not emitted while batching is enabled)
+ *
+ * @param {RangeBatchingConfig} config batching config (window and max emit rate)
+ */
+function setRangeBatching(config: RangeBatchingConfig): void {
+  BeaconsManager.setRangeBatching(config);
+}
+
+/**
+ * select the payload emitted on every ranging cycle:
+ * - RANGING_MODE_FULL: `beaconsDidRange` with every ranged beacon (default)
+ * - RANGING_MODE_DELTA: `beaconsDidRangeDelta` with added, updated and removed beacons only
+ * - RANGING_MODE_PACKED: `beaconsDidRangePacked` with primitive arrays or a base64 buffer
+ *   (decode it with `decodePackedRanging`)
+ * - RANGING_MODE_SUMMARY: `beaconsDidRangeSummary` with the count by major, the nearest
+ *   beacons and the min/max/average rssi of the region
+ *
+ * @param {number} mode one of RANGING_MODE_FULL, RANGING_MODE_DELTA, RANGING_MODE_PACKED, RANGING_MODE_SUMMARY
+ * @param {RangingModeOptions} [options] thresholds of RANGING_MODE_DELTA, encoding of RANGING_MODE_PACKED, nearest count of RANGING_MODE_SUMMARY
+ */
+function setRangingMode(mode: number, options?: RangingModeOptions): void {
+  BeaconsManager.setRangingMode(mode, options || {});
+}
+
+/**
+ * smooth beacons distances natively and emit `proximityChanged` on proximity transitions only
+ *
+ * @param {ProximitySmoothingConfig} config filter and hysteresis config
+ */
+function setProximitySmoothing(config: ProximitySmoothingConfig): void {
+  BeaconsManager.setProximitySmoothing(config);
+}
+
+/**
+ * configure the queue feeding the native worker which builds and emits events
+ *
+ * @param {EventQueueConfig} config backpressure policy and queue capacity
+ */
+function setEventQueue(config: EventQueueConfig): void {
+  BeaconsManager.setEventQueue(config);
+}
+
+/**
+ * get the event queue depth and latency (time from native callback to emission)
+ *
+ * @returns {Promise<EventQueueStats>} promise resolves to the event queue stats
+ */
+function getEventQueueStats(): Promise<EventQueueStats> {
+  return BeaconsManager.getEventQueueStats();
+}
+
+/**
+ * get the scan pipeline metrics (scan cycles, payload sizes and build time, latency percentiles...)
+ *
+ * @returns {Promise<ScanMetrics>} promise resolves to the scan metrics
+ */
+function getScanMetrics(): Promise<ScanMetrics> {
+  return BeaconsManager.getScanMetrics();
+}
+
+/**
+ * emit the scan metrics as a `scanMetrics` event every `intervalMs` (0 stops the event)
+ *
+ * @param {number} intervalMs interval in milliseconds
+ */
+function setScanMetricsInterval(intervalMs: number): void {
+  BeaconsManager.setScanMetricsInterval(intervalMs);
+}
+
+/**
+ * reset every scan metrics counter
+ */
+function resetScanMetrics(): void {
+  BeaconsManager.resetScanMetrics();
+}
+
 function getRangedRegions(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.getRangedRegions(resolve);
-  });
+  return BeaconsManager.getRangedRegions();
+}
+
+/**
+ * get the definitions of the beacon handles currently registered
+ * (beacons carry a handle instead of their identifiers when ranging mode option `handles` is set)
+ *
+ * @returns {Promise<Array<BeaconHandleDefinition>>} promise resolve to an array of handle definitions
+ */
+function getBeaconHandles(): Promise<Array<BeaconHandleDefinition>> {
+  return BeaconsManager.getBeaconHandles();
 }
 
 /**
@@ -261,22 +395,256 @@ function getRangedRegions(): Promise<any> {
  * @returns {Promise<Array<BeaconRegion>>} promise resolve to an array of monitored regions
  */
 function getMonitoredRegions(): Promise<Array<BeaconRegion>> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.getMonitoredRegions(resolve);
-  });
+  return BeaconsManager.getMonitoredRegions();
+}
+
+/**
+ * make the monitored regions match `regions`: only the regions added, removed or whose
+ * uuid/major/minor changed are started or stopped (changes are rolled back on failure)
+ *
+ * @param {Array<BeaconRegion>} regions the complete set of regions to monitor
+ * @returns {Promise<RegionSetChanges>} promise resolves to the identifiers of the changed regions
+ */
+function setMonitoredRegions(
+  regions: Array<BeaconRegion>,
+): Promise<RegionSetChanges> {
+  return BeaconsManager.setMonitoredRegions(regions);
+}
+
+/**
+ * make the ranged regions match `regions` (see setMonitoredRegions)
+ *
+ * @param {Array<BeaconRegion>} regions the complete set of regions to range
+ * @returns {Promise<RegionSetChanges>} promise resolves to the identifiers of the changed regions
+ */
+function setRangedRegions(
+  regions: Array<BeaconRegion>,
+): Promise<RegionSetChanges> {
+  return BeaconsManager.setRangedRegions(regions);
+}
+
+/**
+ * monitor `regions` as virtual regions: only one wildcard region per uuid is ranged natively,
+ * its beacons are matched against the virtual regions which emit `regionDidEnter` and
+ * `regionDidExit` (with `virtual: true`); replaces the previous virtual regions
+ *
+ * @param {Array<BeaconRegion>} regions the complete set of virtual regions
+ * @param {VirtualRegionsOptions} [options] exit timeout
+ * @returns {Promise<{regions: number, rangedRegions: number}>} promise resolves to the number of virtual and ranged regions
+ */
+function setVirtualRegions(
+  regions: Array<BeaconRegion>,
+  options: VirtualRegionsOptions = {},
+): Promise<{ regions: number, rangedRegions: number }> {
+  return BeaconsManager.setVirtualRegions(regions, options);
+}
+
+/**
+ * debounce monitoring events natively: `regionDidEnter` is emitted once the region stayed
+ * entered for `minDwellMs`, `regionDidExit` once it stayed exited for `exitGraceMs`,
+ * and `regionDwell` `dwellMs` after entering
+ *
+ * @param {RegionDebouncingConfig} config default and per region identifier timings
+ */
+function setRegionDebouncing(config: RegionDebouncingConfig): void {
+  BeaconsManager.setRegionDebouncing(config);
+}
+
+/**
+ * compute the position natively from the distances to the `anchors` (beacons of known
+ * coordinates) and emit it as a `positionUpdate` event every `intervalMs`
+ *
+ * @param {PositioningConfig} config anchors and update rate, `enabled: false` stops the events
+ * @returns {Promise<any>} promise
+ */
+function setPositioning(config: PositioningConfig): Promise<any> {
+  return BeaconsManager.setPositioning(config);
+}
+
+/**
+ * record the raw ranging and monitoring callbacks to a file, to replay them without beacons
+ *
+ * @param {ScanRecordingOptions} [options] file name and size cap
+ * @returns {Promise<string>} promise resolves to the path of the recording
+ */
+function startScanRecording(options: ScanRecordingOptions = {}): Promise<string> {
+  return BeaconsManager.startScanRecording(options);
+}
+
+/**
+ * stop the scan recording
+ *
+ * @returns {Promise<ScanRecordingResult>} promise resolves to the path, records and bytes of the recording
+ */
+function stopScanRecording(): Promise<ScanRecordingResult> {
+  return BeaconsManager.stopScanRecording();
+}
+
+/**
+ * replay a scan recording through the native pipeline: it emits the same events as live scanning
+ *
+ * @param {string} path path of the recording (see startScanRecording)
+ * @param {ScanReplayOptions} [options] replay speed
+ * @returns {Promise<{entries: number, elapsedMs: number}>} promise resolves once the recording is replayed
+ */
+function replayScanRecording(
+  path: string,
+  options: ScanReplayOptions = {},
+): Promise<{ entries: number, elapsedMs: number }> {
+  return BeaconsManager.replayScanRecording(path, options);
+}
+
+/**
+ * cancel the replay in progress
+ */
+function stopScanReplay(): void {
+  BeaconsManager.stopScanReplay();
+}
+
+function listenToSubscription(id: number, listener: (event: any) => void): BeaconsSubscription {
+  const emitterSubscription = BeaconsEventEmitter.addListener(`${SUBSCRIPTION_EVENT_PREFIX}${id}`, listener);
+  return {
+    id,
+    remove() {
+      emitterSubscription.remove();
+      BeaconsManager.unsubscribe(id);
+    },
+  };
+}
+
+/**
+ * receive only the ranging results of some regions, filtered (minRssi, maxDistance) and
+ * projected to some fields natively, at most once per region every `minIntervalMs`
+ *
+ * @param {RangingSubscriptionOptions} options regions, filters, fields and emit rate
+ * @param {(event: RangingSubscriptionEvent) => void} listener called with the beacons of each ranging cycle
+ * @returns {Promise<BeaconsSubscription>} promise resolves to the subscription, `remove()` it when done
+ */
+function subscribeRanging(
+  options: RangingSubscriptionOptions,
+  listener: (event: RangingSubscriptionEvent) => void,
+): Promise<BeaconsSubscription> {
+  return BeaconsManager.subscribeRanging(options).then(id => listenToSubscription(id, listener));
+}
+
+/**
+ * receive only the transitions and states of some regions
+ *
+ * @param {MonitoringSubscriptionOptions} options regions
+ * @param {(event: MonitoringSubscriptionEvent) => void} listener called with each enter, exit and state of these regions
+ * @returns {Promise<BeaconsSubscription>} promise resolves to the subscription, `remove()` it when done
+ */
+function subscribeMonitoring(
+  options: MonitoringSubscriptionOptions,
+  listener: (event: MonitoringSubscriptionEvent) => void,
+): Promise<BeaconsSubscription> {
+  return BeaconsManager.subscribeMonitoring(options).then(id => listenToSubscription(id, listener));
+}
+
+/**
+ * stop (or restart) emitting the ranging results to every listener, when they are only
+ * consumed through subscriptions
+ *
+ * @param {boolean} enabled false to only emit to subscriptions
+ */
+function setRangingBroadcast(enabled: boolean): void {
+  BeaconsManager.setRangingBroadcast(enabled);
+}
+
+/**
+ * keep the last rssi, distance and time each beacon was ranged at natively, for getLastSeenBeacons
+ *
+ * @param {LastSeenStoreConfig} config enabled and entries ttl
+ */
+function setLastSeenStore(config: LastSeenStoreConfig): void {
+  BeaconsManager.setLastSeenStore(config);
+}
+
+/**
+ * get the beacons ranged recently, without waiting for the next scan cycle (see setLastSeenStore)
+ *
+ * @param {string} [regionId] region identifier (default: every region)
+ * @param {number} [maxAgeMs] max time since the beacon was ranged (default: the store ttl)
+ * @returns {Promise<Array<LastSeenBeacon>>} promise resolves to the beacons last seen
+ */
+function getLastSeenBeacons(regionId?: string, maxAgeMs?: number = 0): Promise<Array<LastSeenBeacon>> {
+  return BeaconsManager.getLastSeenBeacons(regionId || null, maxAgeMs);
+}
+
+/**
+ * keep short rssi histories of each ranged beacon natively, in fixed capacity ring buffers,
+ * for getRssiStats
+ *
+ * @param {RssiHistoryConfig} config enabled, samples per beacon, memory cap and idle eviction
+ */
+function setRssiHistory(config: RssiHistoryConfig): void {
+  BeaconsManager.setRssiHistory(config);
+}
+
+/**
+ * get the rssi statistics of a beacon over a time window (see setRssiHistory)
+ *
+ * @param {string | number} beaconKey "uuid/major/minor" or the beacon handle
+ * @param {number} [windowMs] time window (default: the whole history)
+ * @returns {Promise<?RssiStats>} promise resolves to the statistics, null if the beacon has no history
+ */
+function getRssiStats(beaconKey: string | number, windowMs?: number = 0): Promise<?RssiStats> {
+  return BeaconsManager.getRssiStats(String(beaconKey), windowMs);
+}
+
+/**
+ * start a headless JS task with the region transitions happening while JS is not running
+ * (foreground service scanning), batched so that a burst of transitions runs the task once
+ *
+ * @param {HeadlessTaskConfig} config enabled, batch window, min interval between tasks and task timeout
+ */
+function setHeadlessTask(config: HeadlessTaskConfig): void {
+  BeaconsManager.setHeadlessTask(config);
+}
+
+/**
+ * register the task run with the batched region transitions (see setHeadlessTask), call it
+ * from index.js, next to AppRegistry.registerComponent
+ *
+ * @param {(data: HeadlessTransitions) => Promise<void>} task the task
+ */
+function registerHeadlessTransitionsTask(task: (data: HeadlessTransitions) => Promise<void>): void {
+  RN.AppRegistry.registerHeadlessTask(HEADLESS_TASK_NAME, () => task);
+}
+
+/**
+ * advertise each set (iBeacon, Eddystone-UID... with its own advertise mode and tx power
+ * level) at the same time, replacing the sets previously advertised; when the device can't
+ * run several advertisements at once, the sets take turns every `rotationIntervalMs`
+ *
+ * @param {Array<AdvertisementSet>} sets the advertisement sets
+ * @param {AdvertisingOptions} [options] rotation interval
+ * @returns {Promise<{sets: number, rotating: boolean}>} promise resolves to the number of sets and whether they rotate
+ */
+function startAdvertising(
+  sets: Array<AdvertisementSet>,
+  options: AdvertisingOptions = {},
+): Promise<{ sets: number, rotating: boolean }> {
+  return BeaconsManager.startAdvertising(sets, options);
+}
+
+/**
+ * stop advertising every set
+ *
+ * @returns {Promise<any>} promise
+ */
+function stopAdvertising(): Promise<any> {
+  return BeaconsManager.stopAdvertising();
 }
 
 /**
  * check if beacon support transmission
  *
- * @returns {Promise<number>} promise resolve to an integer
+ * @returns {Promise<string>} promise resolves to the status name (see `transmissionSupport`),
+ * rejects with `ERROR_TRANSMISSION_NOT_SUPPORTED` when the check fails
  */
-function checkTransmissionSupported(): Promise<number> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.checkTransmissionSupported(status =>
-      resolve(transmissionSupport[status]),
-    );
-  });
+function checkTransmissionSupported(): Promise<string> {
+  return BeaconsManager.checkTransmissionSupported().then(status => transmissionSupport[status]);
 }
 
 /**
@@ -286,17 +654,13 @@ function checkTransmissionSupported(): Promise<number> {
  * @returns {Promise<any>} promise resolves to void or error
  */
 function startMonitoringForRegion(region: BeaconRegion): Promise<any> {
-  return new Promise((resolve, reject) => {
-    // NOTE: major and minor are optional values: if user don't assign them we have to send a null value (not undefined):
-    BeaconsManager.startMonitoring(
-      region.identifier,
-      region.uuid,
-      region.minor ? region.minor : -1,
-      region.major ? region.major : -1,
-      resolve,
-      reject,
-    );
-  });
+  // NOTE: major and minor are optional values: if user don't assign them we have to send a null value (not undefined):
+  return BeaconsManager.startMonitoring(
+    region.identifier,
+    region.uuid,
+    region.minor ? region.minor : -1,
+    region.major ? region.major : -1,
+  );
 }
 
 /**
@@ -306,16 +670,12 @@ function startMonitoringForRegion(region: BeaconRegion): Promise<any> {
  * @returns {Promise<any>} promise resolves to void or error
  */
 function stopMonitoringForRegion(region: BeaconRegion): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.stopMonitoring(
-      region.identifier,
-      region.uuid,
-      region.minor ? region.minor : -1,
-      region.major ? region.major : -1,
-      resolve,
-      reject,
-    );
-  });
+  return BeaconsManager.stopMonitoring(
+    region.identifier,
+    region.uuid,
+    region.minor ? region.minor : -1,
+    region.major ? region.major : -1,
+  );
 }
 
 /**
@@ -330,20 +690,14 @@ function startRangingBeaconsInRegion(
   beaconsUUID?: string,
 ): Promise<any> {
   if (typeof region === 'object') {
-    return new Promise((resolve, reject) => {
-      BeaconsManager.startRanging(
-        // $FlowIgnore
-        region.identifier,
-        // $FlowIgnore
-        region.uuid,
-        resolve,
-        reject,
-      );
-    });
+    return BeaconsManager.startRanging(
+      // $FlowIgnore
+      region.identifier,
+      // $FlowIgnore
+      region.uuid,
+    );
   }
-  return new Promise((resolve, reject) => {
-    BeaconsManager.startRanging(region, beaconsUUID, resolve, reject);
-  });
+  return BeaconsManager.startRanging(region, beaconsUUID);
 }
 
 /**
@@ -358,30 +712,24 @@ function stopRangingBeaconsInRegion(
   beaconsUUID?: string,
 ): Promise<any> {
   if (typeof region === 'object') {
-    return new Promise((resolve, reject) => {
-      BeaconsManager.stopRanging(
-        // $FlowIgnore
-        region.identifier,
-        // $FlowIgnore
-        region.uuid,
-        resolve,
-        reject,
-      );
-    });
+    return BeaconsManager.stopRanging(
+      // $FlowIgnore
+      region.identifier,
+      // $FlowIgnore
+      region.uuid,
+    );
   }
-  return new Promise((resolve, reject) => {
-    // $FlowIgnore
-    BeaconsManager.stopRanging(region, beaconsUUID, resolve, reject);
-  });
+  return BeaconsManager.stopRanging(region, beaconsUUID);
 }
 
 /**
  * Retrieves the state of a region asynchronously.
  *
  * @param {BeaconRegion} region region (identifier + uuid -> major and minor are optional)
+ * @returns {Promise<any>} promise resolves once requested, the state is emitted as `didDetermineState`
  */
-function requestStateForRegion(region: BeaconRegion): void {
-  BeaconsManager.requestStateForRegion(
+function requestStateForRegion(region: BeaconRegion): Promise<any> {
+  return BeaconsManager.requestStateForRegion(
     region.identifier,
     region.uuid,
     region.minor ? region.minor : -1,
@@ -389,24 +737,44 @@ function requestStateForRegion(region: BeaconRegion): void {
   );
 }
 
+/**
+ * journal on disk the events emitted while JS is not running (cold start, reload, headless scanning)
+ *
+ * @param {EventJournalConfig} config journal size cap and max age
+ */
+function setEventJournal(config: EventJournalConfig): void {
+  BeaconsManager.setEventJournal(config);
+}
+
+/**
+ * replay (then empty) the events journaled while JS was not running
+ *
+ * @returns {Promise<Array<JournaledEvent>>} promise resolves to the journaled events, oldest first
+ */
+function drainEventJournal(): Promise<Array<JournaledEvent>> {
+  return BeaconsManager.drainEventJournal().then(records =>
+    records.map(({ event, timestamp, body }) => ({
+      event,
+      timestamp,
+      data: JSON.parse(body),
+    })),
+  );
+}
+
 /**
  * enable foreground service scanning
  * @param {NotificationConfig} notificationConfig notification config
  * @returns {Promise<any>} promise resolves to void or error
  */
 function enableForegroundServiceScanning(notificationConfig: NotificationConfig): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.enableForegroundServiceScanning(notificationConfig, resolve, reject);
-  });
+  return BeaconsManager.enableForegroundServiceScanning(notificationConfig);
 }
 
 /**
  * disable foreground service scanning
  */
 function disableForegroundServiceScanning(): Promise<any> {
-  return new Promise((resolve, reject) => {
-    BeaconsManager.disableForegroundServiceScanning(resolve, reject);
-  });
+  return BeaconsManager.disableForegroundServiceScanning();
 }
 
 module.exports = {
@@ -417,6 +785,7 @@ module.exports = {
   PARSER_EDDYSTONE_TLM,
   PARSER_EDDYSTONE_UID,
   PARSER_EDDYSTONE_URL,
+  PARSER_PRESETS,
 
   BeaconsEventEmitter,
   setHardwareEqualityEnforced,
@@ -451,17 +820,65 @@ module.exports = {
 
   addParsersListToDetection,
   removeParsersListToDetection,
+  setParsers,
+  getParsers,
 
   setBackgroundScanPeriod,
   setBackgroundBetweenScanPeriod,
   setForegroundScanPeriod,
+  setAdaptiveScanning,
   setRssiFilter,
+  setRangeBatching,
+  setRangingMode,
+  setProximitySmoothing,
+  setEventQueue,
+  getEventQueueStats,
+  getScanMetrics,
+  setScanMetricsInterval,
+  resetScanMetrics,
+  EVENT_QUEUE_DROP_OLDEST,
+  EVENT_QUEUE_COALESCE,
+  EVENT_QUEUE_BLOCK,
   checkTransmissionSupported,
+  startAdvertising,
+  stopAdvertising,
+  ADVERTISE_MODE_LOW_POWER,
+  ADVERTISE_MODE_BALANCED,
+  ADVERTISE_MODE_LOW_LATENCY,
+  ADVERTISE_TX_POWER_ULTRA_LOW,
+  ADVERTISE_TX_POWER_LOW,
+  ADVERTISE_TX_POWER_MEDIUM,
+  ADVERTISE_TX_POWER_HIGH,
   getRangedRegions,
   ARMA_RSSI_FILTER,
   RUNNING_AVG_RSSI_FILTER,
+  RANGING_MODE_FULL,
+  RANGING_MODE_DELTA,
+  RANGING_MODE_PACKED,
+  RANGING_MODE_SUMMARY,
+  decodePackedRanging,
 
   getMonitoredRegions,
+  setMonitoredRegions,
+  setRangedRegions,
+  setVirtualRegions,
+  setRegionDebouncing,
+  setPositioning,
+  startScanRecording,
+  stopScanRecording,
+  replayScanRecording,
+  stopScanReplay,
+  getBeaconHandles,
+  subscribeRanging,
+  subscribeMonitoring,
+  setRangingBroadcast,
+  setLastSeenStore,
+  getLastSeenBeacons,
+  setRssiHistory,
+  getRssiStats,
+  setHeadlessTask,
+  registerHeadlessTransitionsTask,
+  HEADLESS_TASK_NAME,
 
   // common with iOS:
   startMonitoringForRegion,
@@ -471,4 +888,18 @@ module.exports = {
   requestStateForRegion,
   enableForegroundServiceScanning,
   disableForegroundServiceScanning,
+  setEventJournal,
+  drainEventJournal,
+
+  ERROR_INVALID_CONFIG,
+  ERROR_PARSER,
+  ERROR_MONITORING,
+  ERROR_RANGING,
+  ERROR_TRANSMISSION_NOT_SUPPORTED,
+  ERROR_ADVERTISING,
+  ERROR_SCAN_RECORDING,
+  ERROR_SCAN_REPLAY,
+  ERROR_EVENT_JOURNAL,
+  ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING,
+  ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING,
 };
@@ -150,9 +150,17 @@ function stopRangingBeaconsInRegion(region: BeaconRegion): Promise<any> {
  * Retrieves the state of a region asynchronously.
  *
  * @param {BeaconRegion} region region (identifier + uuid -> major and minor are optional)
+ * @returns {Promise<any>} promise resolves once requested, the state is emitted as `didDetermineState`
  */
-function requestStateForRegion(region: BeaconRegion): void {
-  BeaconsManager.requestStateForRegion(region);
+function requestStateForRegion(region: BeaconRegion): Promise<any> {
+  return new Promise((resolve, reject) => {
+    try {
+      BeaconsManager.requestStateForRegion(region);
+      resolve();
+    } catch (error) {
+      reject(error);
+    }
+  });
 }
 
 module.exports = {
@@ -0,0 +1,146 @@
+// @flow
+
+// android only: decoding of `beaconsDidRangePacked` payloads (see RANGING_MODE_PACKED)
+
+import {
+  type PackedRangingPayload,
+  type RangedBeacon,
+} from './module.types';
+
+// must match PackedRangingEncoder.BYTES_PER_BEACON (native side)
+const BYTES_PER_BEACON = 16;
+const BASE64_CHARS =
+  'ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/';
+
+// uuid dictionary: only sent by native side when it changed
+let dictionary: Array<string> = [];
+
+const base64Lookup: Uint8Array = (() => {
+  const lookup = new Uint8Array(256);
+  for (let i = 0; i < BASE64_CHARS.length; i++) {
+    lookup[BASE64_CHARS.charCodeAt(i)] = i;
+  }
+  return lookup;
+})();
+
+function base64ToBytes(base64: string): Uint8Array {
+  let padding = 0;
+  if (base64.endsWith('==')) {
+    padding = 2;
+  } else if (base64.endsWith('=')) {
+    padding = 1;
+  }
+  const bytes = new Uint8Array((base64.length * 3) / 4 - padding);
+  let p = 0;
+  for (let i = 0; i < base64.length; i += 4) {
+    const a = base64Lookup[base64.charCodeAt(i)];
+    const b = base64Lookup[base64.charCodeAt(i + 1)];
+    const c = base64Lookup[base64.charCodeAt(i + 2)];
+    const d = base64Lookup[base64.charCodeAt(i + 3)];
+    bytes[p++] = (a << 2) | (b >> 4);
+    if (p < bytes.length) bytes[p++] = ((b & 15) << 4) | (c >> 2);
+    if (p < bytes.length) bytes[p++] = ((c & 3) << 6) | d;
+  }
+  return bytes;
+}
+
+function getProximity(distance: number): string {
+  if (distance === -1) {
+    return 'unknown';
+  }
+  if (distance < 1) {
+    return 'immediate';
+  }
+  if (distance < 3) {
+    return 'near';
+  }
+  return 'far';
+}
+
+function createBeacon(
+  uuidIndex: number,
+  major: number,
+  minor: number,
+  rssi: number,
+  distance: number,
+): RangedBeacon {
+  const beacon: RangedBeacon = {
+    uuid: dictionary[uuidIndex],
+    rssi,
+    distance,
+    proximity: getProximity(distance),
+  };
+  if (major !== -1) {
+    beacon.major = major;
+    beacon.minor = minor;
+  }
+  return beacon;
+}
+
+/**
+ * decodes a `beaconsDidRangePacked` payload
+ *
+ * NOTE: call it for every received payload (in order) so the uuid dictionary stays in sync,
+ * beacons themselves are only built when accessed through `get(index)` or `toArray()`.
+ *
+ * @param {PackedRangingPayload} payload event payload
+ * @returns {Object} lazy view on the ranged beacons
+ */
+function decodePackedRanging(payload: PackedRangingPayload) {
+  if (payload.dictionary) {
+    dictionary = payload.dictionary;
+  }
+
+  let view: ?DataView = null;
+  const getView = (): DataView => {
+    if (!view) {
+      const bytes = base64ToBytes(payload.buffer || '');
+      view = new DataView(bytes.buffer);
+    }
+    return view;
+  };
+
+  const get = (index: number): RangedBeacon => {
+    if (payload.buffer != null) {
+      const v = getView();
+      const offset = index * BYTES_PER_BEACON;
+      return createBeacon(
+        v.getUint16(offset, true),
+        v.getInt32(offset + 4, true),
+        v.getInt32(offset + 8, true),
+        v.getInt16(offset + 2, true),
+        v.getFloat32(offset + 12, true),
+      );
+    }
+    return createBeacon(
+      // $FlowIgnore
+      payload.uuidIndex[index],
+      // $FlowIgnore
+      payload.major[index],
+      // $FlowIgnore
+      payload.minor[index],
+      // $FlowIgnore
+      payload.rssi[index],
+      // $FlowIgnore
+      payload.distance[index],
+    );
+  };
+
+  return {
+    identifier: payload.identifier,
+    uuid: payload.uuid,
+    length: payload.count,
+    get,
+    toArray(): Array<RangedBeacon> {
+      const beacons = [];
+      for (let i = 0; i < payload.count; i++) {
+        beacons.push(get(i));
+      }
+      return beacons;
+    },
+  };
+}
+
+module.exports = {
+  decodePackedRanging,
+};
@@ -17,6 +17,314 @@ declare module 'react-native-beacons-manager' {
     button?: string,
   };
 
+  export interface RangeBatchingConfig {
+    enabled: boolean,
+    windowMs?: number,
+    maxEventsPerSecond?: number,
+  }
+
+  export interface AdaptiveScanningConfig {
+    enabled: boolean,
+    minBetweenScanPeriod?: number,
+    maxBetweenScanPeriod?: number,
+    growthFactor?: number,
+    stableCycles?: number,
+    rssiThreshold?: number,
+    absenceMs?: number,
+  }
+
+  export interface RangingModeOptions {
+    rssiThreshold?: number,
+    distanceThreshold?: number,
+    encoding?: 'columns' | 'base64',
+    nearest?: number,
+    handles?: boolean,
+  }
+
+  export interface RangingSummary {
+    identifier: string,
+    uuid: string,
+    count: number,
+    countByMajor: {[major: string]: number},
+    minRssi: number,
+    maxRssi: number,
+    avgRssi: number,
+    nearest: Array<any>,
+    handleDefinitions?: Array<BeaconHandleDefinition>,
+  }
+
+  export interface ProximitySmoothingConfig {
+    enabled: boolean,
+    filter?: 'ewma' | 'kalman',
+    alpha?: number,
+    processNoise?: number,
+    measurementNoise?: number,
+    hysteresis?: number,
+    minSamples?: number,
+  }
+
+  export interface EventJournalConfig {
+    enabled: boolean,
+    maxBytes?: number,
+    maxAgeMs?: number,
+  }
+
+  export interface JournaledEvent {
+    event: string,
+    timestamp: number,
+    data: any,
+  }
+
+  export interface EventQueueConfig {
+    policy?: number,
+    capacity?: number,
+  }
+
+  export interface EventQueueStats {
+    depth: number,
+    capacity: number,
+    policy: number,
+    dispatched: number,
+    dropped: number,
+    coalesced: number,
+    lastLatencyMs: number,
+    maxLatencyMs: number,
+    avgLatencyMs: number,
+  }
+
+  export interface RegionSetChanges {
+    added: Array<string>,
+    removed: Array<string>,
+    updated: Array<string>,
+  }
+
+  export interface VirtualRegionsOptions {
+    exitTimeoutMs?: number,
+  }
+
+  export interface RegionDebounceTimings {
+    minDwellMs?: number,
+    exitGraceMs?: number,
+    dwellMs?: number,
+  }
+
+  export interface RegionDebouncingConfig extends RegionDebounceTimings {
+    enabled: boolean,
+    regions?: {[identifier: string]: RegionDebounceTimings},
+  }
+
+  export interface AdvertisementSet {
+    id?: string,
+    parser?: string,
+    uuid?: string,
+    major?: number,
+    minor?: number,
+    identifiers?: Array<string>,
+    manufacturer?: number,
+    txPower?: number,
+    dataFields?: Array<number>,
+    advertiseMode?: number,
+    txPowerLevel?: number,
+  }
+
+  export interface AdvertisingOptions {
+    rotationIntervalMs?: number,
+  }
+
+  export interface ScanRecordingOptions {
+    name?: string,
+    maxBytes?: number,
+  }
+
+  export interface ScanRecordingResult {
+    path: string,
+    records: number,
+    bytes: number,
+  }
+
+  export interface ScanReplayOptions {
+    speed?: number,
+  }
+
+  export interface RangingSubscriptionOptions {
+    regionIds?: Array<string>,
+    minRssi?: number,
+    maxDistance?: number,
+    fields?: Array<'identifiers' | 'rssi' | 'distance' | 'proximity'>,
+    minIntervalMs?: number,
+  }
+
+  export interface MonitoringSubscriptionOptions {
+    regionIds?: Array<string>,
+  }
+
+  export interface RangingSubscriptionEvent {
+    identifier: string,
+    beacons: Array<{
+      handle?: number,
+      uuid?: string,
+      major?: number,
+      minor?: number,
+      rssi?: number,
+      distance?: number,
+      proximity?: string,
+    }>,
+  }
+
+  export interface MonitoringSubscriptionEvent {
+    event: 'enter' | 'exit' | 'state',
+    identifier: string,
+    uuid: string,
+    major: number,
+    minor: number,
+    state?: 'inside' | 'outside' | 'unknown',
+  }
+
+  export interface BeaconsSubscription {
+    id: number,
+    remove(): void,
+  }
+
+  export interface LastSeenStoreConfig {
+    enabled: boolean,
+    ttlMs?: number,
+  }
+
+  export interface LastSeenBeacon {
+    identifier: string,
+    handle: number,
+    uuid: string,
+    major?: number,
+    minor?: number,
+    rssi: number,
+    distance: number,
+    proximity: string,
+    timestamp: number,
+    ageMs: number,
+  }
+
+  export interface RssiHistoryConfig {
+    enabled: boolean,
+    capacity?: number,
+    maxBytes?: number,
+    idleTimeoutMs?: number,
+  }
+
+  export interface RssiStats {
+    beaconKey: string,
+    count: number,
+    mean: number,
+    variance: number,
+    slope: number,
+    spanMs: number,
+  }
+
+  export interface HeadlessTaskConfig {
+    enabled: boolean,
+    batchWindowMs?: number,
+    minIntervalMs?: number,
+    timeoutMs?: number,
+  }
+
+  export interface HeadlessTransitions {
+    transitions: Array<{
+      event: 'enter' | 'exit',
+      identifier: string,
+      uuid: string,
+      major: number,
+      minor: number,
+      timestamp: number,
+    }>,
+    dropped: number,
+  }
+
+  export interface PositioningAnchor {
+    uuid: string,
+    major: number,
+    minor: number,
+    x: number,
+    y: number,
+    floor?: number,
+  }
+
+  export interface PositioningConfig {
+    enabled: boolean,
+    anchors?: Array<PositioningAnchor>,
+    intervalMs?: number,
+    maxAgeMs?: number,
+    minAnchors?: number,
+  }
+
+  export interface PositionUpdate {
+    x: number,
+    y: number,
+    floor: number,
+    error: number,
+    anchors: number,
+  }
+
+  export interface ScanMetrics {
+    scanCycles: number,
+    rangingCallbacks: number,
+    beaconsRanged: number,
+    avgBeaconsPerCycle: number,
+    lastCycleBeacons: number,
+    maxCycleBeacons: number,
+    eventsEmitted: number,
+    eventsDroppedNoCatalyst: number,
+    payloads: number,
+    avgPayloadEntries: number,
+    maxPayloadEntries: number,
+    avgPayloadBuildMs: number,
+    maxPayloadBuildMs: number,
+    latencyCount: number,
+    latencyP50Ms: number,
+    latencyP90Ms: number,
+    latencyP99Ms: number,
+    latencyMaxMs: number,
+    positionSolves: number,
+    avgPositionSolveMs: number,
+    maxPositionSolveMs: number,
+  }
+
+  export interface BeaconHandleDefinition {
+    handle: number,
+    uuid: string,
+    major?: number,
+    minor?: number,
+  }
+
+  export interface RangedBeacon {
+    uuid: string,
+    major?: number,
+    minor?: number,
+    rssi: number,
+    distance: number,
+    proximity: string,
+  }
+
+  export interface PackedRangingPayload {
+    identifier: string,
+    uuid: string,
+    count: number,
+    dictionaryVersion: number,
+    dictionary?: Array<string>,
+    uuidIndex?: Array<number>,
+    major?: Array<number>,
+    minor?: Array<number>,
+    rssi?: Array<number>,
+    distance?: Array<number>,
+    buffer?: string,
+  }
+
+  export interface PackedRanging {
+    identifier: string,
+    uuid: string,
+    length: number,
+    get(index: number): RangedBeacon,
+    toArray(): Array<RangedBeacon>,
+  }
+
   export type AuthorizationStatus =
     | 'authorizedAlways'
     | 'authorizedWhenInUse'
@@ -54,17 +362,50 @@ declare module 'react-native-beacons-manager' {
     ///////////////////////////////////////////////////////
     ARMA_RSSI_FILTER: string;
     RUNNING_AVG_RSSI_FILTER: string;
+    RANGING_MODE_FULL: number;
+    RANGING_MODE_DELTA: number;
+    RANGING_MODE_PACKED: number;
+    RANGING_MODE_SUMMARY: number;
+    EVENT_QUEUE_DROP_OLDEST: number;
+    EVENT_QUEUE_COALESCE: number;
+    EVENT_QUEUE_BLOCK: number;
+    HEADLESS_TASK_NAME: string;
+    ERROR_INVALID_CONFIG: string;
+    ERROR_PARSER: string;
+    ERROR_MONITORING: string;
+    ERROR_RANGING: string;
+    ERROR_TRANSMISSION_NOT_SUPPORTED: string;
+    ERROR_ADVERTISING: string;
+    ERROR_SCAN_RECORDING: string;
+    ERROR_SCAN_REPLAY: string;
+    ERROR_EVENT_JOURNAL: string;
+    ERROR_ENABLE_FOREGROUND_SERVICE_SCANNING: string;
+    ERROR_DISABLE_FOREGROUND_SERVICE_SCANNING: string;
     PARSER_IBEACON: string;
     PARSER_ESTIMOTE: string;
     PARSER_ALTBEACON: string;
     PARSER_EDDYSTONE_TLM: string;
     PARSER_EDDYSTONE_UID: string;
     PARSER_EDDYSTONE_URL: string;
+    PARSER_PRESETS: {[name: string]: string};
+    ADVERTISE_MODE_LOW_POWER: number;
+    ADVERTISE_MODE_BALANCED: number;
+    ADVERTISE_MODE_LOW_LATENCY: number;
+    ADVERTISE_TX_POWER_ULTRA_LOW: number;
+    ADVERTISE_TX_POWER_LOW: number;
+    ADVERTISE_TX_POWER_MEDIUM: number;
+    ADVERTISE_TX_POWER_HIGH: number;
 
     setHardwareEqualityEnforced(
       flag: boolean
     ): void;
 
+    setParsers(
+      parsers: Array<string>
+    ): Promise<Array<string>>;
+
+    getParsers(): Promise<Array<string>>;
+
     detectIBeacons(): void;
 
     detectAltBeacons(): void;
@@ -93,16 +434,134 @@ declare module 'react-native-beacons-manager' {
       period: number
     ): void;
 
+    setAdaptiveScanning(
+      config: AdaptiveScanningConfig
+    ): void;
+
     setRssiFilter(
       filterType: number,
       avgModifier: number
     ): void;
 
+    setRangeBatching(
+      config: RangeBatchingConfig
+    ): void;
+
+    setRangingMode(
+      mode: number,
+      options?: RangingModeOptions
+    ): void;
+
+    setProximitySmoothing(
+      config: ProximitySmoothingConfig
+    ): void;
+
+    setEventQueue(
+      config: EventQueueConfig
+    ): void;
+
+    getEventQueueStats(): Promise<EventQueueStats>;
+
+    getScanMetrics(): Promise<ScanMetrics>;
+
+    setScanMetricsInterval(
+      intervalMs: number
+    ): void;
+
+    resetScanMetrics(): void;
+
+    decodePackedRanging(
+      payload: PackedRangingPayload
+    ): PackedRanging;
+
     getRangedRegions(): Promise<any>;
 
     getMonitoredRegions(): Promise<Array<BeaconRegion>>;
 
-    checkTransmissionSupported(): Promise<number>;
+    setMonitoredRegions(
+      regions: Array<BeaconRegion>
+    ): Promise<RegionSetChanges>;
+
+    setRangedRegions(
+      regions: Array<BeaconRegion>
+    ): Promise<RegionSetChanges>;
+
+    setVirtualRegions(
+      regions: Array<BeaconRegion>,
+      options?: VirtualRegionsOptions
+    ): Promise<{regions: number, rangedRegions: number}>;
+
+    setRegionDebouncing(
+      config: RegionDebouncingConfig
+    ): void;
+
+    setPositioning(
+      config: PositioningConfig
+    ): Promise<any>;
+
+    startScanRecording(
+      options?: ScanRecordingOptions
+    ): Promise<string>;
+
+    stopScanRecording(): Promise<ScanRecordingResult>;
+
+    replayScanRecording(
+      path: string,
+      options?: ScanReplayOptions
+    ): Promise<{entries: number, elapsedMs: number}>;
+
+    stopScanReplay(): void;
+
+    getBeaconHandles(): Promise<Array<BeaconHandleDefinition>>;
+
+    subscribeRanging(
+      options: RangingSubscriptionOptions,
+      listener: (event: RangingSubscriptionEvent) => void
+    ): Promise<BeaconsSubscription>;
+
+    subscribeMonitoring(
+      options: MonitoringSubscriptionOptions,
+      listener: (event: MonitoringSubscriptionEvent) => void
+    ): Promise<BeaconsSubscription>;
+
+    setRangingBroadcast(enabled: boolean): void;
+
+    setLastSeenStore(config: LastSeenStoreConfig): void;
+
+    setHeadlessTask(config: HeadlessTaskConfig): void;
+
+    registerHeadlessTransitionsTask(
+      task: (data: HeadlessTransitions) => Promise<void>
+    ): void;
+
+    getLastSeenBeacons(
+      regionId?: string,
+      maxAgeMs?: number
+    ): Promise<Array<LastSeenBeacon>>;
+
+    setRssiHistory(config: RssiHistoryConfig): void;
+
+    getRssiStats(
+      beaconKey: string | number,
+      windowMs?: number
+    ): Promise<RssiStats | null>;
+
+    // resolves to the status name, rejects with ERROR_TRANSMISSION_NOT_SUPPORTED when the check fails
+    checkTransmissionSupported(): Promise<
+      | 'SUPPORTED'
+      | 'NOT_SUPPORTED_MIN_SDK'
+      | 'NOT_SUPPORTED_BLE'
+      | 'DEPRECATED_NOT_SUPPORTED_MULTIPLE_ADVERTISEMENTS'
+      | 'NOT_SUPPORTED_CANNOT_GET_ADVERTISER'
+      | 'NOT_SUPPORTED_CANNOT_GET_ADVERTISER_MULTIPLE_ADVERTISEMENTS'
+    >;
+
+    startAdvertising(
+      sets: Array<AdvertisementSet>,
+      options?: AdvertisingOptions
+    ): Promise<{sets: number, rotating: boolean}>;
+
+    stopAdvertising(): Promise<any>;
 
     ///////////////////////////////////////////////////////
     // common iOS and Android
@@ -156,9 +615,10 @@ declare module 'react-native-beacons-manager' {
       }
     ): Promise<any>;
 
+    // resolves once the state is requested, the state is emitted as didDetermineState
     requestStateForRegion(
       region: BeaconRegion
-    ): void;
+    ): Promise<any>;
 
     /** ANDROID ONLY */
     enableForegroundServiceScanning(
@@ -167,6 +627,14 @@ declare module 'react-native-beacons-manager' {
     
     /** ANDROID ONLY */
     disableForegroundServiceScanning(): Promise<any>;
+
+    /** ANDROID ONLY */
+    setEventJournal(
+      config: EventJournalConfig
+    ): void;
+
+    /** ANDROID ONLY */
+    drainEventJournal(): Promise<Array<JournaledEvent>>;
   }
 
   const beacons: Beacons;